@@ -0,0 +1,225 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+
+package com.cloudogu.custom.properties;
+
+import com.cloudogu.custom.properties.config.ConfigService;
+import com.cloudogu.custom.properties.config.GlobalConfig;
+import com.cloudogu.custom.properties.config.PredefinedKey;
+import com.cloudogu.custom.properties.config.ValueMode;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.shiro.authc.AuthenticationInfo;
+import org.apache.shiro.authc.AuthenticationToken;
+import org.apache.shiro.authz.AuthorizationInfo;
+import org.apache.shiro.authz.SimpleAuthorizationInfo;
+import org.apache.shiro.authz.permission.AllPermission;
+import org.apache.shiro.mgt.DefaultSecurityManager;
+import org.apache.shiro.realm.AuthorizingRealm;
+import org.apache.shiro.subject.PrincipalCollection;
+import org.apache.shiro.subject.SimplePrincipalCollection;
+import org.apache.shiro.subject.Subject;
+import org.apache.shiro.util.ThreadContext;
+import sonia.scm.event.ScmEventBus;
+import sonia.scm.repository.Repository;
+import sonia.scm.repository.RepositoryManager;
+import sonia.scm.store.InMemoryByteConfigurationEntryStoreFactory;
+import sonia.scm.store.InMemoryByteConfigurationStoreFactory;
+import sonia.scm.web.security.AdministrationContext;
+import sonia.scm.web.security.PrivilegedAction;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Synthetic installation for the benchmarks, which wires the services with in-memory stores
+ * and a repository manager backed by a plain list of repositories.
+ * <p>
+ * Every repository has a multiple choice "lang" property, a "team" property and every tenth repository
+ * has a "tier" property. The predefined keys add the default property "owner" and the mandatory key "license",
+ * which is only stored for every other repository.
+ */
+class BenchmarkFixture {
+
+  static final String[] LANGUAGES = {"Java", "Go", "Rust", "TypeScript", "Python"};
+  static final int NAMESPACE_COUNT = 100;
+  static final int TEAM_COUNT = 50;
+
+  final List<Repository> repositories;
+  final ConfigService configService;
+  final CustomPropertiesService customPropertiesService;
+  final RepositoryPropertyIndex propertyIndex;
+  final MissingMandatoryPropertiesIndex missingMandatoryPropertiesIndex;
+  final CustomPropertiesSearchService searchService;
+
+  BenchmarkFixture(int repositoryCount) {
+    this(repositoryCount, false);
+  }
+
+  BenchmarkFixture(int repositoryCount, boolean propertyTable) {
+    repositories = createRepositories(repositoryCount);
+
+    ScmEventBus eventBus = mock(ScmEventBus.class);
+    CustomPropertiesMetrics metrics = new CustomPropertiesMetrics(new SimpleMeterRegistry());
+    configService = new ConfigService(new InMemoryByteConfigurationStoreFactory(), eventBus, metrics);
+    configService.setGlobalConfig(new GlobalConfig(true, true, Map.of(
+      "lang", new PredefinedKey(List.of(LANGUAGES), ValueMode.MULTIPLE_CHOICE, ""),
+      "owner", new PredefinedKey(List.of(), "unknown"),
+      "license", new PredefinedKey(List.of(), ValueMode.MANDATORY, "")
+    )));
+
+    InMemoryByteConfigurationEntryStoreFactory storeFactory = new InMemoryByteConfigurationEntryStoreFactory();
+    for (int i = 0; i < repositories.size(); i++) {
+      Repository repository = repositories.get(i);
+      createProperties(i).forEach(property -> storeFactory
+        .withType(CustomProperty.class)
+        .withName("custom-properties")
+        .forRepository(repository)
+        .build()
+        .put(property.getKey(), property));
+    }
+
+    RepositoryManager repositoryManager = createRepositoryManager(repositories);
+    AdministrationContext administrationContext = mock(AdministrationContext.class);
+    doAnswer(invocation -> {
+      invocation.getArgument(0, PrivilegedAction.class).run();
+      return null;
+    }).when(administrationContext).runAsAdmin(any(PrivilegedAction.class));
+
+    customPropertiesService = new CustomPropertiesService(storeFactory, configService, eventBus, PropertySnapshot.disabled(), metrics);
+    propertyIndex = new RepositoryPropertyIndex(repositoryManager, customPropertiesService, administrationContext, propertyTable);
+    missingMandatoryPropertiesIndex = new MissingMandatoryPropertiesIndex(
+      repositoryManager, configService, customPropertiesService, propertyIndex, administrationContext, metrics
+    );
+    searchService = new CustomPropertiesSearchService(
+      customPropertiesService,
+      repositoryManager,
+      propertyIndex,
+      new SearchEngineRepositoryQuery(null, customPropertiesService, new PendingIndexChanges(), false),
+      metrics
+    );
+  }
+
+  static List<CustomProperty> createProperties(int index) {
+    List<CustomProperty> properties = new ArrayList<>();
+    properties.add(new CustomProperty(
+      "lang",
+      LANGUAGES[index % LANGUAGES.length] + CustomPropertiesContext.MULTIPLE_CHOICE_VALUE_SEPARATOR + LANGUAGES[(index + 1) % LANGUAGES.length]
+    ));
+    properties.add(new CustomProperty("team", "team-" + index % TEAM_COUNT));
+    if (index % 10 == 0) {
+      properties.add(new CustomProperty("tier", "critical"));
+    }
+    if (index % 2 == 0) {
+      properties.add(new CustomProperty("license", "MIT"));
+    }
+    return properties;
+  }
+
+  private static List<Repository> createRepositories(int repositoryCount) {
+    List<Repository> repositories = new ArrayList<>(repositoryCount);
+    for (int i = 0; i < repositoryCount; i++) {
+      Repository repository = new Repository("id-" + i, "git", "namespace-" + i % NAMESPACE_COUNT, "repository-" + i);
+      repository.setArchived(i % 20 == 0);
+      repositories.add(repository);
+    }
+    return repositories;
+  }
+
+  /**
+   * Creates a repository manager, which supports only the read methods used by the plugin.
+   * A dynamic proxy is used instead of a mock, so that the lookups do not distort the measurements.
+   */
+  private static RepositoryManager createRepositoryManager(List<Repository> repositories) {
+    Map<String, Repository> repositoriesById = new HashMap<>();
+    repositories.forEach(repository -> repositoriesById.put(repository.getId(), repository));
+    Set<String> namespaces = Set.copyOf(repositories.stream().map(Repository::getNamespace).toList());
+
+    return (RepositoryManager) Proxy.newProxyInstance(
+      RepositoryManager.class.getClassLoader(),
+      new Class<?>[]{RepositoryManager.class},
+      (proxy, method, args) -> {
+        int parameterCount = method.getParameterCount();
+        return switch (method.getName()) {
+          case "get" -> parameterCount == 1 && args[0] instanceof String id ? repositoriesById.get(id) : unsupported(method.getName());
+          case "getAll" -> parameterCount == 0 ? repositories : getAll(repositories, args);
+          case "getAllNamespaces" -> namespaces;
+          case "hashCode" -> System.identityHashCode(proxy);
+          case "equals" -> proxy == args[0];
+          case "toString" -> "BenchmarkRepositoryManager";
+          default -> unsupported(method.getName());
+        };
+      }
+    );
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Object getAll(List<Repository> repositories, Object[] args) {
+    if (!(args[0] instanceof Predicate<?> filter)) {
+      return unsupported("getAll");
+    }
+    Stream<Repository> result = repositories.stream().filter((Predicate<Repository>) filter);
+    if (args.length > 1 && args[1] instanceof Comparator<?> comparator) {
+      result = result.sorted((Comparator<Repository>) comparator);
+    }
+    return result.toList();
+  }
+
+  private static Object unsupported(String methodName) {
+    throw new UnsupportedOperationException(methodName + " is not supported by the benchmark repository manager");
+  }
+
+  /**
+   * Binds a subject with all permissions to the current thread,
+   * because the search checks the read permission of every repository.
+   */
+  static void bindAdministrator() {
+    SimpleAuthorizationInfo authorizationInfo = new SimpleAuthorizationInfo();
+    authorizationInfo.addObjectPermission(new AllPermission());
+    AuthorizingRealm realm = new AuthorizingRealm() {
+      @Override
+      protected AuthorizationInfo doGetAuthorizationInfo(PrincipalCollection principals) {
+        return authorizationInfo;
+      }
+
+      @Override
+      protected AuthenticationInfo doGetAuthenticationInfo(AuthenticationToken token) {
+        return null;
+      }
+    };
+
+    Subject subject = new Subject.Builder(new DefaultSecurityManager(realm))
+      .principals(new SimplePrincipalCollection("benchmark", realm.getName()))
+      .authenticated(true)
+      .buildSubject();
+    ThreadContext.bind(subject);
+  }
+
+  static void unbindAdministrator() {
+    ThreadContext.unbindSubject();
+  }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+
+package com.cloudogu.custom.properties;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CustomPropertiesSearchServiceBenchmark {
+
+  @Param({"1000", "10000", "100000"})
+  private int repositoryCount;
+
+  @Param({"false", "true"})
+  private boolean propertyTable;
+
+  private CustomPropertiesSearchService searchService;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    BenchmarkFixture fixture = new BenchmarkFixture(repositoryCount, propertyTable);
+    searchService = fixture.searchService;
+    BenchmarkFixture.bindAdministrator();
+    // load the property index, so that the first iteration does not measure the initialization
+    fixture.propertyIndex.getProperties("id-0");
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    BenchmarkFixture.unbindAdministrator();
+  }
+
+  @Benchmark
+  public Collection<CustomPropertiesSearchService.RepositoryWithProps> findAll() {
+    return searchService.findRepositoriesWithCustomProperties(
+      new CustomPropertiesSearchService.Filter(null, null, null, false)
+    );
+  }
+
+  @Benchmark
+  public Collection<CustomPropertiesSearchService.RepositoryWithProps> findByKey() {
+    return searchService.findRepositoriesWithCustomProperties(
+      new CustomPropertiesSearchService.Filter("tier", null, null, true)
+    );
+  }
+
+  @Benchmark
+  public Collection<CustomPropertiesSearchService.RepositoryWithProps> findByValueWithWildcard() {
+    return searchService.findRepositoriesWithCustomProperties(
+      new CustomPropertiesSearchService.Filter(null, "team-4*", null, false)
+    );
+  }
+
+  @Benchmark
+  public Collection<CustomPropertiesSearchService.RepositoryWithProps> findByKeyValuePair() {
+    return searchService.findRepositoriesWithCustomProperties(
+      new CustomPropertiesSearchService.Filter(null, null, "lang=Rust", false)
+    );
+  }
+
+  @Benchmark
+  public Collection<CustomPropertiesSearchService.RepositoryWithProps> findByDefaultProperty() {
+    return searchService.findRepositoriesWithCustomProperties(
+      new CustomPropertiesSearchService.Filter(null, null, "owner=unknown", false)
+    );
+  }
+
+  @Benchmark
+  public Collection<CustomPropertiesSearchService.RepositoryWithProps> findByCompoundFilterInNamespace() {
+    return searchService.findRepositoriesWithCustomProperties(
+      new CustomPropertiesSearchService.Filter("tier", "java", null, "namespace-1*", false)
+    );
+  }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+
+package com.cloudogu.custom.properties;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import sonia.scm.repository.Repository;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CustomPropertiesServiceBenchmark {
+
+  private static final int REPOSITORY_COUNT = 1000;
+
+  private CustomPropertiesService customPropertiesService;
+  private Repository repository;
+  private Collection<CustomProperty> storedProperties;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    BenchmarkFixture fixture = new BenchmarkFixture(REPOSITORY_COUNT);
+    customPropertiesService = fixture.customPropertiesService;
+    repository = fixture.repositories.get(0);
+    storedProperties = BenchmarkFixture.createProperties(0);
+  }
+
+  @Benchmark
+  public Collection<CustomProperty> getFromStore() {
+    return customPropertiesService.get(repository);
+  }
+
+  @Benchmark
+  public Collection<CustomProperty> getWithStoredProperties() {
+    return customPropertiesService.get(repository, storedProperties);
+  }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+
+package com.cloudogu.custom.properties;
+
+import com.google.inject.util.Providers;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import sonia.scm.api.v2.resources.ScmPathInfoStore;
+import sonia.scm.repository.Repository;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CustomPropertyMapperBenchmark {
+
+  @Param({"10", "100"})
+  private int propertyCount;
+
+  private CustomPropertyMapper mapper;
+  private Repository repository;
+  private Collection<CustomProperty> properties;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    ScmPathInfoStore scmPathInfoStore = new ScmPathInfoStore();
+    scmPathInfoStore.set(() -> URI.create("https://scm-manager.org/scm/api/"));
+    mapper = new CustomPropertyMapperImpl();
+    mapper.setScmPathInfoStore(Providers.of(scmPathInfoStore));
+
+    repository = new Repository("id-0", "git", "namespace-0", "repository-0");
+    properties = new ArrayList<>();
+    for (int i = 0; i < propertyCount; i++) {
+      properties.add(new CustomProperty("key-" + i, "Java" + CustomPropertiesContext.MULTIPLE_CHOICE_VALUE_SEPARATOR + "Go", i % 10 == 0, false));
+    }
+    BenchmarkFixture.bindAdministrator();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    BenchmarkFixture.unbindAdministrator();
+  }
+
+  @Benchmark
+  public List<CustomPropertyDto> mapToDtoCollection() {
+    return mapper.mapToDtoCollection(properties, repository);
+  }
+
+  @Benchmark
+  public List<CustomPropertyDto> mapToDtoCollectionWithSeparator() {
+    return mapper.mapToDtoCollection(properties, repository, ",");
+  }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+
+package com.cloudogu.custom.properties;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import sonia.scm.repository.Repository;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MissingMandatoryPropertiesIndexBenchmark {
+
+  @Param({"1000", "10000", "100000"})
+  private int repositoryCount;
+
+  private MissingMandatoryPropertiesIndex missingMandatoryPropertiesIndex;
+  private Repository repository;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    BenchmarkFixture fixture = new BenchmarkFixture(repositoryCount);
+    missingMandatoryPropertiesIndex = fixture.missingMandatoryPropertiesIndex;
+    repository = fixture.repositories.get(1);
+    BenchmarkFixture.bindAdministrator();
+    // compute the index, so that the first iteration does not measure the initialization
+    missingMandatoryPropertiesIndex.getMissingMandatoryPropertiesForRepository(repository);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    BenchmarkFixture.unbindAdministrator();
+  }
+
+  @Benchmark
+  public Map<String, Collection<Repository>> getMissingMandatoryProperties() {
+    return missingMandatoryPropertiesIndex.getMissingMandatoryProperties();
+  }
+
+  @Benchmark
+  public Map<String, Collection<Repository>> getMissingMandatoryPropertiesForNamespace() {
+    return missingMandatoryPropertiesIndex.getMissingMandatoryPropertiesForNamespace(repository.getNamespace());
+  }
+
+  @Benchmark
+  public Collection<String> getMissingMandatoryPropertiesForRepository() {
+    return missingMandatoryPropertiesIndex.getMissingMandatoryPropertiesForRepository(repository);
+  }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+
+package com.cloudogu.custom.properties.config;
+
+import com.cloudogu.custom.properties.CustomPropertiesContext;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PredefinedKeyBenchmark {
+
+  @Param({"10", "1000", "10000"})
+  private int allowedValueCount;
+
+  private PredefinedKey singleChoiceKey;
+  private PredefinedKey multipleChoiceKey;
+  private String lastAllowedValue;
+  private String multipleChoiceValue;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    List<String> allowedValues = new ArrayList<>(allowedValueCount);
+    for (int i = 0; i < allowedValueCount; i++) {
+      allowedValues.add("value-" + i);
+    }
+    singleChoiceKey = new PredefinedKey(allowedValues);
+    multipleChoiceKey = new PredefinedKey(allowedValues, ValueMode.MULTIPLE_CHOICE, "");
+
+    lastAllowedValue = allowedValues.get(allowedValueCount - 1);
+    multipleChoiceValue = String.join(
+      CustomPropertiesContext.MULTIPLE_CHOICE_VALUE_SEPARATOR,
+      allowedValues.get(0), allowedValues.get(allowedValueCount / 2), lastAllowedValue
+    );
+  }
+
+  @Benchmark
+  public boolean isSingleValueValid() {
+    return singleChoiceKey.isValueValid(lastAllowedValue);
+  }
+
+  @Benchmark
+  public boolean isSingleValueInvalid() {
+    return singleChoiceKey.isValueValid("unknown");
+  }
+
+  @Benchmark
+  public boolean isMultipleChoiceValueValid() {
+    return multipleChoiceKey.isValueValid(multipleChoiceValue);
+  }
+}
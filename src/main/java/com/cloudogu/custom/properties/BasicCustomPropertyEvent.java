@@ -23,9 +23,15 @@ import sonia.scm.repository.Repository;
 public class BasicCustomPropertyEvent {
   protected final Repository repository;
   protected final CustomProperty property;
+  // set for changes, which have been posted with a CustomPropertyBulkEvent before
+  private volatile boolean partOfBulk = false;
 
   public BasicCustomPropertyEvent(Repository repository, CustomProperty property) {
     this.repository = repository;
     this.property = property;
   }
+
+  void markAsPartOfBulk() {
+    partOfBulk = true;
+  }
 }
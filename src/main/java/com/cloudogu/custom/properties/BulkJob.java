@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+package com.cloudogu.custom.properties;
+
+import lombok.Getter;
+import sonia.scm.repository.Repository;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Progress of a job, which applies the same custom property operations to many repositories.
+ */
+public class BulkJob {
+
+  private static final int MAX_FAILURES = 100;
+
+  @Getter
+  private final String id;
+  @Getter
+  private final String initiator;
+  @Getter
+  private final int total;
+  private final AtomicInteger processed = new AtomicInteger();
+  private final AtomicInteger changed = new AtomicInteger();
+  private final AtomicInteger failed = new AtomicInteger();
+  private final List<String> failures = new ArrayList<>();
+  @Getter
+  private volatile State state = State.QUEUED;
+
+  BulkJob(String id, String initiator, int total) {
+    this.id = id;
+    this.initiator = initiator;
+    this.total = total;
+  }
+
+  public int getProcessed() {
+    return processed.get();
+  }
+
+  public int getChanged() {
+    return changed.get();
+  }
+
+  public int getFailed() {
+    return failed.get();
+  }
+
+  /**
+   * Returns the failure messages of the first failed repositories.
+   */
+  public Collection<String> getFailures() {
+    synchronized (failures) {
+      return List.copyOf(failures);
+    }
+  }
+
+  void started() {
+    state = State.RUNNING;
+  }
+
+  void finished() {
+    state = State.FINISHED;
+  }
+
+  void processed(boolean hasChanged) {
+    if (hasChanged) {
+      changed.incrementAndGet();
+    }
+    processed.incrementAndGet();
+  }
+
+  void failed(Repository repository, String message) {
+    failed.incrementAndGet();
+    synchronized (failures) {
+      if (failures.size() < MAX_FAILURES) {
+        failures.add(String.format("%s: %s", repository.getNamespaceAndName(), message));
+      }
+    }
+    processed.incrementAndGet();
+  }
+
+  public enum State {
+    QUEUED, RUNNING, FINISHED
+  }
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+package com.cloudogu.custom.properties;
+
+import de.otto.edison.hal.HalRepresentation;
+import de.otto.edison.hal.Links;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+
+import java.util.Collection;
+
+@Getter
+@EqualsAndHashCode(callSuper = true)
+public class BulkJobDto extends HalRepresentation {
+  private final String id;
+  private final BulkJob.State state;
+  private final int total;
+  private final int processed;
+  private final int changed;
+  private final int failed;
+  private final Collection<String> failures;
+
+  BulkJobDto(BulkJob job, Links links) {
+    super(links);
+    this.id = job.getId();
+    this.state = job.getState();
+    this.total = job.getTotal();
+    this.processed = job.getProcessed();
+    this.changed = job.getChanged();
+    this.failed = job.getFailed();
+    this.failures = job.getFailures();
+  }
+}
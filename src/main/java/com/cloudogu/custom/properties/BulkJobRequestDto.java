@@ -0,0 +1,53 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+package com.cloudogu.custom.properties;
+
+import com.google.common.base.Strings;
+import jakarta.validation.Valid;
+import jakarta.validation.constraints.AssertTrue;
+import jakarta.validation.constraints.NotEmpty;
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Pattern;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.util.List;
+
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class BulkJobRequestDto {
+  private String namespace;
+  private String key;
+  private String value;
+  @Pattern(regexp = ".+=.+", message = "Property must match the format <key>=<value>")
+  private String property;
+  private boolean excludeArchived;
+  @NotEmpty
+  private List<@NotNull @Valid CustomPropertyOperationDto> operations;
+
+  @AssertTrue(message = "Repositories have to be selected by namespace or by a key, value or property filter")
+  public boolean isSelective() {
+    return !isBlank(namespace) || !isBlank(key) || !isBlank(value) || !isBlank(property);
+  }
+
+  private static boolean isBlank(String selector) {
+    return Strings.isNullOrEmpty(selector) || selector.isBlank();
+  }
+}
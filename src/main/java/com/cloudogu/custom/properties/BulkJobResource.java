@@ -0,0 +1,192 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+package com.cloudogu.custom.properties;
+
+import com.cloudogu.custom.properties.config.ConfigService;
+import de.otto.edison.hal.Links;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.media.Content;
+import io.swagger.v3.oas.annotations.media.Schema;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import jakarta.inject.Inject;
+import jakarta.inject.Provider;
+import jakarta.validation.Valid;
+import jakarta.validation.constraints.NotNull;
+import jakarta.ws.rs.Consumes;
+import jakarta.ws.rs.ForbiddenException;
+import jakarta.ws.rs.GET;
+import jakarta.ws.rs.POST;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.PathParam;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+import org.apache.shiro.SecurityUtils;
+import sonia.scm.ContextEntry;
+import sonia.scm.api.v2.resources.ErrorDto;
+import sonia.scm.api.v2.resources.LinkBuilder;
+import sonia.scm.api.v2.resources.ScmPathInfoStore;
+import sonia.scm.repository.Repository;
+import sonia.scm.repository.RepositoryManager;
+import sonia.scm.repository.RepositoryPermissions;
+import sonia.scm.web.VndMediaType;
+
+import java.net.URI;
+import java.util.List;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+import static sonia.scm.NotFoundException.notFound;
+
+@Path(CustomPropertiesContext.BULK_JOBS_V2_PATH)
+public class BulkJobResource {
+
+  public static final String BULK_JOB_MEDIA_TYPE = VndMediaType.PREFIX + "CustomPropertiesBulkJob" + VndMediaType.SUFFIX;
+
+  private final Provider<ScmPathInfoStore> pathInfoStore;
+  private final RepositoryManager repositoryManager;
+  private final ConfigService configService;
+  private final CustomPropertiesSearchService searchService;
+  private final CustomPropertyMapper customPropertyMapper;
+  private final BulkJobService bulkJobService;
+
+  @Inject
+  public BulkJobResource(Provider<ScmPathInfoStore> pathInfoStore,
+                         RepositoryManager repositoryManager,
+                         ConfigService configService,
+                         CustomPropertiesSearchService searchService,
+                         CustomPropertyMapper customPropertyMapper,
+                         BulkJobService bulkJobService) {
+    this.pathInfoStore = pathInfoStore;
+    this.repositoryManager = repositoryManager;
+    this.configService = configService;
+    this.searchService = searchService;
+    this.customPropertyMapper = customPropertyMapper;
+    this.bulkJobService = bulkJobService;
+  }
+
+  @POST
+  @Operation(
+    summary = "Starts job to change custom properties of many repositories",
+    description = """
+      Starts a background job, which applies the given operations to every selected repository,
+      for which the current user has the permission to modify it.
+      Repositories are selected by a namespace and/or by the `key`, `value` and `property` filters
+      known from the repository search, where multiple choice values have to be separated by the tab stop character.
+      The operations have the same format used to change multiple custom properties of a single repository.
+      The progress of the job can be read from the url in the location header.
+      
+      Example:
+      `{"namespace": "platform", "operations": [{"type": "CREATE", "property": {"key": "team", "value": "platform"}}]}`
+      """,
+    tags = "Custom Properties",
+    operationId = "custom-properties_start_bulk_job"
+  )
+  @ApiResponse(responseCode = "202", description = "job started")
+  @ApiResponse(responseCode = "400", description = "invalid selection or operation")
+  @ApiResponse(responseCode = "401", description = "not authenticated / invalid credentials")
+  @ApiResponse(responseCode = "403", description = "not authorized, plugin deactivated")
+  @ApiResponse(
+    responseCode = "500",
+    description = "internal server error",
+    content = @Content(
+      mediaType = VndMediaType.ERROR_TYPE,
+      schema = @Schema(implementation = ErrorDto.class)
+    )
+  )
+  @Consumes(BULK_JOB_MEDIA_TYPE)
+  public Response start(@NotNull @Valid BulkJobRequestDto requestDto) {
+    checkIsFeatureEnabled();
+
+    List<Repository> repositories = selectRepositories(requestDto)
+      .filter(repository -> RepositoryPermissions.modify(repository).isPermitted())
+      .toList();
+    BulkJob job = bulkJobService.start(
+      repositories,
+      requestDto.getOperations().stream().map(customPropertyMapper::map).toList()
+    );
+
+    return Response.accepted(createDto(job)).location(URI.create(createSelfLink(job))).build();
+  }
+
+  @GET
+  @Path("/{id}")
+  @Operation(
+    summary = "Get progress of job",
+    description = "Gets the progress of a job started by the current user.",
+    tags = "Custom Properties",
+    operationId = "custom-properties_get_bulk_job"
+  )
+  @ApiResponse(responseCode = "200", description = "get success")
+  @ApiResponse(responseCode = "401", description = "not authenticated / invalid credentials")
+  @ApiResponse(responseCode = "403", description = "not authorized, plugin deactivated")
+  @ApiResponse(responseCode = "404", description = "not found")
+  @ApiResponse(
+    responseCode = "500",
+    description = "internal server error",
+    content = @Content(
+      mediaType = VndMediaType.ERROR_TYPE,
+      schema = @Schema(implementation = ErrorDto.class)
+    )
+  )
+  @Produces(MediaType.APPLICATION_JSON)
+  public BulkJobDto read(@PathParam("id") String id) {
+    checkIsFeatureEnabled();
+
+    String currentUser = String.valueOf(SecurityUtils.getSubject().getPrincipal());
+    return bulkJobService.get(id)
+      .filter(job -> job.getInitiator().equals(currentUser))
+      .map(this::createDto)
+      .orElseThrow(() -> notFound(ContextEntry.ContextBuilder.entity("custom-properties-job", id)));
+  }
+
+  private Stream<Repository> selectRepositories(BulkJobRequestDto requestDto) {
+    CustomPropertiesSearchService.Filter filter = new CustomPropertiesSearchService.Filter(
+      requestDto.getKey(),
+      requestDto.getValue(),
+      requestDto.getProperty(),
+      requestDto.getNamespace(),
+      requestDto.isExcludeArchived()
+    );
+
+    if (filter.hasNoCustomPropertyFilter()) {
+      Predicate<String> namespaceMatcher = filter.getNamespaceMatcher();
+      return repositoryManager.getAll(
+        repository -> namespaceMatcher.test(repository.getNamespace()) && !(filter.excludeArchived() && repository.isArchived())
+      ).stream();
+    }
+    return searchService.findRepositoriesWithCustomProperties(filter)
+      .stream()
+      .map(CustomPropertiesSearchService.RepositoryWithProps::repository);
+  }
+
+  private BulkJobDto createDto(BulkJob job) {
+    return new BulkJobDto(job, new Links.Builder().self(createSelfLink(job)).build());
+  }
+
+  private String createSelfLink(BulkJob job) {
+    return new LinkBuilder(pathInfoStore.get().get(), BulkJobResource.class)
+      .method("read")
+      .parameters(job.getId())
+      .href();
+  }
+
+  private void checkIsFeatureEnabled() {
+    if (!configService.getGlobalConfig().isEnabled()) {
+      throw new ForbiddenException();
+    }
+  }
+}
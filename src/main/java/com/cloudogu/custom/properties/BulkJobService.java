@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+package com.cloudogu.custom.properties;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import jakarta.inject.Inject;
+import jakarta.inject.Singleton;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.shiro.SecurityUtils;
+import org.apache.shiro.subject.Subject;
+import sonia.scm.event.ScmEventBus;
+import sonia.scm.repository.Repository;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Applies custom property operations to many repositories in the background.
+ * Jobs are run one after another, each in batches, whose repositories are changed in parallel.
+ * The changes of a batch are posted with a single {@link CustomPropertyBulkEvent},
+ * so that the search index is updated only once per batch.
+ */
+@Slf4j
+@Singleton
+public class BulkJobService {
+
+  @VisibleForTesting
+  static final int BATCH_SIZE = 100;
+  private static final int MAX_JOBS = 100;
+
+  private final CustomPropertiesService customPropertiesService;
+  private final ScmEventBus eventBus;
+  private final ExecutorService jobExecutor;
+  private final ExecutorService batchExecutor;
+
+  private final Map<String, BulkJob> jobs = new LinkedHashMap<>() {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, BulkJob> eldest) {
+      return size() > MAX_JOBS;
+    }
+  };
+
+  @Inject
+  BulkJobService(CustomPropertiesService customPropertiesService, ScmEventBus eventBus) {
+    this(
+      customPropertiesService,
+      eventBus,
+      Executors.newSingleThreadExecutor(createThreadFactory("CustomPropertiesBulkJob-%d")),
+      Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), createThreadFactory("CustomPropertiesBulkWorker-%d"))
+    );
+  }
+
+  @VisibleForTesting
+  BulkJobService(CustomPropertiesService customPropertiesService, ScmEventBus eventBus, ExecutorService jobExecutor, ExecutorService batchExecutor) {
+    this.customPropertiesService = customPropertiesService;
+    this.eventBus = eventBus;
+    this.jobExecutor = jobExecutor;
+    this.batchExecutor = batchExecutor;
+  }
+
+  private static ThreadFactory createThreadFactory(String nameFormat) {
+    return new ThreadFactoryBuilder().setNameFormat(nameFormat).setDaemon(true).build();
+  }
+
+  /**
+   * Queues a job for the given repositories, which is run with the permissions of the current subject.
+   * Permissions have to be checked before. The values of the operations are validated before the job is queued,
+   * so that an invalid request is rejected instead of failing for every repository.
+   */
+  BulkJob start(Collection<Repository> repositories, List<CustomPropertyOperation> operations) {
+    customPropertiesService.validate(repositories, operations);
+
+    Subject subject = SecurityUtils.getSubject();
+    BulkJob job = new BulkJob(UUID.randomUUID().toString(), String.valueOf(subject.getPrincipal()), repositories.size());
+    synchronized (jobs) {
+      jobs.put(job.getId(), job);
+    }
+
+    List<Repository> jobRepositories = List.copyOf(repositories);
+    List<CustomPropertyOperation> jobOperations = List.copyOf(operations);
+    jobExecutor.execute(subject.associateWith(() -> run(job, jobRepositories, jobOperations)));
+    return job;
+  }
+
+  Optional<BulkJob> get(String id) {
+    synchronized (jobs) {
+      return Optional.ofNullable(jobs.get(id));
+    }
+  }
+
+  private void run(BulkJob job, List<Repository> repositories, List<CustomPropertyOperation> operations) {
+    log.debug("Starting bulk job {} for {} repositories", job.getId(), repositories.size());
+    job.started();
+    try {
+      for (List<Repository> batch : Lists.partition(repositories, BATCH_SIZE)) {
+        runBatch(job, batch, operations);
+      }
+    } catch (InterruptedException e) {
+      log.warn("Bulk job {} got interrupted", job.getId());
+      Thread.currentThread().interrupt();
+    } finally {
+      job.finished();
+      log.debug("Finished bulk job {}", job.getId());
+    }
+  }
+
+  private void runBatch(BulkJob job, List<Repository> batch, List<CustomPropertyOperation> operations) throws InterruptedException {
+    Subject subject = SecurityUtils.getSubject();
+    List<Callable<List<BasicCustomPropertyEvent>>> tasks = batch.stream()
+      .map(repository -> subject.associateWith(() -> apply(job, repository, operations)))
+      .toList();
+
+    List<BasicCustomPropertyEvent> changes = new ArrayList<>();
+    for (Future<List<BasicCustomPropertyEvent>> future : batchExecutor.invokeAll(tasks)) {
+      try {
+        changes.addAll(future.get());
+      } catch (ExecutionException e) {
+        log.error("Unexpected failure in bulk job {}", job.getId(), e);
+      }
+    }
+
+    if (!changes.isEmpty()) {
+      CustomPropertyBulkEvent.post(eventBus, changes);
+    }
+  }
+
+  private List<BasicCustomPropertyEvent> apply(BulkJob job, Repository repository, List<CustomPropertyOperation> operations) {
+    try {
+      List<BasicCustomPropertyEvent> changes = customPropertiesService.applyWithoutEvent(repository, operations);
+      job.processed(!changes.isEmpty());
+      return changes;
+    } catch (RuntimeException e) {
+      log.debug("Could not apply operations of bulk job {} to repository {}", job.getId(), repository, e);
+      job.failed(repository, e.getMessage());
+      return List.of();
+    }
+  }
+}
@@ -22,6 +22,7 @@ public class CustomPropertiesContext {
 
   public static final String CUSTOM_PROPERTIES_V2_PATH = "v2/custom-properties";
   public static final String MANDATORY_PROPERTIES_V2_PATH = "v2/mandatory-properties";
+  public static final String BULK_JOBS_V2_PATH = "v2/custom-properties-jobs";
   public static final String MISSING_MANDATORY_PROPERTIES_LINK_NAME = "missingMandatoryProperties";
   public static final String CONFIG_PERMISSION_NAME = "customProperties";
   public static final String CONFIG_LINK_NAME = "customPropertiesConfig";
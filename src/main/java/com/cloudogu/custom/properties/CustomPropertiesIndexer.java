@@ -17,6 +17,10 @@
 package com.cloudogu.custom.properties;
 
 import com.github.legman.Subscribe;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.micrometer.core.instrument.Timer;
 import jakarta.inject.Inject;
 import jakarta.servlet.ServletContextEvent;
 import jakarta.servlet.ServletContextListener;
@@ -35,7 +39,24 @@ import sonia.scm.search.ReindexRepositoryEvent;
 import sonia.scm.search.SearchEngine;
 import sonia.scm.search.SerializableIndexTask;
 
+import java.io.Serializable;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 import static com.cloudogu.custom.properties.CustomPropertiesContext.MULTIPLE_CHOICE_VALUE_SEPARATOR;
 
@@ -43,11 +64,40 @@ import static com.cloudogu.custom.properties.CustomPropertiesContext.MULTIPLE_CH
 @Slf4j
 public class CustomPropertiesIndexer implements ServletContextListener {
 
+  @VisibleForTesting
+  static final int MAX_BATCH_SIZE = 1000;
+  private static final long FLUSH_DELAY_MILLIS = 250;
+
   private final SearchEngine searchEngine;
+  private final ScheduledExecutorService flushScheduler;
+  private final CustomPropertiesMetrics metrics;
+  private final PendingIndexChanges pendingIndexChanges;
+
+  // pending changes by the id of the indexed value, so that only the last change of each value gets written
+  private Map<String, IndexChange> pendingChanges = new LinkedHashMap<>();
+  // repositories of the pending changes, which are tracked until the changes have been written
+  private Set<String> pendingRepositoryIds = new HashSet<>();
+  private ScheduledFuture<?> scheduledFlush;
 
   @Inject
-  public CustomPropertiesIndexer(SearchEngine searchEngine) {
+  public CustomPropertiesIndexer(SearchEngine searchEngine, CustomPropertiesMetrics metrics, PendingIndexChanges pendingIndexChanges) {
+    this(
+      searchEngine,
+      Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactoryBuilder().setNameFormat("CustomPropertiesIndexer-%d").setDaemon(true).build()
+      ),
+      metrics,
+      pendingIndexChanges
+    );
+  }
+
+  @VisibleForTesting
+  CustomPropertiesIndexer(SearchEngine searchEngine, ScheduledExecutorService flushScheduler, CustomPropertiesMetrics metrics,
+                          PendingIndexChanges pendingIndexChanges) {
     this.searchEngine = searchEngine;
+    this.flushScheduler = flushScheduler;
+    this.metrics = metrics;
+    this.pendingIndexChanges = pendingIndexChanges;
   }
 
   private static String buildId(String key, String value) {
@@ -65,56 +115,146 @@ public class CustomPropertiesIndexer implements ServletContextListener {
     }
   }
 
-  private static void deleteCustomPropertyFromIndex(Index<IndexedCustomProperty> index, Repository repository, CustomProperty customProperty) {
-    String[] values = customProperty.getValue().split(MULTIPLE_CHOICE_VALUE_SEPARATOR);
-    for (String value : values) {
-      index.delete().byId(
-        Id.of(IndexedCustomProperty.class, buildId(customProperty.getKey(), value)).and(Repository.class, repository)
-      );
+  /**
+   * Records the time the task waited in the queue of the search engine since the given timestamp and
+   * the duration of the update itself. Tasks queued before the timestamp was introduced have no timestamp.
+   */
+  private static void updateMeasured(CustomPropertiesMetrics metrics, String task, String scope, long queuedAtMillis,
+                                     String namespace, int repositoryCount, Runnable update) {
+    if (queuedAtMillis > 0) {
+      metrics.recordIndexQueueTime(task, scope, Duration.ofMillis(Math.max(0, System.currentTimeMillis() - queuedAtMillis)));
+    }
+    IndexTaskJfrEvent event = new IndexTaskJfrEvent();
+    event.begin();
+    Timer.Sample sample = metrics.start();
+    try {
+      update.run();
+    } finally {
+      metrics.recordIndexTask(sample, task, scope);
+      commit(event, task, namespace, repositoryCount);
     }
   }
 
-  private static void indexRepository(Index<IndexedCustomProperty> index, CustomPropertiesService customPropertiesService, Repository repository) {
-    for (CustomProperty customProperty : customPropertiesService.get(repository)) {
-      if (!customProperty.isDefaultProperty()) {
-        storeCustomProperty(index, repository, customProperty);
-      }
+  private static void commit(IndexTaskJfrEvent event, String task, String namespace, int repositoryCount) {
+    event.end();
+    if (event.shouldCommit()) {
+      event.task = task;
+      event.namespace = namespace;
+      event.repositoryCount = repositoryCount;
+      event.commit();
+    }
+  }
+
+  private static String indexRepository(Index<IndexedCustomProperty> index, CustomPropertiesService customPropertiesService, Repository repository) {
+    List<CustomProperty> storedProperties = customPropertiesService.get(repository)
+      .stream()
+      .filter(customProperty -> !customProperty.isDefaultProperty())
+      .toList();
+    return indexRepository(index, repository, storedProperties);
+  }
+
+  /**
+   * Writes the properties to the index and returns their fingerprint, which may only be recorded
+   * after the index has been committed.
+   */
+  private static String indexRepository(Index<IndexedCustomProperty> index, Repository repository, Collection<CustomProperty> storedProperties) {
+    for (CustomProperty customProperty : storedProperties) {
+      storeCustomProperty(index, repository, customProperty);
     }
+    return IndexFingerprintStore.fingerprint(storedProperties);
   }
 
   @Subscribe
   public void handleEvent(CustomPropertyCreateEvent event) {
+    if (event.isPartOfBulk()) {
+      return;
+    }
     log.debug("Storing created custom property {} for repository {}", event.getProperty(), event.getRepository());
-    handleStoring(event.getRepository(), event.getProperty());
-  }
-
-  private void handleStoring(Repository repository, CustomProperty customProperty) {
-    searchEngine
-      .forType(IndexedCustomProperty.class)
-      .update(index -> storeCustomProperty(index, repository, customProperty));
+    enqueue(List.of(event));
   }
 
   @Subscribe
   public void handleEvent(CustomPropertyUpdateEvent event) {
+    if (event.isPartOfBulk()) {
+      return;
+    }
     log.debug("Storing updated custom property {} for repository {}", event.getProperty(), event.getRepository());
-    event.getPreviousProperty().ifPresent(
-      previousProperty -> handleDeleting(event.getRepository(), previousProperty)
-    );
-    handleStoring(event.getRepository(), event.getProperty());
+    enqueue(List.of(event));
   }
 
   @Subscribe
   public void handleEvent(CustomPropertyDeleteEvent event) {
+    if (event.isPartOfBulk()) {
+      return;
+    }
     log.debug("Removing deleted custom property {} for repository {}", event.getProperty(), event.getRepository());
-    handleDeleting(event.getRepository(), event.getProperty());
+    enqueue(List.of(event));
   }
 
-  private void handleDeleting(Repository repository, CustomProperty customProperty) {
-    searchEngine
-      .forType(IndexedCustomProperty.class)
-      .update(
-        index -> deleteCustomPropertyFromIndex(index, repository, customProperty)
-      );
+  @Subscribe
+  public void handleEvent(CustomPropertyBulkEvent event) {
+    log.debug("Storing {} changed custom properties", event.getChanges().size());
+    enqueue(event.getChanges());
+  }
+
+  /**
+   * Collects the changes of multiple events, which are written with a single index update,
+   * once the maximum batch size is reached or after a short delay.
+   * The changed properties are already persisted, so reindex tasks in between will not lose any change.
+   */
+  private void enqueue(List<BasicCustomPropertyEvent> events) {
+    boolean flushNow;
+    synchronized (this) {
+      for (BasicCustomPropertyEvent event : events) {
+        if (event instanceof CustomPropertyUpdateEvent updateEvent) {
+          updateEvent.getPreviousProperty().ifPresent(previousProperty -> addChanges(event.getRepository(), previousProperty, true));
+        }
+        addChanges(event.getRepository(), event.getProperty(), event instanceof CustomPropertyDeleteEvent);
+      }
+
+      flushNow = pendingChanges.size() >= MAX_BATCH_SIZE;
+      if (!flushNow && scheduledFlush == null) {
+        scheduledFlush = flushScheduler.schedule(this::flush, FLUSH_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+      }
+    }
+
+    if (flushNow) {
+      flush();
+    }
+  }
+
+  private void addChanges(Repository repository, CustomProperty customProperty, boolean removal) {
+    if (pendingRepositoryIds.add(repository.getId())) {
+      pendingIndexChanges.add(repository.getId());
+    }
+    for (String value : customProperty.getValue().split(MULTIPLE_CHOICE_VALUE_SEPARATOR)) {
+      IndexChange change = new IndexChange(repository, customProperty.getKey(), value, removal);
+      // remove first, so that the latest change is written last
+      pendingChanges.remove(change.id());
+      pendingChanges.put(change.id(), change);
+    }
+  }
+
+  /**
+   * Submits the pending changes to the search engine. The task is submitted while holding the lock,
+   * so that concurrent flushes are queued in the order their changes have been taken.
+   */
+  @VisibleForTesting
+  synchronized void flush() {
+    if (scheduledFlush != null) {
+      scheduledFlush.cancel(false);
+      scheduledFlush = null;
+    }
+    if (pendingChanges.isEmpty()) {
+      return;
+    }
+    List<IndexChange> changes = new ArrayList<>(pendingChanges.values());
+    Set<String> repositoryIds = pendingRepositoryIds;
+    pendingChanges = new LinkedHashMap<>();
+    pendingRepositoryIds = new HashSet<>();
+
+    log.debug("Writing {} changed custom property values to index", changes.size());
+    searchEngine.forType(IndexedCustomProperty.class).update(new FlushTask(changes, repositoryIds, metrics, pendingIndexChanges));
   }
 
   @Subscribe
@@ -136,10 +276,80 @@ public class CustomPropertiesIndexer implements ServletContextListener {
     searchEngine.forType(IndexedCustomProperty.class).update(ReindexAllTask.class);
   }
 
+  @Override
+  public void contextDestroyed(ServletContextEvent event) {
+    flush();
+    flushScheduler.shutdown();
+  }
+
+  private record IndexChange(Repository repository, String key, String value, boolean removal) implements Serializable {
+
+    String id() {
+      return repository.getId() + "/" + buildId(key, value);
+    }
+
+    void applyTo(Index<IndexedCustomProperty> index) {
+      Id<IndexedCustomProperty> indexId = Id.of(IndexedCustomProperty.class, buildId(key, value)).and(Repository.class, repository.getId());
+      if (removal) {
+        index.delete().byId(indexId);
+      } else {
+        index.store(indexId, RepositoryPermissions.read(repository).asShiroString(), new IndexedCustomProperty(key, value));
+      }
+    }
+  }
+
+  /**
+   * Writes the collected changes and releases their repositories from the {@link PendingIndexChanges},
+   * once the index has been committed. The dependencies are passed for tasks which are executed right away
+   * and injected again for tasks which have been persisted by the work queue.
+   */
+  static final class FlushTask implements SerializableIndexTask<IndexedCustomProperty> {
+
+    private final List<IndexChange> changes;
+    private final Set<String> repositoryIds;
+    private final long queuedAt = System.currentTimeMillis();
+    private transient CustomPropertiesMetrics metrics;
+    private transient PendingIndexChanges pendingIndexChanges;
+
+    FlushTask(List<IndexChange> changes, Set<String> repositoryIds, CustomPropertiesMetrics metrics, PendingIndexChanges pendingIndexChanges) {
+      this.changes = changes;
+      this.repositoryIds = repositoryIds;
+      this.metrics = metrics;
+      this.pendingIndexChanges = pendingIndexChanges;
+    }
+
+    @Override
+    public void update(Index<IndexedCustomProperty> index) {
+      updateMeasured(
+        metrics, "flush", CustomPropertiesMetrics.SCOPE_REPOSITORY, queuedAt, null, repositoryIds.size(),
+        () -> changes.forEach(change -> change.applyTo(index))
+      );
+    }
+
+    @Override
+    public void afterUpdate() {
+      pendingIndexChanges.remove(repositoryIds);
+    }
+
+    @Inject
+    public void setMetrics(CustomPropertiesMetrics metrics) {
+      this.metrics = metrics;
+    }
+
+    @Inject
+    public void setPendingIndexChanges(PendingIndexChanges pendingIndexChanges) {
+      this.pendingIndexChanges = pendingIndexChanges;
+    }
+  }
+
   static final class IndexRepositoryTask implements SerializableIndexTask<IndexedCustomProperty> {
 
     private final Repository repository;
+    private final long queuedAt = System.currentTimeMillis();
     private transient CustomPropertiesService customPropertiesService;
+    private transient IndexFingerprintStore fingerprintStore;
+    private transient CustomPropertiesMetrics metrics;
+    private transient String indexedFingerprint;
 
     IndexRepositoryTask(Repository repository) {
       this.repository = repository;
@@ -147,19 +357,43 @@ public class CustomPropertiesIndexer implements ServletContextListener {
 
     @Override
     public void update(Index<IndexedCustomProperty> index) {
-      indexRepository(index, customPropertiesService, repository);
+      updateMeasured(
+        metrics, "index-repository", CustomPropertiesMetrics.SCOPE_REPOSITORY, queuedAt, repository.getNamespace(), 1,
+        () -> indexedFingerprint = indexRepository(index, customPropertiesService, repository)
+      );
+    }
+
+    @Override
+    public void afterUpdate() {
+      if (indexedFingerprint != null) {
+        fingerprintStore.set(repository, indexedFingerprint);
+      }
     }
 
     @Inject
     public void setCustomPropertiesService(CustomPropertiesService customPropertiesService) {
       this.customPropertiesService = customPropertiesService;
     }
+
+    @Inject
+    public void setFingerprintStore(IndexFingerprintStore fingerprintStore) {
+      this.fingerprintStore = fingerprintStore;
+    }
+
+    @Inject
+    public void setMetrics(CustomPropertiesMetrics metrics) {
+      this.metrics = metrics;
+    }
   }
 
   static final class ReindexRepositoryTask implements SerializableIndexTask<IndexedCustomProperty> {
 
     private final Repository repository;
+    private final long queuedAt = System.currentTimeMillis();
     private transient CustomPropertiesService customPropertiesService;
+    private transient IndexFingerprintStore fingerprintStore;
+    private transient CustomPropertiesMetrics metrics;
+    private transient String indexedFingerprint;
 
     ReindexRepositoryTask(Repository repository) {
       this.repository = repository;
@@ -167,32 +401,77 @@ public class CustomPropertiesIndexer implements ServletContextListener {
 
     @Override
     public void update(Index<IndexedCustomProperty> index) {
-      index.delete().by(Repository.class, repository).execute();
-      indexRepository(index, customPropertiesService, repository);
+      updateMeasured(metrics, "reindex-repository", CustomPropertiesMetrics.SCOPE_REPOSITORY, queuedAt, repository.getNamespace(), 1, () -> {
+        index.delete().by(Repository.class, repository).execute();
+        indexedFingerprint = indexRepository(index, customPropertiesService, repository);
+      });
+    }
+
+    @Override
+    public void afterUpdate() {
+      if (indexedFingerprint != null) {
+        fingerprintStore.set(repository, indexedFingerprint);
+      }
     }
 
     @Inject
     public void setCustomPropertiesService(CustomPropertiesService customPropertiesService) {
       this.customPropertiesService = customPropertiesService;
     }
+
+    @Inject
+    public void setFingerprintStore(IndexFingerprintStore fingerprintStore) {
+      this.fingerprintStore = fingerprintStore;
+    }
+
+    @Inject
+    public void setMetrics(CustomPropertiesMetrics metrics) {
+      this.metrics = metrics;
+    }
   }
 
   @Slf4j
   static final class ReindexAllTask implements IndexTask<IndexedCustomProperty> {
 
+    private static final String REINDEX_THREADS_PROPERTY = "scm.customProperties.reindexThreads";
+    private static final int REINDEX_BATCH_SIZE = 1000;
+
     private final RepositoryManager repositoryManager;
     private final CustomPropertiesService customPropertiesService;
     private final IndexLogStore indexLogStore;
+    private final IndexFingerprintStore fingerprintStore;
+    private final CustomPropertiesMetrics metrics;
+    // fingerprints of the written repositories, which are recorded once the index has been committed
+    private final Map<Repository, String> indexedFingerprints = new LinkedHashMap<>();
+    private boolean rebuilt = false;
+    private boolean completed = false;
 
     @Inject
-    ReindexAllTask(RepositoryManager repositoryManager, CustomPropertiesService customPropertiesService, IndexLogStore indexLogStore) {
+    ReindexAllTask(RepositoryManager repositoryManager, CustomPropertiesService customPropertiesService, IndexLogStore indexLogStore, IndexFingerprintStore fingerprintStore, CustomPropertiesMetrics metrics) {
       this.repositoryManager = repositoryManager;
       this.customPropertiesService = customPropertiesService;
       this.indexLogStore = indexLogStore;
+      this.fingerprintStore = fingerprintStore;
+      this.metrics = metrics;
     }
 
     @Override
     public void update(Index<IndexedCustomProperty> index) {
+      // the task is submitted by its class, so there is no queue time to record
+      IndexTaskJfrEvent event = new IndexTaskJfrEvent();
+      event.begin();
+      Timer.Sample sample = metrics.start();
+      int reindexed = 0;
+      try {
+        reindexed = updateAll(index);
+        completed = true;
+      } finally {
+        metrics.recordIndexTask(sample, "reindex-all", CustomPropertiesMetrics.SCOPE_GLOBAL);
+        commit(event, "reindex-all", null, reindexed);
+      }
+    }
+
+    private int updateAll(Index<IndexedCustomProperty> index) {
       Optional<IndexLog> indexLog = indexLogStore.defaultIndex().get(IndexedCustomProperty.class);
       if (indexLog.isEmpty() || indexLog.get().getVersion() != IndexedCustomProperty.VERSION) {
         log.debug(
@@ -200,19 +479,102 @@ public class CustomPropertiesIndexer implements ServletContextListener {
           indexLog,
           IndexedCustomProperty.VERSION
         );
-        reindexAll(index);
+        index.delete().all();
+        rebuilt = true;
+        return reindex(index, false);
       }
+      return reindex(index, true);
     }
 
+    /**
+     * Records the fingerprints after the index has been committed, so that they never claim
+     * properties which are not in the index. The fingerprints of a rebuilt index are discarded first.
+     */
     @Override
     public void afterUpdate() {
       indexLogStore.defaultIndex().log(IndexedCustomProperty.class, IndexedCustomProperty.VERSION);
+      if (!completed) {
+        return;
+      }
+      if (rebuilt) {
+        fingerprintStore.reset();
+      }
+      indexedFingerprints.forEach(fingerprintStore::set);
     }
 
-    private void reindexAll(Index<IndexedCustomProperty> index) {
-      index.delete().all();
-      for (Repository repository : repositoryManager.getAll()) {
-        indexRepository(index, customPropertiesService, repository);
+    /**
+     * Reads the stores of the repositories in parallel, while the properties are written to the index
+     * only by the current thread. Default properties are not indexed, so there is no need to merge the configs.
+     * If only changed repositories should be reindexed, the fingerprint of the stored properties is compared
+     * with the one recorded when the repository was indexed the last time.
+     * Returns the number of repositories written to the index.
+     */
+    private int reindex(Index<IndexedCustomProperty> index, boolean onlyChanged) {
+      long start = System.nanoTime();
+      List<Repository> repositories = List.copyOf(repositoryManager.getAll());
+      int threads = Math.max(1, Integer.getInteger(REINDEX_THREADS_PROPERTY, Runtime.getRuntime().availableProcessors()));
+      ExecutorService executor = Executors.newFixedThreadPool(
+        threads, new ThreadFactoryBuilder().setNameFormat("CustomPropertiesReindex-%d").setDaemon(true).build()
+      );
+      int processed = 0;
+      int reindexed = 0;
+      try {
+        for (List<Repository> batch : Lists.partition(repositories, REINDEX_BATCH_SIZE)) {
+          List<Future<RepositoryState>> states = executor.invokeAll(
+            batch.stream().<Callable<RepositoryState>>map(repository -> () -> readState(repository, onlyChanged)).toList()
+          );
+          for (int i = 0; i < batch.size(); i++) {
+            if (reindex(index, batch.get(i), states.get(i), onlyChanged)) {
+              reindexed++;
+            }
+          }
+          processed += batch.size();
+          log.info("Checked custom properties of {} of {} repositories", processed, repositories.size());
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException("Reindexing custom properties got interrupted", e);
+      } finally {
+        executor.shutdownNow();
+      }
+
+      log.info(
+        "Reindexed custom properties of {} of {} repositories with {} threads in {} ms",
+        reindexed, repositories.size(), threads, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)
+      );
+      return reindexed;
+    }
+
+    private RepositoryState readState(Repository repository, boolean withIndexedFingerprint) {
+      Collection<CustomProperty> storedProperties = customPropertiesService.getStoredProperties(repository);
+      return new RepositoryState(
+        storedProperties,
+        IndexFingerprintStore.fingerprint(storedProperties),
+        withIndexedFingerprint ? fingerprintStore.get(repository) : Optional.empty()
+      );
+    }
+
+    private boolean reindex(Index<IndexedCustomProperty> index, Repository repository, Future<RepositoryState> futureState, boolean onlyChanged) throws InterruptedException {
+      try {
+        RepositoryState state = futureState.get();
+        if (onlyChanged) {
+          if (state.isUnchanged()) {
+            return false;
+          }
+          index.delete().by(Repository.class, repository).execute();
+        }
+        indexedFingerprints.put(repository, indexRepository(index, repository, state.storedProperties()));
+        return true;
+      } catch (ExecutionException e) {
+        log.warn("Could not read custom properties of repository {} for reindexing", repository, e.getCause());
+        return false;
+      }
+    }
+
+    private record RepositoryState(Collection<CustomProperty> storedProperties, String fingerprint, Optional<String> indexedFingerprint) {
+
+      boolean isUnchanged() {
+        return indexedFingerprint.filter(fingerprint::equals).isPresent();
       }
     }
   }
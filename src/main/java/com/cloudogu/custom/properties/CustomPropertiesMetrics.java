@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+
+package com.cloudogu.custom.properties;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.inject.Inject;
+import jakarta.inject.Singleton;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registers the timers and counters of the plugin at the {@link MeterRegistry} of SCM-Manager.
+ * Every meter is tagged with the endpoint (the measured operation) and the scope (global, namespace or repository),
+ * timers publish percentile histograms, so that percentiles can be aggregated by the monitoring system.
+ * The meters are built once for each combination of tags and reused afterward, so that recording a value
+ * does not look up the meter in the registry. The tags are taken from constants, so the number of meters is bounded.
+ */
+@Singleton
+public class CustomPropertiesMetrics {
+
+  static final String SEARCH = "scm.customproperties.search";
+  static final String SEARCH_RESULTS = "scm.customproperties.search.results";
+  static final String STORE = "scm.customproperties.store";
+  static final String MISSING_MANDATORY_SCAN = "scm.customproperties.mandatory.scan";
+  static final String ENRICH = "scm.customproperties.enrich";
+  static final String INDEX_QUEUE = "scm.customproperties.index.queue";
+  static final String INDEX_TASK = "scm.customproperties.index.task";
+  static final String CACHE = "scm.customproperties.cache";
+
+  static final String TAG_ENDPOINT = "endpoint";
+  static final String TAG_SCOPE = "scope";
+  static final String TAG_RESULT = "result";
+
+  public static final String SCOPE_GLOBAL = "global";
+  public static final String SCOPE_NAMESPACE = "namespace";
+  public static final String SCOPE_REPOSITORY = "repository";
+
+  private final MeterRegistry registry;
+  private final Map<MeterKey, Timer> timers = new ConcurrentHashMap<>();
+  private final Map<MeterKey, DistributionSummary> searchResults = new ConcurrentHashMap<>();
+  private final Map<MeterKey, Counter> cacheAccesses = new ConcurrentHashMap<>();
+
+  @Inject
+  public CustomPropertiesMetrics(MeterRegistry registry) {
+    this.registry = registry;
+  }
+
+  public Timer.Sample start() {
+    return Timer.start(registry);
+  }
+
+  void recordSearch(Timer.Sample sample, String endpoint, String scope) {
+    sample.stop(timer(SEARCH, endpoint, scope));
+  }
+
+  void recordSearch(Timer.Sample sample, String endpoint, String scope, int resultSize) {
+    recordSearch(sample, endpoint, scope);
+    searchResults.computeIfAbsent(
+      new MeterKey(SEARCH_RESULTS, endpoint, scope, null),
+      key -> DistributionSummary.builder(key.name())
+        .description("Number of repositories found by a custom property search")
+        .tag(TAG_ENDPOINT, key.endpoint())
+        .tag(TAG_SCOPE, key.scope())
+        .publishPercentileHistogram()
+        .register(registry)
+    ).record(resultSize);
+  }
+
+  void recordStoreAccess(Timer.Sample sample, String operation) {
+    sample.stop(timer(STORE, operation, SCOPE_REPOSITORY));
+  }
+
+  void recordMissingMandatoryScan(Timer.Sample sample, String scope) {
+    sample.stop(timer(MISSING_MANDATORY_SCAN, "missing-mandatory", scope));
+  }
+
+  void recordEnrichment(Timer.Sample sample) {
+    sample.stop(timer(ENRICH, "repository", SCOPE_REPOSITORY));
+  }
+
+  void recordIndexQueueTime(String task, String scope, Duration queueTime) {
+    timer(INDEX_QUEUE, task, scope).record(queueTime);
+  }
+
+  void recordIndexTask(Timer.Sample sample, String task, String scope) {
+    sample.stop(timer(INDEX_TASK, task, scope));
+  }
+
+  /**
+   * Counts the hits and misses of a cache, so that the hit ratio can be derived from the counters.
+   */
+  public void recordCacheAccess(String cache, String scope, boolean hit) {
+    cacheAccesses.computeIfAbsent(
+      new MeterKey(CACHE, cache, scope, hit ? "hit" : "miss"),
+      key -> Counter.builder(key.name())
+        .description("Accesses of the caches of the custom properties plugin")
+        .tag(TAG_ENDPOINT, key.endpoint())
+        .tag(TAG_SCOPE, key.scope())
+        .tag(TAG_RESULT, key.result())
+        .register(registry)
+    ).increment();
+  }
+
+  private Timer timer(String name, String endpoint, String scope) {
+    return timers.computeIfAbsent(
+      new MeterKey(name, endpoint, scope, null),
+      key -> Timer.builder(key.name())
+        .tag(TAG_ENDPOINT, key.endpoint())
+        .tag(TAG_SCOPE, key.scope())
+        .publishPercentileHistogram()
+        .register(registry)
+    );
+  }
+
+  private record MeterKey(String name, String endpoint, String scope, String result) {
+  }
+}
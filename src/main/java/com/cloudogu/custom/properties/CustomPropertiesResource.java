@@ -19,8 +19,11 @@ package com.cloudogu.custom.properties;
 import com.cloudogu.custom.properties.config.ConfigService;
 import com.cloudogu.custom.properties.config.PredefinedKeyDto;
 import com.cloudogu.custom.properties.config.PredefinedKeyMapper;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.base.Strings;
 import com.google.inject.Inject;
+import de.otto.edison.hal.Embedded;
+import de.otto.edison.hal.Links;
 import io.swagger.v3.oas.annotations.OpenAPIDefinition;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.media.Content;
@@ -28,20 +31,29 @@ import io.swagger.v3.oas.annotations.media.Schema;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import jakarta.validation.Valid;
+import jakarta.validation.constraints.Max;
+import jakarta.validation.constraints.Min;
 import jakarta.validation.constraints.NotNull;
 import jakarta.validation.constraints.Pattern;
+import jakarta.ws.rs.BadRequestException;
 import jakarta.ws.rs.Consumes;
 import jakarta.ws.rs.DELETE;
 import jakarta.ws.rs.DefaultValue;
 import jakarta.ws.rs.ForbiddenException;
 import jakarta.ws.rs.GET;
+import jakarta.ws.rs.PATCH;
 import jakarta.ws.rs.POST;
 import jakarta.ws.rs.PUT;
 import jakarta.ws.rs.Path;
 import jakarta.ws.rs.PathParam;
 import jakarta.ws.rs.Produces;
 import jakarta.ws.rs.QueryParam;
+import jakarta.ws.rs.core.Context;
+import jakarta.ws.rs.core.HttpHeaders;
 import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.core.StreamingOutput;
+import jakarta.ws.rs.core.UriInfo;
 import sonia.scm.ContextEntry;
 import sonia.scm.api.v2.resources.ErrorDto;
 import sonia.scm.repository.NamespaceAndName;
@@ -50,10 +62,16 @@ import sonia.scm.repository.RepositoryManager;
 import sonia.scm.repository.RepositoryPermissions;
 import sonia.scm.web.VndMediaType;
 
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
 import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.stream.Stream;
 
 import static com.cloudogu.custom.properties.CustomPropertiesContext.MULTIPLE_CHOICE_VALUE_SEPARATOR;
+import static de.otto.edison.hal.Link.link;
 import static sonia.scm.NotFoundException.notFound;
 
 @OpenAPIDefinition(tags = {
@@ -63,6 +81,11 @@ import static sonia.scm.NotFoundException.notFound;
 public class CustomPropertiesResource {
 
   public static final String PROPERTY_KEY_VALUE_MEDIA_TYPE = VndMediaType.PREFIX + "CustomProperty" + VndMediaType.SUFFIX;
+  public static final String PROPERTY_OPERATIONS_MEDIA_TYPE = VndMediaType.PREFIX + "CustomPropertyOperations" + VndMediaType.SUFFIX;
+
+  public static final String NDJSON_MEDIA_TYPE = "application/x-ndjson";
+
+  static final int MAX_PAGE_SIZE = 1000;
 
   private final RepositoryManager repositoryManager;
   private final CustomPropertiesService service;
@@ -71,6 +94,7 @@ public class CustomPropertiesResource {
   private final PredefinedKeyMapper predefinedKeyMapper;
   private final RepositoryMapper repositoryMapper;
   private final CustomPropertiesSearchService searchService;
+  private final ObjectMapper objectMapper;
 
   @Inject
   public CustomPropertiesResource(RepositoryManager repositoryManager,
@@ -79,7 +103,8 @@ public class CustomPropertiesResource {
                                   CustomPropertyMapper customPropertyMapper,
                                   PredefinedKeyMapper predefinedKeyMapper,
                                   RepositoryMapper repositoryMapper,
-                                  CustomPropertiesSearchService searchService) {
+                                  CustomPropertiesSearchService searchService,
+                                  ObjectMapper objectMapper) {
     this.repositoryManager = repositoryManager;
     this.service = service;
     this.configService = configService;
@@ -87,6 +112,7 @@ public class CustomPropertiesResource {
     this.predefinedKeyMapper = predefinedKeyMapper;
     this.repositoryMapper = repositoryMapper;
     this.searchService = searchService;
+    this.objectMapper = objectMapper;
   }
 
   @GET
@@ -246,6 +272,48 @@ public class CustomPropertiesResource {
     service.delete(repository, key);
   }
 
+  @PATCH
+  @Path("/{namespace}/{name}")
+  @Operation(
+    summary = "Applies multiple changes to custom properties of repository",
+    description = """
+      Creates, replaces and deletes multiple custom properties of the specified repository with a single request.
+      The operations are applied in the given order and either all of them are applied or none of them.
+      Each operation has a `type`, which is one of `CREATE`, `UPDATE` and `DELETE`.
+      Updates and deletions reference the existing property with `key`,
+      creations and updates contain the new property as `property` in the same format used to create a single property.
+      
+      Example:
+      `[{"type": "CREATE", "property": {"key": "lang", "value": "Java"}}, {"type": "DELETE", "key": "deprecated"}]`
+      """,
+    tags = "Custom Properties",
+    operationId = "custom-properties_apply_repository_key_value_operations"
+  )
+  @ApiResponse(responseCode = "204", description = "apply success")
+  @ApiResponse(responseCode = "400", description = "invalid operation or value")
+  @ApiResponse(responseCode = "401", description = "not authenticated / invalid credentials")
+  @ApiResponse(responseCode = "403", description = "not authorized, the current user does not have the general repository write privilege, or plugin deactivated")
+  @ApiResponse(responseCode = "404", description = "repository or custom property to update not found")
+  @ApiResponse(responseCode = "409", description = "custom property to create already exists")
+  @ApiResponse(
+    responseCode = "500",
+    description = "internal server error",
+    content = @Content(
+      mediaType = VndMediaType.ERROR_TYPE,
+      schema = @Schema(implementation = ErrorDto.class)
+    )
+  )
+  @Consumes(PROPERTY_OPERATIONS_MEDIA_TYPE)
+  public void apply(@PathParam("namespace") String namespace,
+                    @PathParam("name") String name,
+                    @NotNull @Valid List<@NotNull @Valid CustomPropertyOperationDto> operationDtos) {
+    checkIsFeatureEnabled();
+    Repository repository = tryToGetRepository(namespace, name);
+    RepositoryPermissions.modify(repository).check();
+
+    service.apply(repository, operationDtos.stream().map(customPropertyMapper::map).toList());
+  }
+
   @Operation(
     summary = "Filters repositories that match filters applied to their custom properties",
     description = """
@@ -285,12 +353,24 @@ public class CustomPropertiesResource {
       `?excludeArchived=true`
       By default, archived repositories are included within the result.
       
+      If you want to search only within a namespace, which may contain the same wildcards:
+      `?namespace=platform`
+      
       If you want to additionally include the custom properties of each repository to the result set:
       `?includeProps=true`
       Per default, custom properties are excluded within the result.
       
       It is also possible to combine multiple filters, each of them is combined via a logical AND:
       `?key=Analysis&value=Java&property=Version=1.*`
+      
+      If you want to page through the result set, ordered by namespace and name:
+      `?limit=100`
+      The result is then wrapped into an object with the repositories embedded as `repositories`.
+      If there are more repositories, the `next` link points to the following page, which is selected by the `cursor` parameter.
+      
+      If you want to export large result sets, request the media type `application/x-ndjson`.
+      Each repository is then streamed as a single JSON object per line, as soon as it has been found.
+      The `limit` and `cursor` parameters are not applied to this representation.
       """,
     tags = "Custom Properties",
     operationId = "custom-properties_find_repositories_with_custom_properties"
@@ -307,24 +387,138 @@ public class CustomPropertiesResource {
     )
   )
   @GET
-  @Produces(MediaType.APPLICATION_JSON)
+  @Produces({MediaType.APPLICATION_JSON, NDJSON_MEDIA_TYPE})
   @Path("/repositories")
-  public Collection<BasicRepositoryDto> findRepositoriesWithCustomProperties(@QueryParam("key") String key,
-                                                                             @QueryParam("value") String value,
-                                                                             @QueryParam("property") @Pattern(regexp = ".+=.+", message = "Property must match the format <key>=<value>") String property,
-                                                                             @QueryParam("excludeArchived") boolean excludeArchived,
-                                                                             @QueryParam("includeProps") boolean includeProps,
-                                                                             @QueryParam("separator") @Pattern(regexp = "^[^?*=]*$", message = "The characters '?', '*' and '=' are not allowed as a separator") @DefaultValue(MULTIPLE_CHOICE_VALUE_SEPARATOR) String separator) {
+  public Response findRepositoriesWithCustomProperties(@Context UriInfo uriInfo,
+                                                       @Context HttpHeaders headers,
+                                                       @QueryParam("key") String key,
+                                                       @QueryParam("value") String value,
+                                                       @QueryParam("property") @Pattern(regexp = ".+=.+", message = "Property must match the format <key>=<value>") String property,
+                                                       @QueryParam("excludeArchived") boolean excludeArchived,
+                                                       @QueryParam("namespace") String namespace,
+                                                       @QueryParam("includeProps") boolean includeProps,
+                                                       @QueryParam("separator") @Pattern(regexp = "^[^?*=]*$", message = "The characters '?', '*' and '=' are not allowed as a separator") @DefaultValue(MULTIPLE_CHOICE_VALUE_SEPARATOR) String separator,
+                                                       @QueryParam("limit") @Min(1) @Max(MAX_PAGE_SIZE) Integer limit,
+                                                       @QueryParam("cursor") String cursor) {
+    checkIsFeatureEnabled();
+
+    CustomPropertiesSearchService.Filter filter = new CustomPropertiesSearchService.Filter(
+      key,
+      applySeparatorForValue(value, separator),
+      applySeparatorForProperty(property, separator),
+      namespace,
+      excludeArchived
+    );
+
+    if (isNdjsonRequested(headers)) {
+      return Response.ok(streamRepositories(filter, includeProps, separator), NDJSON_MEDIA_TYPE).build();
+    }
+
+    if (limit == null) {
+      return Response.ok(
+        mapRepositories(searchService.findRepositoriesWithCustomProperties(filter), includeProps, separator),
+        MediaType.APPLICATION_JSON_TYPE
+      ).build();
+    }
+
+    CustomPropertiesSearchService.Page page = searchService.findRepositoriesWithCustomProperties(
+      filter, decodeCursor(cursor), limit
+    );
+
+    Links.Builder links = new Links.Builder().self(uriInfo.getRequestUri().toString());
+    page.next().ifPresent(next -> links.single(link(
+      "next", uriInfo.getRequestUriBuilder().replaceQueryParam("cursor", encodeCursor(next)).build().toString()
+    )));
+
+    return Response.ok(
+      new RepositoryPageDto(
+        links.build(),
+        Embedded.embedded("repositories", mapRepositories(page.repositories(), includeProps, separator))
+      ),
+      MediaType.APPLICATION_JSON_TYPE
+    ).build();
+  }
+
+  @GET
+  @Path("/aggregation")
+  @Operation(
+    summary = "Count repositories with custom properties",
+    description = """
+      Counts the repositories matching the same filters as the repository search (`key`, `value`, `property`,
+      `excludeArchived` and `separator`), without returning the repositories themselves.
+      The count can be limited to namespaces with the `namespace` parameter, which may contain wildcards.
+      
+      For each key given with the `facet` parameter, the number of matching repositories per value of this key is returned.
+      Multiple choice values are counted separately and default values of predefined keys are taken into account.
+      
+      Example:
+      `?property=Language=Java&facet=Team&facet=Version`
+      """,
+    tags = "Custom Properties",
+    operationId = "custom-properties_aggregate_repositories_with_custom_properties"
+  )
+  @ApiResponse(responseCode = "200", description = "success")
+  @ApiResponse(responseCode = "401", description = "not authenticated / invalid credentials")
+  @ApiResponse(responseCode = "403", description = "not authorized, the current user does not have the general repository read privilege, or plugin deactivated")
+  @ApiResponse(
+    responseCode = "500",
+    description = "internal server error",
+    content = @Content(
+      mediaType = VndMediaType.ERROR_TYPE,
+      schema = @Schema(implementation = ErrorDto.class)
+    )
+  )
+  @Produces(MediaType.APPLICATION_JSON)
+  public RepositoryAggregationDto aggregateRepositoriesWithCustomProperties(@QueryParam("key") String key,
+                                                                            @QueryParam("value") String value,
+                                                                            @QueryParam("property") @Pattern(regexp = ".+=.+", message = "Property must match the format <key>=<value>") String property,
+                                                                            @QueryParam("excludeArchived") boolean excludeArchived,
+                                                                            @QueryParam("namespace") String namespace,
+                                                                            @QueryParam("facet") List<String> facets,
+                                                                            @QueryParam("separator") @Pattern(regexp = "^[^?*=]*$", message = "The characters '?', '*' and '=' are not allowed as a separator") @DefaultValue(MULTIPLE_CHOICE_VALUE_SEPARATOR) String separator) {
     checkIsFeatureEnabled();
 
     CustomPropertiesSearchService.Filter filter = new CustomPropertiesSearchService.Filter(
       key,
       applySeparatorForValue(value, separator),
       applySeparatorForProperty(property, separator),
+      namespace,
       excludeArchived
     );
 
-    return searchService.findRepositoriesWithCustomProperties(filter)
+    CustomPropertiesSearchService.Aggregation aggregation = searchService.aggregate(filter, facets);
+    return new RepositoryAggregationDto(aggregation.count(), aggregation.facets());
+  }
+
+  private static boolean isNdjsonRequested(HttpHeaders headers) {
+    List<MediaType> acceptableMediaTypes = headers.getAcceptableMediaTypes();
+    return !acceptableMediaTypes.isEmpty()
+      && acceptableMediaTypes.get(0).isCompatible(MediaType.valueOf(NDJSON_MEDIA_TYPE))
+      && !acceptableMediaTypes.get(0).isWildcardSubtype();
+  }
+
+  /**
+   * Writes one repository per line, as soon as it has passed the filter, and flushes it immediately,
+   * so that the complete result is never held in memory.
+   */
+  private StreamingOutput streamRepositories(CustomPropertiesSearchService.Filter filter, boolean includeProps, String separator) {
+    return output -> {
+      try (Stream<CustomPropertiesSearchService.RepositoryWithProps> repositories = searchService.streamRepositoriesWithCustomProperties(filter)) {
+        Iterator<CustomPropertiesSearchService.RepositoryWithProps> iterator = repositories.iterator();
+        while (iterator.hasNext()) {
+          CustomPropertiesSearchService.RepositoryWithProps repoWithProps = iterator.next();
+          output.write(objectMapper.writeValueAsBytes(
+            repositoryMapper.map(repoWithProps.repository(), repoWithProps.props(), includeProps, separator)
+          ));
+          output.write('\n');
+          output.flush();
+        }
+      }
+    };
+  }
+
+  private List<BasicRepositoryDto> mapRepositories(Collection<CustomPropertiesSearchService.RepositoryWithProps> repositories, boolean includeProps, String separator) {
+    return repositories
       .stream()
       .map(
         repoWithProps -> repositoryMapper.map(repoWithProps.repository(), repoWithProps.props(), includeProps, separator)
@@ -332,6 +526,31 @@ public class CustomPropertiesResource {
       .toList();
   }
 
+  private static String encodeCursor(NamespaceAndName namespaceAndName) {
+    return Base64.getUrlEncoder().withoutPadding().encodeToString(
+      (namespaceAndName.getNamespace() + "/" + namespaceAndName.getName()).getBytes(StandardCharsets.UTF_8)
+    );
+  }
+
+  private static NamespaceAndName decodeCursor(String cursor) {
+    if (Strings.isNullOrEmpty(cursor)) {
+      return null;
+    }
+
+    String decodedCursor;
+    try {
+      decodedCursor = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+    } catch (IllegalArgumentException e) {
+      throw new BadRequestException("invalid cursor", e);
+    }
+
+    String[] namespaceAndName = decodedCursor.split("/", 2);
+    if (namespaceAndName.length != 2) {
+      throw new BadRequestException("invalid cursor");
+    }
+    return new NamespaceAndName(namespaceAndName[0], namespaceAndName[1]);
+  }
+
   private void checkIsFeatureEnabled() {
     if (!configService.getGlobalConfig().isEnabled()) {
       throw new ForbiddenException();
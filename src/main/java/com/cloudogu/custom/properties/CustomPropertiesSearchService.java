@@ -17,16 +17,32 @@
 package com.cloudogu.custom.properties;
 
 import com.google.common.base.Strings;
+import io.micrometer.core.instrument.Timer;
 import jakarta.inject.Inject;
 import lombok.extern.slf4j.Slf4j;
+import sonia.scm.repository.NamespaceAndName;
 import sonia.scm.repository.Repository;
 import sonia.scm.repository.RepositoryManager;
-import sonia.scm.util.GlobUtil;
+import sonia.scm.repository.RepositoryPermissions;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import static com.cloudogu.custom.properties.CustomPropertiesContext.MULTIPLE_CHOICE_VALUE_SEPARATOR;
@@ -34,71 +50,281 @@ import static com.cloudogu.custom.properties.CustomPropertiesContext.MULTIPLE_CH
 @Slf4j
 public class CustomPropertiesSearchService {
 
+  private static final Comparator<Repository> REPOSITORY_ORDER = Comparator
+    .comparing(Repository::getNamespace)
+    .thenComparing(Repository::getName);
+
   private final CustomPropertiesService customPropertiesService;
   private final RepositoryManager repositoryManager;
+  private final RepositoryPropertyIndex propertyIndex;
+  private final SearchEngineRepositoryQuery searchEngineQuery;
+  private final CustomPropertiesMetrics metrics;
 
   @Inject
-  CustomPropertiesSearchService(CustomPropertiesService customPropertiesService, RepositoryManager repositoryManager) {
+  CustomPropertiesSearchService(CustomPropertiesService customPropertiesService,
+                                RepositoryManager repositoryManager,
+                                RepositoryPropertyIndex propertyIndex,
+                                SearchEngineRepositoryQuery searchEngineQuery,
+                                CustomPropertiesMetrics metrics) {
     this.customPropertiesService = customPropertiesService;
     this.repositoryManager = repositoryManager;
+    this.propertyIndex = propertyIndex;
+    this.searchEngineQuery = searchEngineQuery;
+    this.metrics = metrics;
   }
 
   Collection<RepositoryWithProps> findRepositoriesWithCustomProperties(Filter filter) {
-    Stream<Repository> repoStream = repositoryManager.getAll().stream();
+    Timer.Sample sample = metrics.start();
+    List<RepositoryWithProps> repositories = findRepositories(filter, null).map(this::loadCustomProps).toList();
+    metrics.recordSearch(sample, "repositories", filter.getScope(), repositories.size());
+    return repositories;
+  }
+
+  /**
+   * Returns a stream of the matching repositories, whose custom properties are loaded only when the stream is consumed.
+   * The candidates are still resolved eagerly, before the stream is returned. The search is measured, once the stream
+   * is closed, so that the measured time and the number of repositories include the consumption by the caller.
+   */
+  Stream<RepositoryWithProps> streamRepositoriesWithCustomProperties(Filter filter) {
+    Timer.Sample sample = metrics.start();
+    AtomicInteger resultSize = new AtomicInteger();
+    return findRepositories(filter, null)
+      .map(this::loadCustomProps)
+      .peek(repository -> resultSize.incrementAndGet())
+      .onClose(() -> metrics.recordSearch(sample, "repositories-stream", filter.getScope(), resultSize.get()));
+  }
 
+  /**
+   * Finds at most {@code limit} repositories, which are ordered after the given cursor.
+   * The custom properties are only loaded for the repositories of the requested page.
+   */
+  Page findRepositoriesWithCustomProperties(Filter filter, NamespaceAndName cursor, int limit) {
+    Timer.Sample sample = metrics.start();
+    List<Repository> repositories = findRepositories(filter, cursor).limit(limit + 1L).toList();
+    boolean hasMore = repositories.size() > limit;
+
+    Page page = new Page(
+      repositories.stream().limit(limit).map(this::loadCustomProps).toList(),
+      hasMore
+    );
+    metrics.recordSearch(sample, "repositories-page", filter.getScope(), page.repositories().size());
+    return page;
+  }
+
+  /**
+   * Counts the matching repositories and, for each of the given keys, the number of matching repositories per value.
+   * The values are taken from the property index and the default properties of the namespaces,
+   * so the custom properties of the repositories do not have to be loaded.
+   */
+  Aggregation aggregate(Filter filter, Collection<String> facetKeys) {
+    Timer.Sample sample = metrics.start();
+    Stream<Repository> repositories = findCandidates(filter).stream();
     if (filter.excludeArchived) {
-      repoStream = repoStream.filter(this::removeArchived);
+      repositories = repositories.filter(this::removeArchived);
     }
 
-    Stream<RepositoryWithProps> repoWithPropsStream = repoStream.map(this::loadCustomProps);
+    Map<String, Map<String, Integer>> facets = new LinkedHashMap<>();
+    facetKeys.forEach(facetKey -> facets.put(facetKey, new TreeMap<>()));
+    Map<String, Map<String, CustomProperty>> defaultPropertiesByNamespace = new HashMap<>();
 
-    if (filter.hasNoCustomPropertyFilter()) {
-      return repoWithPropsStream.toList();
+    int count = 0;
+    for (Repository repository : (Iterable<Repository>) repositories::iterator) {
+      count++;
+      if (facets.isEmpty()) {
+        continue;
+      }
+
+      Map<String, CustomProperty> properties = new HashMap<>(defaultPropertiesByNamespace.computeIfAbsent(
+        repository.getNamespace(), this::getDefaultPropertiesByKey
+      ));
+      propertyIndex.getProperties(repository.getId()).forEach(property -> properties.put(property.getKey(), property));
+
+      facets.forEach((facetKey, histogram) -> {
+        CustomProperty property = properties.get(facetKey);
+        if (property != null) {
+          Arrays.stream(property.getValue().split(MULTIPLE_CHOICE_VALUE_SEPARATOR))
+            .distinct()
+            .forEach(value -> histogram.merge(value, 1, Integer::sum));
+        }
+      });
     }
 
-    Predicate<CustomProperty> keyFilter = filter.getKeyFilter();
-    Predicate<CustomProperty> valueFilter = filter.getValueFilter();
-    Predicate<CustomProperty> keyValuePairFilter = filter.getKeyValueFilter();
+    metrics.recordSearch(sample, "aggregation", filter.getScope(), count);
+    return new Aggregation(count, facets);
+  }
 
-    return repoWithPropsStream
-      .filter(repositoryWithProps -> filterByProperties(repositoryWithProps, keyFilter, valueFilter, keyValuePairFilter))
-      .toList();
+  private Map<String, CustomProperty> getDefaultPropertiesByKey(String namespace) {
+    Map<String, CustomProperty> defaultProperties = new HashMap<>();
+    customPropertiesService.getDefaultProperties(namespace)
+      .forEach(property -> defaultProperties.put(property.getKey(), property));
+    return defaultProperties;
   }
 
-  private boolean removeArchived(Repository repository) {
-    return !repository.isArchived();
+  private Stream<Repository> findRepositories(Filter filter, NamespaceAndName cursor) {
+    Stream<Repository> repoStream = findCandidates(filter).stream();
+
+    if (cursor != null) {
+      repoStream = repoStream.filter(repository -> isAfter(repository, cursor));
+    }
+
+    repoStream = repoStream.sorted(REPOSITORY_ORDER);
+
+    if (filter.excludeArchived) {
+      repoStream = repoStream.filter(this::removeArchived);
+    }
+
+    return repoStream;
   }
 
-  private RepositoryWithProps loadCustomProps(Repository repository) {
-    return new RepositoryWithProps(repository, customPropertiesService.get(repository));
+  private boolean isAfter(Repository repository, NamespaceAndName cursor) {
+    int namespaceOrder = repository.getNamespace().compareTo(cursor.getNamespace());
+    if (namespaceOrder != 0) {
+      return namespaceOrder > 0;
+    }
+    return repository.getName().compareTo(cursor.getName()) > 0;
   }
 
-  private boolean filterByProperties(RepositoryWithProps repositoryWithProps,
-                                     Predicate<CustomProperty> keyFilter,
-                                     Predicate<CustomProperty> valueFilter,
-                                     Predicate<CustomProperty> keyValuePairFilter) {
-    boolean keyMatches = false;
-    boolean valueMatches = false;
-    boolean keyValuePairMatches = false;
+  private Collection<Repository> findCandidates(Filter filter) {
+    SearchFilterJfrEvent event = new SearchFilterJfrEvent();
+    event.begin();
+    Collection<Repository> candidates = evaluateFilter(filter);
+    event.end();
+    if (event.shouldCommit()) {
+      event.key = filter.key;
+      event.value = filter.value;
+      event.keyValuePair = filter.keyValuePair;
+      event.namespace = filter.namespace;
+      event.repositoryCount = candidates.size();
+      event.commit();
+    }
+    return candidates;
+  }
 
-    for (CustomProperty property : repositoryWithProps.props) {
-      if (keyFilter.test(property)) {
-        keyMatches = true;
+  /**
+   * Finds the repositories matching all clauses of the filter. The namespace filter is applied first,
+   * so that default properties are only expanded for the matching namespaces.
+   */
+  private Collection<Repository> evaluateFilter(Filter filter) {
+    Predicate<String> namespaceMatcher = filter.getNamespaceMatcher();
+    if (filter.hasNoCustomPropertyFilter()) {
+      if (filter.hasNoNamespaceFilter()) {
+        return repositoryManager.getAll();
       }
+      return repositoryManager.getAll(repository -> namespaceMatcher.test(repository.getNamespace()));
+    }
+
+    List<String> names = repositoryManager.getAllNamespaces()
+      .stream()
+      .filter(namespaceMatcher)
+      .toList();
+    if (names.isEmpty()) {
+      return List.of();
+    }
+    Set<String> nameSet = new HashSet<>(names);
+    SearchNamespaces namespaces = new SearchNamespaces(
+      names, () -> repositoryManager.getAll(repository -> nameSet.contains(repository.getNamespace()))
+    );
+
+    List<Clause> clauses = filter.getClauses();
+    Optional<Set<String>> searchEngineCandidateIds = searchEngineQuery.findCandidateIds(clauses, namespaces);
+    Set<String> repositoryIds = searchEngineCandidateIds.orElseGet(() -> findRepositoryIds(clauses, namespaces));
+    if (repositoryIds.isEmpty()) {
+      return List.of();
+    }
+
+    Stream<Repository> repositories = repositoryIds.stream()
+      .filter(id -> RepositoryPermissions.read(id).isPermitted())
+      .map(repositoryManager::get)
+      .filter(Objects::nonNull)
+      .filter(repository -> namespaceMatcher.test(repository.getNamespace()));
+
+    if (searchEngineCandidateIds.isPresent()) {
+      repositories = repositories.filter(repository -> matchesAllClauses(repository, clauses));
+    }
+
+    return repositories.toList();
+  }
 
-      if (valueFilter.test(property)) {
-        valueMatches = true;
+  /**
+   * Resolves only the most selective clause by its postings and verifies the remaining clauses for the
+   * resulting candidates, so that the cost of a compound search depends on its most specific clause.
+   * Clauses matching default properties are considered unselective, because they apply to whole namespaces.
+   */
+  private Set<String> findRepositoryIds(List<Clause> clauses, SearchNamespaces namespaces) {
+    List<Clause> plannedClauses = clauses.stream()
+      .sorted(Comparator.comparingInt(clause -> estimateRepositoryCount(clause, namespaces)))
+      .toList();
+
+    Set<String> repositoryIds = findRepositoryIds(plannedClauses.get(0), namespaces);
+    List<Clause> remainingClauses = plannedClauses.subList(1, plannedClauses.size());
+    if (!remainingClauses.isEmpty()) {
+      repositoryIds.removeIf(id -> !matchesAllClauses(id, remainingClauses));
+    }
+    return repositoryIds;
+  }
+
+  private int estimateRepositoryCount(Clause clause, SearchNamespaces namespaces) {
+    for (String namespace : namespaces.names()) {
+      if (customPropertiesService.getDefaultProperties(namespace).stream().anyMatch(clause::matches)) {
+        return Integer.MAX_VALUE;
       }
+    }
+    return propertyIndex.estimateRepositoryCount(clause.keyMatcher(), clause.valueMatchers());
+  }
+
+  private boolean matchesAllClauses(String repositoryId, List<Clause> clauses) {
+    if (!RepositoryPermissions.read(repositoryId).isPermitted()) {
+      return false;
+    }
+    Repository repository = repositoryManager.get(repositoryId);
+    if (repository == null) {
+      return false;
+    }
+    Collection<CustomProperty> properties = customPropertiesService.get(repository, propertyIndex.getProperties(repositoryId));
+    return clauses.stream().allMatch(clause -> properties.stream().anyMatch(clause::matches));
+  }
 
-      if (keyValuePairFilter.test(property)) {
-        keyValuePairMatches = true;
+  /**
+   * Verifies a candidate of the search engine against its stored and default properties.
+   */
+  private boolean matchesAllClauses(Repository repository, List<Clause> clauses) {
+    Collection<CustomProperty> properties = customPropertiesService.get(repository);
+    return clauses.stream().allMatch(clause -> properties.stream().anyMatch(clause::matches));
+  }
+
+  private Set<String> findRepositoryIds(Clause clause, SearchNamespaces namespaces) {
+    Set<String> repositoryIds = new HashSet<>(propertyIndex.findRepositoryIds(clause.keyMatcher(), clause.valueMatchers()));
+
+    for (String namespace : namespaces.names()) {
+      for (CustomProperty defaultProperty : customPropertiesService.getDefaultProperties(namespace)) {
+        if (clause.matches(defaultProperty)) {
+          namespaces.getRepositoryIds(namespace)
+            .stream()
+            .filter(id -> !propertyIndex.hasProperty(id, defaultProperty.getKey()))
+            .forEach(repositoryIds::add);
+        }
       }
     }
 
-    return keyMatches && valueMatches && keyValuePairMatches;
+    return repositoryIds;
   }
 
-  record Filter(String key, String value, String keyValuePair, boolean excludeArchived) {
+  private boolean removeArchived(Repository repository) {
+    return !repository.isArchived();
+  }
+
+  private RepositoryWithProps loadCustomProps(Repository repository) {
+    return new RepositoryWithProps(
+      repository,
+      customPropertiesService.get(repository, propertyIndex.getProperties(repository.getId()))
+    );
+  }
+
+  record Filter(String key, String value, String keyValuePair, String namespace, boolean excludeArchived) {
+
+    Filter(String key, String value, String keyValuePair, boolean excludeArchived) {
+      this(key, value, keyValuePair, null, excludeArchived);
+    }
 
     boolean hasNoCustomPropertyFilter() {
       return hasNoKeyFilter() && hasNoValueFilter() && hasNoKeyValueFilter();
@@ -108,61 +334,125 @@ public class CustomPropertiesSearchService {
       return Strings.isNullOrEmpty(key);
     }
 
-    Predicate<CustomProperty> getKeyFilter() {
-      if (hasNoKeyFilter()) {
-        return property -> true;
-      }
+    boolean hasNoValueFilter() {
+      return Strings.isNullOrEmpty(value);
+    }
 
-      String loweredKey = key.toLowerCase(Locale.ENGLISH);
-      return property -> GlobUtil.matches(loweredKey, property.loweredKey());
+    boolean hasNoKeyValueFilter() {
+      return Strings.isNullOrEmpty(keyValuePair);
     }
 
-    boolean hasNoValueFilter() {
-      return Strings.isNullOrEmpty(value);
+    boolean hasNoNamespaceFilter() {
+      return Strings.isNullOrEmpty(namespace);
     }
 
-    Predicate<CustomProperty> getValueFilter() {
-      if (hasNoValueFilter()) {
-        return property -> true;
-      }
+    String getScope() {
+      return hasNoNamespaceFilter() ? CustomPropertiesMetrics.SCOPE_GLOBAL : CustomPropertiesMetrics.SCOPE_NAMESPACE;
+    }
 
-      return buildValueFilter(value);
+    /**
+     * Returns a case-insensitive matcher for the namespace filter, which may contain wildcards.
+     */
+    Predicate<String> getNamespaceMatcher() {
+      if (hasNoNamespaceFilter()) {
+        return anyNamespace -> true;
+      }
+      GlobMatcher matcher = GlobMatcher.compile(namespace);
+      return candidate -> matcher.test(candidate.toLowerCase(Locale.ENGLISH));
     }
 
-    private Predicate<CustomProperty> buildValueFilter(String filterValue) {
-      String[] filterValues = filterValue.toLowerCase(Locale.ENGLISH).split(MULTIPLE_CHOICE_VALUE_SEPARATOR);
+    /**
+     * Splits the filter into clauses, which all have to be satisfied by a repository.
+     * Each clause has to be satisfied by a single property, but different clauses may be satisfied by different properties.
+     */
+    List<Clause> getClauses() {
+      List<Clause> clauses = new ArrayList<>();
 
-      return property -> {
-        Predicate<String> matchPropValue;
-        if (property.getValue().contains(MULTIPLE_CHOICE_VALUE_SEPARATOR)) {
-          String[] values = property.loweredValue().split(MULTIPLE_CHOICE_VALUE_SEPARATOR);
-          matchPropValue = filter -> Arrays.stream(values).anyMatch(value -> GlobUtil.matches(filter, value));
-        } else {
-          String loweredValue = property.loweredValue();
-          matchPropValue = filter -> GlobUtil.matches(filter, loweredValue);
-        }
+      if (!hasNoKeyFilter()) {
+        clauses.add(new Clause(GlobMatcher.compile(key), List.of()));
+      }
 
-        return Arrays.stream(filterValues).allMatch(matchPropValue);
-      };
+      if (!hasNoValueFilter()) {
+        clauses.add(new Clause(loweredKey -> true, buildValueMatchers(value)));
+      }
+
+      if (!hasNoKeyValueFilter()) {
+        String[] keyAndValue = keyValuePair.split("=", 2);
+        clauses.add(new Clause(GlobMatcher.compile(keyAndValue[0]), buildValueMatchers(keyAndValue[1])));
+      }
+
+      return clauses;
     }
 
-    boolean hasNoKeyValueFilter() {
-      return Strings.isNullOrEmpty(keyValuePair);
+    private static List<Predicate<String>> buildValueMatchers(String filterValue) {
+      return Arrays.stream(filterValue.split(MULTIPLE_CHOICE_VALUE_SEPARATOR))
+        .<Predicate<String>>map(GlobMatcher::compile)
+        .toList();
     }
+  }
+
+  /**
+   * Matches a single property, whose lowered key matches the key matcher
+   * and where each value matcher matches at least one of its lowered values.
+   */
+  record Clause(Predicate<String> keyMatcher, List<Predicate<String>> valueMatchers) {
 
-    Predicate<CustomProperty> getKeyValueFilter() {
-      if (hasNoKeyValueFilter()) {
-        return property -> true;
+    boolean matches(CustomProperty property) {
+      if (!keyMatcher.test(property.loweredKey())) {
+        return false;
       }
 
-      String[] loweredKeyValue = keyValuePair.split("=", 2);
-      String filterKey = loweredKeyValue[0].toLowerCase(Locale.ENGLISH);
-      Predicate<CustomProperty> filterValue = buildValueFilter(loweredKeyValue[1]);
+      List<String> values = property.loweredValues();
+      return valueMatchers.stream().allMatch(matcher -> values.stream().anyMatch(matcher));
+    }
+  }
+
+  /**
+   * The namespaces of a search. Their repositories are only needed for clauses matching default properties,
+   * so they are read once on first use and grouped by namespace, instead of being filtered for each namespace
+   * and each matching default property.
+   */
+  static final class SearchNamespaces {
+
+    private final Collection<String> names;
+    private final Supplier<Collection<Repository>> repositories;
+    private Map<String, List<String>> repositoryIdsByNamespace;
 
-      return property -> GlobUtil.matches(filterKey, property.loweredKey()) && filterValue.test(property);
+    SearchNamespaces(Collection<String> names, Supplier<Collection<Repository>> repositories) {
+      this.names = names;
+      this.repositories = repositories;
+    }
+
+    Collection<String> names() {
+      return names;
+    }
+
+    List<String> getRepositoryIds(String namespace) {
+      if (repositoryIdsByNamespace == null) {
+        repositoryIdsByNamespace = repositories.get()
+          .stream()
+          .collect(Collectors.groupingBy(Repository::getNamespace, Collectors.mapping(Repository::getId, Collectors.toList())));
+      }
+      return repositoryIdsByNamespace.getOrDefault(namespace, List.of());
     }
   }
 
   record RepositoryWithProps(Repository repository, Collection<CustomProperty> props) {
   }
+
+  record Aggregation(int count, Map<String, Map<String, Integer>> facets) {
+  }
+
+  record Page(List<RepositoryWithProps> repositories, boolean hasMore) {
+
+    /**
+     * Returns the cursor for the following page, which is the last repository of this page.
+     */
+    Optional<NamespaceAndName> next() {
+      if (!hasMore || repositories.isEmpty()) {
+        return Optional.empty();
+      }
+      return Optional.of(repositories.get(repositories.size() - 1).repository().getNamespaceAndName());
+    }
+  }
 }
@@ -19,22 +19,38 @@ package com.cloudogu.custom.properties;
 import com.cloudogu.custom.properties.config.ConfigService;
 import com.cloudogu.custom.properties.config.PredefinedKey;
 import com.cloudogu.custom.properties.config.ValueMode;
+import com.github.legman.Subscribe;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.Striped;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.Inject;
+import io.micrometer.core.instrument.Timer;
+import jakarta.inject.Singleton;
 import lombok.extern.slf4j.Slf4j;
 import sonia.scm.ContextEntry;
+import sonia.scm.HandlerEventType;
 import sonia.scm.NotFoundException;
 import sonia.scm.event.ScmEventBus;
 import sonia.scm.repository.Repository;
-import sonia.scm.repository.RepositoryManager;
+import sonia.scm.repository.RepositoryEvent;
+import sonia.scm.repository.RepositoryImportEvent;
 import sonia.scm.store.ConfigurationEntryStoreFactory;
 import sonia.scm.store.DataStore;
 
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -43,39 +59,239 @@ import static sonia.scm.NotFoundException.notFound;
 
 @SuppressWarnings("OptionalUsedAsFieldOrParameterType")
 @Slf4j
+@Singleton
 public class CustomPropertiesService {
+
+  static final String CACHE_MAX_ENTRIES_PROPERTY = "scm.customProperties.cache.maxEntries";
+  static final String CACHE_MAX_WEIGHT_PROPERTY = "scm.customProperties.cache.maxWeight";
+  private static final int DEFAULT_CACHE_MAX_ENTRIES = 10_000;
+  private static final String STORED_PROPERTIES_CACHE = "stored-properties";
+
   private final ConfigurationEntryStoreFactory storeFactory;
   private final ConfigService configService;
   private final ScmEventBus eventBus;
-  private final RepositoryManager repositoryManager;
+  private final PropertySnapshot snapshot;
+  private final CustomPropertiesMetrics metrics;
+  private final Executor snapshotVerifier;
+
+  // immutable stored properties by repository id, so that unchanged stores are not deserialized again
+  private final Cache<String, List<CustomProperty>> storedPropertiesCache;
+  // serializes loads and modifications of the same store, so that no outdated properties get cached
+  private final Striped<Lock> storeLocks = Striped.lock(64);
 
   @Inject
-  CustomPropertiesService(ConfigurationEntryStoreFactory storeFactory, ConfigService configService, ScmEventBus eventBus, RepositoryManager repositoryManager) {
+  CustomPropertiesService(ConfigurationEntryStoreFactory storeFactory, ConfigService configService, ScmEventBus eventBus,
+                          PropertySnapshot snapshot, CustomPropertiesMetrics metrics) {
+    this(
+      storeFactory, configService, eventBus, snapshot, metrics,
+      Integer.getInteger(CACHE_MAX_ENTRIES_PROPERTY, DEFAULT_CACHE_MAX_ENTRIES),
+      Long.getLong(CACHE_MAX_WEIGHT_PROPERTY, 0),
+      Executors.newSingleThreadExecutor(
+        new ThreadFactoryBuilder().setNameFormat("CustomPropertiesSnapshotVerifier-%d").setDaemon(true).build()
+      )
+    );
+  }
+
+  /**
+   * Creates the service with a cache bounded by the number of repositories or, if a maximum weight greater than
+   * zero is given, by the estimated size of the cached properties in bytes.
+   */
+  @VisibleForTesting
+  CustomPropertiesService(ConfigurationEntryStoreFactory storeFactory, ConfigService configService, ScmEventBus eventBus,
+                          PropertySnapshot snapshot, CustomPropertiesMetrics metrics, int cacheMaxEntries, long cacheMaxWeight,
+                          Executor snapshotVerifier) {
     this.storeFactory = storeFactory;
     this.configService = configService;
     this.eventBus = eventBus;
-    this.repositoryManager = repositoryManager;
+    this.snapshot = snapshot;
+    this.metrics = metrics;
+    this.storedPropertiesCache = createCache(cacheMaxEntries, cacheMaxWeight);
+    this.snapshotVerifier = snapshotVerifier;
+  }
+
+  private static Cache<String, List<CustomProperty>> createCache(int maxEntries, long maxWeight) {
+    CacheBuilder<Object, Object> builder = CacheBuilder.newBuilder();
+    if (maxWeight > 0) {
+      return builder
+        .maximumWeight(maxWeight)
+        .weigher((String repositoryId, List<CustomProperty> properties) -> estimateWeight(repositoryId, properties))
+        .build();
+    }
+    return builder.maximumSize(maxEntries).build();
+  }
+
+  private static int estimateWeight(String repositoryId, List<CustomProperty> properties) {
+    // two bytes per character and a rough overhead for the objects of each entry
+    int weight = 64 + repositoryId.length() * 2;
+    for (CustomProperty property : properties) {
+      weight += 96 + (property.getKey().length() + property.getValue().length()) * 2;
+    }
+    return weight;
   }
 
   Collection<CustomProperty> get(Repository repository) {
+    return get(repository, getStoredProperties(repository));
+  }
+
+  Collection<CustomProperty> get(Repository repository, Collection<CustomProperty> storedProperties) {
     Map<String, PredefinedKey> predefinedKeys = configService.getAllPredefinedKeys(repository.getNamespace());
-    Collection<CustomProperty> existingProperties = createStore(repository)
-      .getAll()
-      .values()
+    Collection<CustomProperty> existingProperties = storedProperties
       .stream()
       .map(
         customProp -> new CustomProperty(customProp.getKey(), customProp.getValue(), false, isMandatoryKey(customProp.getKey(), predefinedKeys))
       )
       .toList();
 
-    Stream<CustomProperty> defaultProperties = predefinedKeys
+    Stream<CustomProperty> defaultProperties = getDefaultProperties(predefinedKeys)
+      .filter(defaultProperty -> isKeyUndefined(defaultProperty.getKey(), existingProperties));
+
+    return Stream.concat(existingProperties.stream(), defaultProperties).sorted().toList();
+  }
+
+  Collection<CustomProperty> getStoredProperties(Repository repository) {
+    List<CustomProperty> cachedProperties = storedPropertiesCache.getIfPresent(repository.getId());
+    metrics.recordCacheAccess(STORED_PROPERTIES_CACHE, CustomPropertiesMetrics.SCOPE_REPOSITORY, cachedProperties != null);
+    if (cachedProperties != null) {
+      return cachedProperties;
+    }
+
+    Lock lock = storeLocks.get(repository.getId());
+    lock.lock();
+    try {
+      cachedProperties = storedPropertiesCache.getIfPresent(repository.getId());
+      if (cachedProperties == null) {
+        cachedProperties = readStoredProperties(repository);
+        storedPropertiesCache.put(repository.getId(), cachedProperties);
+      }
+      return cachedProperties;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Returns the stored properties of the given repositories by their ids. The properties are taken from the cache
+   * or the {@link PropertySnapshot}, so that only the stores of repositories unknown to both have to be read.
+   * Those are added to the snapshot for the next start.
+   * <p>
+   * The snapshot only allows a fast start, because the stores might have been changed while the server was down,
+   * like by restoring a backup. So the stores of the repositories taken from the snapshot are read in the background
+   * afterward, and a {@link CustomPropertySnapshotCorrectedEvent} is posted for every store differing from the snapshot.
+   */
+  Map<String, Collection<CustomProperty>> getAllStoredProperties(Collection<Repository> repositories) {
+    Map<String, List<CustomProperty>> snapshotProperties = snapshot.read();
+    Map<String, Collection<CustomProperty>> storedProperties = new HashMap<>(repositories.size() * 4 / 3 + 1);
+    Map<Repository, Collection<CustomProperty>> unverifiedProperties = new LinkedHashMap<>();
+    int readFromStores = 0;
+    for (Repository repository : repositories) {
+      Collection<CustomProperty> properties = storedPropertiesCache.getIfPresent(repository.getId());
+      if (properties == null) {
+        properties = snapshotProperties.get(repository.getId());
+        if (properties != null) {
+          unverifiedProperties.put(repository, properties);
+        }
+      }
+      if (properties == null) {
+        properties = readIntoSnapshot(repository);
+        readFromStores++;
+      }
+      storedProperties.put(repository.getId(), properties);
+    }
+    log.debug("Read custom properties of {} of {} repositories from their stores", readFromStores, repositories.size());
+
+    if (!unverifiedProperties.isEmpty()) {
+      snapshotVerifier.execute(() -> verifySnapshot(unverifiedProperties));
+    }
+    return storedProperties;
+  }
+
+  private void verifySnapshot(Map<Repository, Collection<CustomProperty>> snapshotProperties) {
+    int corrected = 0;
+    for (Map.Entry<Repository, Collection<CustomProperty>> entry : snapshotProperties.entrySet()) {
+      try {
+        if (verifySnapshot(entry.getKey(), entry.getValue())) {
+          corrected++;
+          eventBus.post(new CustomPropertySnapshotCorrectedEvent(entry.getKey()));
+        }
+      } catch (RuntimeException e) {
+        log.warn("Could not verify custom properties of repository {} from snapshot", entry.getKey(), e);
+      }
+    }
+    log.debug("Verified custom properties of {} repositories from snapshot, {} differed from their stores", snapshotProperties.size(), corrected);
+  }
+
+  /**
+   * The store stays locked while the snapshot is updated, so that it does not overwrite a concurrent modification.
+   * The event for the correction is posted after the lock has been released, like the events of every other change,
+   * because its subscribers read the properties from the store again.
+   */
+  private boolean verifySnapshot(Repository repository, Collection<CustomProperty> snapshotProperties) {
+    Lock lock = storeLocks.get(repository.getId());
+    lock.lock();
+    try {
+      Collection<CustomProperty> properties = getStoredProperties(repository);
+      if (new HashSet<>(properties).equals(new HashSet<>(snapshotProperties))) {
+        return false;
+      }
+      log.info("Custom properties of repository {} have been changed outside of SCM-Manager, updating snapshot", repository);
+      snapshot.put(repository.getId(), properties);
+      return true;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private Collection<CustomProperty> readIntoSnapshot(Repository repository) {
+    Lock lock = storeLocks.get(repository.getId());
+    lock.lock();
+    try {
+      Collection<CustomProperty> properties = getStoredProperties(repository);
+      snapshot.put(repository.getId(), properties);
+      return properties;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Reads the stored properties of a repository, whose store might have been changed without this service,
+   * like by the import of the repository.
+   */
+  Collection<CustomProperty> reloadStoredProperties(Repository repository) {
+    invalidate(repository);
+    return getStoredProperties(repository);
+  }
+
+  private List<CustomProperty> readStoredProperties(Repository repository) {
+    PropertyLoadJfrEvent event = new PropertyLoadJfrEvent();
+    event.begin();
+    Timer.Sample sample = metrics.start();
+    List<CustomProperty> storedProperties;
+    try {
+      storedProperties = createStore(repository).getAll().values().stream().map(PropertyInterner::intern).toList();
+    } finally {
+      metrics.recordStoreAccess(sample, "read");
+    }
+    event.end();
+    if (event.shouldCommit()) {
+      event.repositoryId = repository.getId();
+      event.namespace = repository.getNamespace();
+      event.propertyCount = storedProperties.size();
+      event.commit();
+    }
+    return storedProperties;
+  }
+
+  Collection<CustomProperty> getDefaultProperties(String namespace) {
+    return getDefaultProperties(configService.getAllPredefinedKeys(namespace)).toList();
+  }
+
+  private Stream<CustomProperty> getDefaultProperties(Map<String, PredefinedKey> predefinedKeys) {
+    return predefinedKeys
       .entrySet()
       .stream()
       .filter(entry -> isDefaultProperty(entry.getValue()))
-      .filter(entry -> isKeyUndefined(entry.getKey(), existingProperties))
       .map(entry -> new CustomProperty(entry.getKey(), entry.getValue().getDefaultValue(), true, false));
-
-    return Stream.concat(existingProperties.stream(), defaultProperties).sorted().toList();
   }
 
   private boolean isMandatoryKey(String key, Map<String, PredefinedKey> predefinedKeys) {
@@ -103,60 +319,27 @@ public class CustomPropertiesService {
       .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
   }
 
-  Map<String, Collection<Repository>> getMissingMandatoryProperties() {
-    return getMissingMandatoryPropertiesForRepositoryCollection(repositoryManager.getAll());
-  }
-
-  Map<String, Collection<Repository>> getMissingMandatoryPropertiesForNamespace(String namespace) {
-    return getMissingMandatoryPropertiesForRepositoryCollection(
-      repositoryManager.getAll(repository -> repository.getNamespace().equals(namespace))
-    );
-  }
-
-  Collection<String> getMissingMandatoryPropertiesForRepository(Repository repository) {
-    return getMissingMandatoryPropertiesForRepositoryCollection(List.of(repository)).keySet();
-  }
-
-  private Map<String, Collection<Repository>> getMissingMandatoryPropertiesForRepositoryCollection(Collection<Repository> allRepositories) {
-    Map<String, Collection<Repository>> result = new HashMap<>();
-    Map<String, Map<String, PredefinedKey>> predefinedKeysCacheForNamespace = new HashMap<>();
-
-    allRepositories.forEach(repository -> {
-      Map<String, CustomProperty> definedKeysInRepository = createStore(repository).getAll();
-      predefinedKeysCacheForNamespace
-        .computeIfAbsent(repository.getNamespace(), this::getMandatoryKeys)
-        .keySet()
-        .stream()
-        .filter(s -> !definedKeysInRepository.containsKey(s))
-        .forEach(missingKey -> result.computeIfAbsent(missingKey, key -> new ArrayList<>()).add(repository));
-    });
-
-    return result;
-  }
-
-  private Map<String, PredefinedKey> getMandatoryKeys(String namespace) {
-    return configService.getAllPredefinedKeys(namespace)
-      .entrySet()
-      .stream()
-      .filter(entry -> entry.getValue().getMode() == ValueMode.MANDATORY)
-      .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
-  }
-
   void create(Repository repository, CustomProperty entity) {
     log.trace("Creating custom property {} on {}", entity, repository);
     validateValue(repository, entity);
-    DataStore<CustomProperty> store = createStore(repository);
-    Optional<CustomProperty> entityInDb = store.getOptional(entity.getKey());
-    if (entityInDb.isPresent()) {
-      throw alreadyExists(ContextEntry.ContextBuilder.entity("custom-property", entity.getKey()).in(repository));
-    }
-
-    store.put(entity.getKey(), entity);
+    modifyStore(repository, "create", store -> {
+      Optional<CustomProperty> entityInDb = store.getOptional(entity.getKey());
+      if (entityInDb.isPresent()) {
+        throw alreadyExists(ContextEntry.ContextBuilder.entity("custom-property", entity.getKey()).in(repository));
+      }
+
+      store.put(entity.getKey(), entity);
+      return null;
+    });
     eventBus.post(new CustomPropertyCreateEvent(repository, entity));
   }
 
   private void validateValue(Repository repository, CustomProperty entity) {
-    PredefinedKey predefinedKey = configService.getAllPredefinedKeys(repository.getNamespace()).get(entity.getKey());
+    validateValue(repository, entity, configService.getAllPredefinedKeys(repository.getNamespace()));
+  }
+
+  private void validateValue(Repository repository, CustomProperty entity, Map<String, PredefinedKey> predefinedKeys) {
+    PredefinedKey predefinedKey = predefinedKeys.get(entity.getKey());
     if (predefinedKey != null && !predefinedKey.isValueValid(entity.getValue())) {
       throw new InvalidValueException(repository, entity);
     }
@@ -166,25 +349,26 @@ public class CustomPropertiesService {
     log.trace("Updating custom property {} to {} on {}", currentKey, updatedEntity, repository);
     validateValue(repository, updatedEntity);
     boolean hasKeyChanged = !currentKey.equals(updatedEntity.getKey());
-    if (hasKeyChanged) {
-      replaceEntity(repository, currentKey, updatedEntity);
-    } else {
-      updateValue(repository, updatedEntity);
-    }
+    Optional<CustomPropertyUpdateEvent> event = modifyStore(repository, "update", store -> {
+      if (hasKeyChanged) {
+        return replaceEntity(repository, store, currentKey, updatedEntity);
+      }
+      return updateValue(repository, store, updatedEntity);
+    });
+    event.ifPresent(eventBus::post);
   }
 
-  private void updateValue(Repository repository, CustomProperty updatedEntity) {
-    DataStore<CustomProperty> store = createStore(repository);
+  private Optional<CustomPropertyUpdateEvent> updateValue(Repository repository, DataStore<CustomProperty> store, CustomProperty updatedEntity) {
     CustomProperty currentEntity = store.getOptional(updatedEntity.getKey()).orElseThrow(() -> notFound(
       ContextEntry.ContextBuilder.entity("custom-property", updatedEntity.getKey()).in(repository)
     ));
 
     if (currentEntity.equals(updatedEntity)) {
-      return;
+      return Optional.empty();
     }
 
     store.put(updatedEntity.getKey(), updatedEntity);
-    eventBus.post(
+    return Optional.of(
       new CustomPropertyUpdateEvent(
         repository,
         new CustomProperty(updatedEntity.getKey(), updatedEntity.getValue()),
@@ -193,12 +377,11 @@ public class CustomPropertiesService {
     );
   }
 
-  private void replaceEntity(Repository repository, String currentKey, CustomProperty updatedEntity) {
-    DataStore<CustomProperty> store = createStore(repository);
+  private Optional<CustomPropertyUpdateEvent> replaceEntity(Repository repository, DataStore<CustomProperty> store, String currentKey, CustomProperty updatedEntity) {
     Optional<CustomProperty> outdatedEntityInDb = store.getOptional(currentKey);
     Optional<CustomProperty> alreadyUpdatedEntityInDb = store.getOptional(updatedEntity.getKey());
     if (isChangeAlreadyDone(outdatedEntityInDb, alreadyUpdatedEntityInDb, updatedEntity)) {
-      return;
+      return Optional.empty();
     }
 
     if (isKeyAlreadyInUse(alreadyUpdatedEntityInDb, updatedEntity)) {
@@ -212,7 +395,7 @@ public class CustomPropertiesService {
       store.remove(currentKey);
     }
 
-    eventBus.post(
+    return Optional.of(
       new CustomPropertyUpdateEvent(
         repository,
         new CustomProperty(updatedEntity.getKey(), updatedEntity.getValue()),
@@ -233,12 +416,172 @@ public class CustomPropertiesService {
 
   void delete(Repository repository, String key) throws NotFoundException {
     log.trace("Deleting custom property with key {} on {}", key, repository);
-    DataStore<CustomProperty> store = createStore(repository);
-    store.getOptional(key).ifPresent(
-      customProperty -> {
-        eventBus.post(new CustomPropertyDeleteEvent(repository, customProperty));
-        store.remove(key);
-      });
+    Optional<CustomProperty> deletedProperty = modifyStore(repository, "delete", store -> {
+      Optional<CustomProperty> storedProperty = store.getOptional(key);
+      storedProperty.ifPresent(customProperty -> store.remove(key));
+      return storedProperty;
+    });
+    deletedProperty.ifPresent(customProperty -> eventBus.post(new CustomPropertyDeleteEvent(repository, customProperty)));
+  }
+
+  /**
+   * Validates the values of the operations against the predefined keys of every namespace of the given repositories,
+   * so that operations, which would be rejected for each repository of a namespace, are rejected before any of them is applied.
+   */
+  void validate(Collection<Repository> repositories, List<CustomPropertyOperation> operations) {
+    Map<String, Repository> repositoriesByNamespace = new LinkedHashMap<>();
+    repositories.forEach(repository -> repositoriesByNamespace.putIfAbsent(repository.getNamespace(), repository));
+    repositoriesByNamespace.forEach((namespace, repository) -> {
+      Map<String, PredefinedKey> predefinedKeys = configService.getAllPredefinedKeys(namespace);
+      operations.stream()
+        .filter(operation -> operation.type() != CustomPropertyOperation.Type.DELETE)
+        .forEach(operation -> validateValue(repository, operation.property(), predefinedKeys));
+    });
+  }
+
+  /**
+   * Applies all operations in the given order, or none of them, if one of them is invalid.
+   * Only the resulting differences are written to the store. If writing them fails, the previous properties
+   * are restored. The differences are posted with a single {@link CustomPropertyBulkEvent}
+   * followed by the create, update and delete event of each of them.
+   */
+  void apply(Repository repository, List<CustomPropertyOperation> operations) {
+    List<BasicCustomPropertyEvent> changes = applyWithoutEvent(repository, operations);
+    if (!changes.isEmpty()) {
+      CustomPropertyBulkEvent.post(eventBus, changes);
+    }
+  }
+
+  /**
+   * Applies the operations like {@link #apply(Repository, List)}, but returns the changes
+   * instead of posting them, so that the changes of multiple repositories can be posted with a single event.
+   */
+  List<BasicCustomPropertyEvent> applyWithoutEvent(Repository repository, List<CustomPropertyOperation> operations) {
+    log.trace("Applying {} custom property operations on {}", operations.size(), repository);
+    Map<String, PredefinedKey> predefinedKeys = configService.getAllPredefinedKeys(repository.getNamespace());
+    return modifyStore(repository, "bulk", store -> applyWithoutEvent(repository, store, operations, predefinedKeys));
+  }
+
+  private List<BasicCustomPropertyEvent> applyWithoutEvent(Repository repository, DataStore<CustomProperty> store, List<CustomPropertyOperation> operations, Map<String, PredefinedKey> predefinedKeys) {
+    Map<String, CustomProperty> storedProperties = store.getAll();
+    Map<String, CustomProperty> properties = new LinkedHashMap<>(storedProperties);
+
+    for (CustomPropertyOperation operation : operations) {
+      switch (operation.type()) {
+        case CREATE -> {
+          validateValue(repository, operation.property(), predefinedKeys);
+          if (properties.containsKey(operation.property().getKey())) {
+            throw alreadyExists(ContextEntry.ContextBuilder.entity("custom-property", operation.property().getKey()).in(repository));
+          }
+          properties.put(operation.property().getKey(), operation.property());
+        }
+        case UPDATE -> {
+          validateValue(repository, operation.property(), predefinedKeys);
+          if (!properties.containsKey(operation.key())) {
+            throw notFound(ContextEntry.ContextBuilder.entity("custom-property", operation.key()).in(repository));
+          }
+          if (!operation.key().equals(operation.property().getKey()) && properties.containsKey(operation.property().getKey())) {
+            throw alreadyExists(ContextEntry.ContextBuilder.entity("custom-property", operation.property().getKey()).in(repository));
+          }
+          properties.remove(operation.key());
+          properties.put(operation.property().getKey(), operation.property());
+        }
+        case DELETE -> properties.remove(operation.key());
+      }
+    }
+
+    try {
+      return write(repository, store, storedProperties, properties);
+    } catch (RuntimeException e) {
+      restore(repository, store, storedProperties, e);
+      throw e;
+    }
+  }
+
+  private List<BasicCustomPropertyEvent> write(Repository repository, DataStore<CustomProperty> store,
+                                               Map<String, CustomProperty> storedProperties, Map<String, CustomProperty> properties) {
+    List<BasicCustomPropertyEvent> changes = new ArrayList<>();
+    for (CustomProperty storedProperty : storedProperties.values()) {
+      if (!properties.containsKey(storedProperty.getKey())) {
+        store.remove(storedProperty.getKey());
+        changes.add(new CustomPropertyDeleteEvent(repository, storedProperty));
+      }
+    }
+    for (CustomProperty property : properties.values()) {
+      CustomProperty storedProperty = storedProperties.get(property.getKey());
+      if (storedProperty == null) {
+        store.put(property.getKey(), property);
+        changes.add(new CustomPropertyCreateEvent(repository, property));
+      } else if (!storedProperty.equals(property)) {
+        store.put(property.getKey(), property);
+        changes.add(new CustomPropertyUpdateEvent(repository, property, storedProperty));
+      }
+    }
+    return changes;
+  }
+
+  /**
+   * Writes the previous properties back after a failed write, so that either all or none of the operations are applied.
+   */
+  private void restore(Repository repository, DataStore<CustomProperty> store, Map<String, CustomProperty> storedProperties, RuntimeException failure) {
+    try {
+      for (String key : store.getAll().keySet()) {
+        if (!storedProperties.containsKey(key)) {
+          store.remove(key);
+        }
+      }
+      storedProperties.forEach(store::put);
+    } catch (RuntimeException e) {
+      log.error("Could not restore custom properties of repository {} after failed write", repository, e);
+      failure.addSuppressed(e);
+    }
+  }
+
+  /**
+   * Modifies the store of the repository, writes the result to the snapshot and removes the cached properties,
+   * before the caller posts the events for the modification.
+   */
+  private <T> T modifyStore(Repository repository, String operation, Function<DataStore<CustomProperty>, T> modification) {
+    Timer.Sample sample = metrics.start();
+    Lock lock = storeLocks.get(repository.getId());
+    lock.lock();
+    try {
+      DataStore<CustomProperty> store = createStore(repository);
+      T result = modification.apply(store);
+      snapshot.put(repository.getId(), store.getAll().values());
+      return result;
+    } catch (RuntimeException e) {
+      // the store might have been modified partially, so it has to be read again
+      snapshot.remove(repository.getId());
+      throw e;
+    } finally {
+      storedPropertiesCache.invalidate(repository.getId());
+      lock.unlock();
+      metrics.recordStoreAccess(sample, operation);
+    }
+  }
+
+  private void invalidate(Repository repository) {
+    Lock lock = storeLocks.get(repository.getId());
+    lock.lock();
+    try {
+      storedPropertiesCache.invalidate(repository.getId());
+      snapshot.remove(repository.getId());
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Subscribe(async = false)
+  public void handleEvent(RepositoryEvent event) {
+    if (event.getEventType() == HandlerEventType.DELETE) {
+      invalidate(event.getItem());
+    }
+  }
+
+  @Subscribe(async = false)
+  public void handleEvent(RepositoryImportEvent event) {
+    invalidate(event.getItem());
   }
 
   private DataStore<CustomProperty> createStore(Repository repository) {
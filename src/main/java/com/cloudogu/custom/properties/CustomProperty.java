@@ -20,16 +20,22 @@ import jakarta.xml.bind.annotation.XmlAccessType;
 import jakarta.xml.bind.annotation.XmlAccessorType;
 import jakarta.xml.bind.annotation.XmlRootElement;
 import jakarta.xml.bind.annotation.XmlTransient;
-import lombok.AllArgsConstructor;
+import lombok.AccessLevel;
 import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
 import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
 
 import java.io.Serializable;
+import java.util.List;
 import java.util.Locale;
 
+import static com.cloudogu.custom.properties.CustomPropertiesContext.MULTIPLE_CHOICE_VALUE_SEPARATOR;
+
 @Data
 @NoArgsConstructor
-@AllArgsConstructor
 @XmlRootElement(name = "customProperty")
 @XmlAccessorType(XmlAccessType.FIELD)
 public class CustomProperty implements Comparable<CustomProperty>, Serializable {
@@ -51,16 +57,64 @@ public class CustomProperty implements Comparable<CustomProperty>, Serializable
   @XmlTransient
   private boolean isMandatory = false;
 
+  /*
+   * Derived from the key and the value on their first match against a search filter and dropped, whenever they
+   * are replaced, so that searches do not lower and split them for every clause again.
+   * They cannot be built eagerly, because JAXB sets the key and the value without the setters.
+   */
+  @XmlTransient
+  @Getter(AccessLevel.NONE)
+  @Setter(AccessLevel.NONE)
+  @ToString.Exclude
+  @EqualsAndHashCode.Exclude
+  private transient volatile String loweredKey;
+  @XmlTransient
+  @Getter(AccessLevel.NONE)
+  @Setter(AccessLevel.NONE)
+  @ToString.Exclude
+  @EqualsAndHashCode.Exclude
+  private transient volatile List<String> loweredValues;
+
   public CustomProperty(String key, String value) {
     this(key, value, false, false);
   }
 
+  public CustomProperty(String key, String value, boolean isDefaultProperty, boolean isMandatory) {
+    this.key = key;
+    this.value = value;
+    this.isDefaultProperty = isDefaultProperty;
+    this.isMandatory = isMandatory;
+  }
+
+  public void setKey(String key) {
+    this.key = key;
+    this.loweredKey = null;
+  }
+
+  public void setValue(String value) {
+    this.value = value;
+    this.loweredValues = null;
+  }
+
   public String loweredKey() {
-    return key.toLowerCase(Locale.ENGLISH);
+    String lowered = loweredKey;
+    if (lowered == null) {
+      lowered = key.toLowerCase(Locale.ENGLISH);
+      loweredKey = lowered;
+    }
+    return lowered;
   }
 
-  public String loweredValue() {
-    return value.toLowerCase(Locale.ENGLISH);
+  /**
+   * Returns the lowered choices of the value, which is a single choice for properties without multiple choices.
+   */
+  public List<String> loweredValues() {
+    List<String> lowered = loweredValues;
+    if (lowered == null) {
+      lowered = List.of(value.toLowerCase(Locale.ENGLISH).split(MULTIPLE_CHOICE_VALUE_SEPARATOR));
+      loweredValues = lowered;
+    }
+    return lowered;
   }
 
   @Override
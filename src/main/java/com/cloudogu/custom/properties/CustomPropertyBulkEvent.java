@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+package com.cloudogu.custom.properties;
+
+import lombok.Getter;
+import sonia.scm.event.Event;
+import sonia.scm.event.ScmEventBus;
+import sonia.scm.repository.Repository;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Posted once for multiple changes, so that they can be processed together.
+ * The changes are described by create, update and delete events and may belong to different repositories.
+ * Each change is posted as an event of its own afterward, marked as {@link BasicCustomPropertyEvent#isPartOfBulk() part of the bulk},
+ * so that subscribers handling the bulk event can ignore them, while other subscribers still get every change.
+ */
+@Getter
+@Event
+public class CustomPropertyBulkEvent {
+  private final List<BasicCustomPropertyEvent> changes;
+
+  public CustomPropertyBulkEvent(List<BasicCustomPropertyEvent> changes) {
+    this.changes = List.copyOf(changes);
+    this.changes.forEach(BasicCustomPropertyEvent::markAsPartOfBulk);
+  }
+
+  /**
+   * Returns each repository with at least one change once.
+   */
+  Collection<Repository> getChangedRepositories() {
+    Map<String, Repository> repositories = new LinkedHashMap<>();
+    changes.forEach(change -> repositories.putIfAbsent(change.getRepository().getId(), change.getRepository()));
+    return repositories.values();
+  }
+
+  /**
+   * Posts the bulk event followed by the event of each change.
+   */
+  static void post(ScmEventBus eventBus, List<BasicCustomPropertyEvent> changes) {
+    CustomPropertyBulkEvent bulkEvent = new CustomPropertyBulkEvent(changes);
+    eventBus.post(bulkEvent);
+    bulkEvent.getChanges().forEach(eventBus::post);
+  }
+}
@@ -59,6 +59,14 @@ public abstract class CustomPropertyMapper {
   @Mapping(target = "mandatory", ignore = true)
   public abstract CustomProperty map(WriteCustomPropertyDto customPropertyDto);
 
+  CustomPropertyOperation map(CustomPropertyOperationDto operationDto) {
+    return new CustomPropertyOperation(
+      operationDto.getType(),
+      operationDto.getKey(),
+      operationDto.getProperty() == null ? null : map(operationDto.getProperty())
+    );
+  }
+
   public List<CustomPropertyDto> mapToDtoCollection(Collection<CustomProperty> customProperties, Repository repository) {
     return mapToDtoCollection(customProperties, repository, MULTIPLE_CHOICE_VALUE_SEPARATOR);
   }
@@ -0,0 +1,49 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+package com.cloudogu.custom.properties;
+
+import jakarta.validation.Valid;
+import jakarta.validation.constraints.AssertTrue;
+import jakarta.validation.constraints.NotNull;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class CustomPropertyOperationDto {
+  @NotNull
+  private CustomPropertyOperation.Type type;
+  private String key;
+  @Valid
+  private WriteCustomPropertyDto property;
+
+  @AssertTrue(message = "Updates and deletions require a key, creations and updates require a property")
+  public boolean isComplete() {
+    if (type == null) {
+      return true;
+    }
+
+    return switch (type) {
+      case CREATE -> property != null;
+      case UPDATE -> key != null && property != null;
+      case DELETE -> key != null;
+    };
+  }
+}
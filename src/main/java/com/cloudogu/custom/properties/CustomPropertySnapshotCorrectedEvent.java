@@ -0,0 +1,35 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package com.cloudogu.custom.properties;
+
+import lombok.Getter;
+import sonia.scm.event.Event;
+import sonia.scm.repository.Repository;
+
+/**
+ * Posted, when the properties of a repository taken from the {@link PropertySnapshot} turned out to differ
+ * from its store, so that everything loaded from the snapshot reads the properties of the repository again.
+ */
+@Getter
+@Event
+public class CustomPropertySnapshotCorrectedEvent {
+  private final Repository repository;
+
+  public CustomPropertySnapshotCorrectedEvent(Repository repository) {
+    this.repository = repository;
+  }
+}
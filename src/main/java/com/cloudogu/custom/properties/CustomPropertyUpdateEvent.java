@@ -31,6 +31,6 @@ public class CustomPropertyUpdateEvent extends BasicCustomPropertyEvent{
   }
 
   public Optional<CustomProperty> getPreviousProperty() {
-    return Optional.of(previousProperty);
+    return Optional.ofNullable(previousProperty);
   }
 }
@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package com.cloudogu.custom.properties;
+
+import sonia.scm.util.GlobUtil;
+
+import java.util.Locale;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+/**
+ * Case-insensitive glob matcher, which is compiled once per search and afterward applied to already lowered
+ * keys and values. Literal patterns are matched by equality, patterns with a single trailing wildcard by prefix
+ * and every other pattern by the regular expression {@link GlobUtil} would create for it.
+ */
+final class GlobMatcher implements Predicate<String> {
+
+  private static final String WILDCARDS = "*?[]{}\\";
+
+  private final String loweredGlob;
+  private final String loweredPattern;
+  private final Kind kind;
+  private final Pattern regex;
+
+  private GlobMatcher(String loweredGlob, String loweredPattern, Kind kind, Pattern regex) {
+    this.loweredGlob = loweredGlob;
+    this.loweredPattern = loweredPattern;
+    this.kind = kind;
+    this.regex = regex;
+  }
+
+  static GlobMatcher compile(String pattern) {
+    String loweredPattern = pattern.toLowerCase(Locale.ENGLISH);
+    int firstWildcard = indexOfWildcard(loweredPattern);
+    if (firstWildcard < 0) {
+      return new GlobMatcher(loweredPattern, loweredPattern, Kind.LITERAL, null);
+    }
+    if (firstWildcard == loweredPattern.length() - 1 && loweredPattern.charAt(firstWildcard) == '*') {
+      return new GlobMatcher(loweredPattern, loweredPattern.substring(0, firstWildcard), Kind.PREFIX, null);
+    }
+    return new GlobMatcher(loweredPattern, loweredPattern, Kind.REGEX, Pattern.compile(GlobUtil.convertGlobToRegEx(loweredPattern)));
+  }
+
+  private static int indexOfWildcard(String pattern) {
+    for (int i = 0; i < pattern.length(); i++) {
+      if (WILDCARDS.indexOf(pattern.charAt(i)) >= 0) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Returns {@code true}, if the matcher accepts exactly one lowered string,
+   * which can be looked up directly with {@link #getLiteral()}.
+   */
+  boolean isLiteral() {
+    return kind == Kind.LITERAL;
+  }
+
+  String getLiteral() {
+    return loweredPattern;
+  }
+
+  /**
+   * Returns the complete lowered glob pattern this matcher has been compiled from.
+   */
+  String getLoweredGlob() {
+    return loweredGlob;
+  }
+
+  @Override
+  public boolean test(String lowered) {
+    return switch (kind) {
+      case LITERAL -> loweredPattern.equals(lowered);
+      case PREFIX -> lowered.startsWith(loweredPattern);
+      case REGEX -> regex.matcher(lowered).matches();
+    };
+  }
+
+  private enum Kind {
+    LITERAL, PREFIX, REGEX
+  }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+package com.cloudogu.custom.properties;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import jakarta.inject.Inject;
+import jakarta.inject.Singleton;
+import lombok.extern.slf4j.Slf4j;
+import sonia.scm.SCMContextProvider;
+import sonia.scm.repository.Repository;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+/**
+ * Persists for each repository a fingerprint of the stored custom properties, which have been committed
+ * to the search index. A repository whose current fingerprint differs has been changed afterward
+ * and might not be in sync with the index.
+ * The fingerprints are kept next to the search index and not in the stores of the repositories,
+ * so that they get lost together with the index and are not restored together with the stores from a backup.
+ * They are only valid for the version of the index they have been recorded for.
+ */
+@Slf4j
+@Singleton
+class IndexFingerprintStore {
+
+  private static final String VERSION_FILE = "version";
+
+  private final Path directory;
+  private volatile boolean currentVersion;
+
+  @Inject
+  IndexFingerprintStore(SCMContextProvider contextProvider) {
+    this(contextProvider.resolve(Path.of("index", "custom-properties-fingerprints")));
+  }
+
+  @VisibleForTesting
+  IndexFingerprintStore(Path directory) {
+    this.directory = directory;
+  }
+
+  static String fingerprint(Collection<CustomProperty> storedProperties) {
+    Hasher hasher = Hashing.sha256().newHasher();
+    storedProperties.stream()
+      .sorted(Comparator.comparing(CustomProperty::getKey))
+      .forEach(property -> hasher
+        .putString(property.getKey(), StandardCharsets.UTF_8)
+        .putByte((byte) 0)
+        .putString(property.getValue(), StandardCharsets.UTF_8)
+        .putByte((byte) 0));
+    return hasher.hash().toString();
+  }
+
+  Optional<String> get(Repository repository) {
+    if (!isCurrentVersion()) {
+      return Optional.empty();
+    }
+    try {
+      return Optional.of(Files.readString(directory.resolve(repository.getId()), StandardCharsets.UTF_8));
+    } catch (NoSuchFileException e) {
+      return Optional.empty();
+    } catch (IOException e) {
+      log.warn("Could not read index fingerprint of repository {}", repository, e);
+      return Optional.empty();
+    }
+  }
+
+  /**
+   * Records the fingerprint of the repository. This must only be called after the properties have been committed
+   * to the index. The fingerprints of an older version of the index are discarded first.
+   */
+  synchronized void set(Repository repository, String fingerprint) {
+    try {
+      if (!isCurrentVersion()) {
+        reset();
+      }
+      write(directory.resolve(repository.getId()), fingerprint);
+    } catch (IOException e) {
+      // without a fingerprint the repository is reindexed with the next start, which is safe
+      log.warn("Could not write index fingerprint of repository {}", repository, e);
+    }
+  }
+
+  /**
+   * Discards all fingerprints, because the index has been rebuilt.
+   */
+  synchronized void reset() {
+    currentVersion = false;
+    try {
+      Files.createDirectories(directory);
+      try (Stream<Path> files = Files.list(directory)) {
+        for (Path file : (Iterable<Path>) files::iterator) {
+          Files.delete(file);
+        }
+      }
+      write(directory.resolve(VERSION_FILE), Integer.toString(IndexedCustomProperty.VERSION));
+      currentVersion = true;
+    } catch (IOException e) {
+      log.warn("Could not reset index fingerprints in {}", directory, e);
+    }
+  }
+
+  private boolean isCurrentVersion() {
+    if (!currentVersion) {
+      try {
+        String version = Files.readString(directory.resolve(VERSION_FILE), StandardCharsets.UTF_8);
+        currentVersion = Integer.toString(IndexedCustomProperty.VERSION).equals(version);
+      } catch (IOException e) {
+        return false;
+      }
+    }
+    return currentVersion;
+  }
+
+  private void write(Path file, String content) throws IOException {
+    Path temporaryFile = file.resolveSibling(file.getFileName() + ".tmp");
+    Files.writeString(temporaryFile, content, StandardCharsets.UTF_8);
+    Files.move(temporaryFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+
+package com.cloudogu.custom.properties;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight recorder event for an update of the search index.
+ */
+@Name("com.cloudogu.customproperties.IndexTask")
+@Label("Index Task")
+@Category({"SCM-Manager", "Custom Properties"})
+@Description("Update of the custom properties in the search index")
+@StackTrace(false)
+class IndexTaskJfrEvent extends jdk.jfr.Event {
+
+  @Label("Task")
+  String task;
+
+  @Label("Namespace")
+  @Description("Namespace of the indexed repository, if the task indexes a single repository")
+  String namespace;
+
+  @Label("Repository Count")
+  @Description("Number of repositories written to the index")
+  int repositoryCount;
+}
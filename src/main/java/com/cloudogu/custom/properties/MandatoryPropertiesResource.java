@@ -40,11 +40,11 @@ import java.util.stream.Collectors;
 @Path(CustomPropertiesContext.MANDATORY_PROPERTIES_V2_PATH)
 public class MandatoryPropertiesResource {
 
-  private final CustomPropertiesService customPropertiesService;
+  private final MissingMandatoryPropertiesIndex missingMandatoryPropertiesIndex;
 
   @Inject
-  public MandatoryPropertiesResource(CustomPropertiesService customPropertiesService) {
-    this.customPropertiesService = customPropertiesService;
+  public MandatoryPropertiesResource(MissingMandatoryPropertiesIndex missingMandatoryPropertiesIndex) {
+    this.missingMandatoryPropertiesIndex = missingMandatoryPropertiesIndex;
   }
 
   @GET
@@ -69,7 +69,7 @@ public class MandatoryPropertiesResource {
   @Produces(MediaType.APPLICATION_JSON)
   public Map<String, Collection<String>> readMissingMandatoryProperties() {
     ConfigurationPermissions.read(CustomPropertiesContext.CONFIG_PERMISSION_NAME).check();
-    return customPropertiesService.getMissingMandatoryProperties()
+    return missingMandatoryPropertiesIndex.getMissingMandatoryProperties()
       .entrySet()
       .stream()
       .map(this::transformMissingPropertyEntry)
@@ -98,7 +98,7 @@ public class MandatoryPropertiesResource {
   @Produces(MediaType.APPLICATION_JSON)
   public Map<String, Collection<String>> readMissingMandatoryPropertiesFromNamespace(@PathParam("namespace") String namespace) {
     NamespacePermissions.custom(CustomPropertiesContext.CONFIG_PERMISSION_NAME, namespace).check();
-    return customPropertiesService.getMissingMandatoryPropertiesForNamespace(namespace)
+    return missingMandatoryPropertiesIndex.getMissingMandatoryPropertiesForNamespace(namespace)
       .entrySet()
       .stream()
       .map(this::transformMissingPropertyEntry)
@@ -0,0 +1,48 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+
+package com.cloudogu.custom.properties;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight recorder event for computing the missing mandatory properties of the repositories of a namespace.
+ */
+@Name("com.cloudogu.customproperties.MandatoryScan")
+@Label("Mandatory Property Scan")
+@Category({"SCM-Manager", "Custom Properties"})
+@Description("Scan of the repositories of a namespace for missing mandatory properties")
+@StackTrace(false)
+class MandatoryScanJfrEvent extends jdk.jfr.Event {
+
+  @Label("Namespace")
+  String namespace;
+
+  @Label("Repository Count")
+  int repositoryCount;
+
+  @Label("Mandatory Key Count")
+  int mandatoryKeyCount;
+
+  @Label("Missing Count")
+  @Description("Number of repositories missing at least one mandatory property")
+  int missingCount;
+}
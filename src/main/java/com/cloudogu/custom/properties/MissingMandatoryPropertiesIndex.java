@@ -0,0 +1,364 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package com.cloudogu.custom.properties;
+
+import com.cloudogu.custom.properties.config.ConfigChangedEvent;
+import com.cloudogu.custom.properties.config.ConfigService;
+import com.cloudogu.custom.properties.config.ValueMode;
+import com.github.legman.Subscribe;
+import io.micrometer.core.instrument.Timer;
+import jakarta.inject.Inject;
+import jakarta.inject.Singleton;
+import lombok.extern.slf4j.Slf4j;
+import sonia.scm.HandlerEventType;
+import sonia.scm.repository.Repository;
+import sonia.scm.repository.RepositoryEvent;
+import sonia.scm.repository.RepositoryImportEvent;
+import sonia.scm.repository.RepositoryManager;
+import sonia.scm.repository.RepositoryPermissions;
+import sonia.scm.web.security.AdministrationContext;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+/**
+ * Keeps track of the mandatory keys, which are not defined by the repositories of each namespace.
+ * The index is computed once from the {@link RepositoryPropertyIndex} and is afterward updated
+ * by the custom property, repository and config events.
+ */
+@Slf4j
+@Singleton
+public class MissingMandatoryPropertiesIndex {
+
+  private static final Comparator<Repository> REPOSITORY_ORDER = Comparator
+    .comparing(Repository::getNamespace)
+    .thenComparing(Repository::getName);
+
+  private final RepositoryManager repositoryManager;
+  private final ConfigService configService;
+  private final CustomPropertiesService customPropertiesService;
+  private final RepositoryPropertyIndex propertyIndex;
+  private final AdministrationContext administrationContext;
+  private final CustomPropertiesMetrics metrics;
+
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+  private final Map<String, String> namespaceByRepository = new HashMap<>();
+  private final Map<String, Set<String>> repositoriesByNamespace = new HashMap<>();
+  private final Map<String, Map<String, Set<String>>> missingKeysByNamespace = new HashMap<>();
+  private volatile boolean initialized = false;
+
+  @Inject
+  MissingMandatoryPropertiesIndex(RepositoryManager repositoryManager,
+                                  ConfigService configService,
+                                  CustomPropertiesService customPropertiesService,
+                                  RepositoryPropertyIndex propertyIndex,
+                                  AdministrationContext administrationContext,
+                                  CustomPropertiesMetrics metrics) {
+    this.repositoryManager = repositoryManager;
+    this.configService = configService;
+    this.customPropertiesService = customPropertiesService;
+    this.propertyIndex = propertyIndex;
+    this.administrationContext = administrationContext;
+    this.metrics = metrics;
+  }
+
+  Map<String, Collection<Repository>> getMissingMandatoryProperties() {
+    ensureInitialized();
+    Map<String, Set<String>> result = new HashMap<>();
+    lock.readLock().lock();
+    try {
+      missingKeysByNamespace.values().forEach(
+        missingKeys -> missingKeys.forEach(
+          (key, repositoryIds) -> result.computeIfAbsent(key, k -> new HashSet<>()).addAll(repositoryIds)
+        )
+      );
+    } finally {
+      lock.readLock().unlock();
+    }
+    return resolve(result);
+  }
+
+  Map<String, Collection<Repository>> getMissingMandatoryPropertiesForNamespace(String namespace) {
+    ensureInitialized();
+    Map<String, Set<String>> result = new HashMap<>();
+    lock.readLock().lock();
+    try {
+      missingKeysByNamespace.getOrDefault(namespace, Map.of()).forEach(
+        (key, repositoryIds) -> result.put(key, new HashSet<>(repositoryIds))
+      );
+    } finally {
+      lock.readLock().unlock();
+    }
+    return resolve(result);
+  }
+
+  Collection<String> getMissingMandatoryPropertiesForRepository(Repository repository) {
+    ensureInitialized();
+    lock.readLock().lock();
+    try {
+      return missingKeysByNamespace.getOrDefault(repository.getNamespace(), Map.of())
+        .entrySet()
+        .stream()
+        .filter(entry -> entry.getValue().contains(repository.getId()))
+        .map(Map.Entry::getKey)
+        .sorted()
+        .toList();
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  private Map<String, Collection<Repository>> resolve(Map<String, Set<String>> repositoryIdsByKey) {
+    Map<String, Collection<Repository>> result = new HashMap<>();
+    repositoryIdsByKey.forEach((key, repositoryIds) -> {
+      List<Repository> repositories = repositoryIds.stream()
+        .filter(id -> RepositoryPermissions.read(id).isPermitted())
+        .map(repositoryManager::get)
+        .filter(Objects::nonNull)
+        .sorted(REPOSITORY_ORDER)
+        .toList();
+      if (!repositories.isEmpty()) {
+        result.put(key, repositories);
+      }
+    });
+    return result;
+  }
+
+  @Subscribe(async = false)
+  public void handleEvent(CustomPropertyCreateEvent event) {
+    if (event.isPartOfBulk()) {
+      return;
+    }
+    recompute(List.of(event.getRepository()));
+  }
+
+  @Subscribe(async = false)
+  public void handleEvent(CustomPropertyUpdateEvent event) {
+    if (event.isPartOfBulk()) {
+      return;
+    }
+    recompute(List.of(event.getRepository()));
+  }
+
+  @Subscribe(async = false)
+  public void handleEvent(CustomPropertyDeleteEvent event) {
+    if (event.isPartOfBulk()) {
+      return;
+    }
+    recompute(List.of(event.getRepository()));
+  }
+
+  @Subscribe(async = false)
+  public void handleEvent(CustomPropertyBulkEvent event) {
+    recompute(event.getChangedRepositories());
+  }
+
+  @Subscribe(async = false)
+  public void handleEvent(CustomPropertySnapshotCorrectedEvent event) {
+    recompute(List.of(event.getRepository()));
+  }
+
+  @Subscribe(async = false)
+  public void handleEvent(RepositoryEvent event) {
+    Repository repository = event.getItem();
+    if (event.getEventType() == HandlerEventType.DELETE) {
+      modify(() -> removeRepository(repository.getId()));
+    } else if (event.getEventType() == HandlerEventType.CREATE || event.getEventType() == HandlerEventType.MODIFY) {
+      Set<String> mandatoryKeys = getMandatoryKeys(repository.getNamespace());
+      modify(() -> {
+        // a modified repository might have been moved to another namespace
+        if (!repository.getNamespace().equals(namespaceByRepository.get(repository.getId()))) {
+          removeRepository(repository.getId());
+          addRepository(repository.getId(), repository.getNamespace(), mandatoryKeys, key -> propertyIndex.hasProperty(repository.getId(), key));
+        }
+      });
+    }
+  }
+
+  @Subscribe(async = false)
+  public void handleEvent(RepositoryImportEvent event) {
+    if (!event.isFailed()) {
+      Repository repository = event.getItem();
+      Set<String> mandatoryKeys = getMandatoryKeys(repository.getNamespace());
+      // the property index might not have reloaded the imported properties yet, so we read them directly
+      Set<String> definedKeys = customPropertiesService.reloadStoredProperties(repository)
+        .stream()
+        .map(CustomProperty::getKey)
+        .collect(Collectors.toSet());
+      modify(() -> {
+        removeRepository(repository.getId());
+        addRepository(repository.getId(), repository.getNamespace(), mandatoryKeys, definedKeys::contains);
+      });
+    }
+  }
+
+  @Subscribe(async = false)
+  public void handleEvent(ConfigChangedEvent event) {
+    modify(() -> {
+      Timer.Sample sample = metrics.start();
+      Collection<String> namespaces = event.getNamespace()
+        .<Collection<String>>map(List::of)
+        .orElseGet(() -> new ArrayList<>(repositoriesByNamespace.keySet()));
+      namespaces.forEach(namespace -> computeNamespace(namespace, getMandatoryKeys(namespace)));
+      metrics.recordMissingMandatoryScan(
+        sample, event.getNamespace().isPresent() ? CustomPropertiesMetrics.SCOPE_NAMESPACE : CustomPropertiesMetrics.SCOPE_GLOBAL
+      );
+    });
+  }
+
+  /**
+   * Recomputes the missing keys of the changed repositories from their stored properties instead of applying
+   * the changes of the events, because the events of concurrent modifications may be delivered in another order
+   * than the stores have been modified. The properties are read while holding the write lock,
+   * so that the last event handled always sees the latest state.
+   */
+  private void recompute(Collection<Repository> repositories) {
+    modify(() -> {
+      Map<String, Set<String>> mandatoryKeysByNamespace = new HashMap<>();
+      for (Repository repository : repositories) {
+        String namespace = namespaceByRepository.get(repository.getId());
+        if (namespace != null) {
+          Set<String> definedKeys = customPropertiesService.getStoredProperties(repository)
+            .stream()
+            .map(CustomProperty::getKey)
+            .collect(Collectors.toSet());
+          removeRepository(repository.getId());
+          addRepository(
+            repository.getId(), namespace, mandatoryKeysByNamespace.computeIfAbsent(namespace, this::getMandatoryKeys), definedKeys::contains
+          );
+        }
+      }
+    });
+  }
+
+  /**
+   * Applies the modification, if the index has been initialized. The flag is checked while holding the write lock,
+   * so that a modification during the initialization waits for it and is applied to the loaded state afterward.
+   */
+  private void modify(Runnable modification) {
+    lock.writeLock().lock();
+    try {
+      if (!initialized) {
+        // the current state will be computed, once the index gets initialized
+        return;
+      }
+      modification.run();
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  private void ensureInitialized() {
+    if (initialized) {
+      return;
+    }
+
+    lock.writeLock().lock();
+    try {
+      if (!initialized) {
+        log.debug("Computing missing mandatory properties of all repositories");
+        Timer.Sample sample = metrics.start();
+        administrationContext.runAsAdmin(() -> {
+          for (Repository repository : repositoryManager.getAll()) {
+            namespaceByRepository.put(repository.getId(), repository.getNamespace());
+            repositoriesByNamespace.computeIfAbsent(repository.getNamespace(), namespace -> new HashSet<>()).add(repository.getId());
+          }
+        });
+        repositoriesByNamespace.keySet().forEach(namespace -> computeNamespace(namespace, getMandatoryKeys(namespace)));
+        metrics.recordMissingMandatoryScan(sample, CustomPropertiesMetrics.SCOPE_GLOBAL);
+        initialized = true;
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  private Set<String> getMandatoryKeys(String namespace) {
+    return configService.getAllPredefinedKeys(namespace)
+      .entrySet()
+      .stream()
+      .filter(entry -> entry.getValue().getMode() == ValueMode.MANDATORY)
+      .map(Map.Entry::getKey)
+      .collect(Collectors.toSet());
+  }
+
+  private void computeNamespace(String namespace, Set<String> mandatoryKeys) {
+    MandatoryScanJfrEvent event = new MandatoryScanJfrEvent();
+    event.begin();
+    Set<String> repositoryIds = repositoriesByNamespace.getOrDefault(namespace, Set.of());
+    Map<String, Set<String>> missingKeys = new HashMap<>();
+    for (String repositoryId : repositoryIds) {
+      for (String key : mandatoryKeys) {
+        if (!propertyIndex.hasProperty(repositoryId, key)) {
+          missingKeys.computeIfAbsent(key, k -> new HashSet<>()).add(repositoryId);
+        }
+      }
+    }
+    missingKeysByNamespace.put(namespace, missingKeys);
+    event.end();
+    if (event.shouldCommit()) {
+      event.namespace = namespace;
+      event.repositoryCount = repositoryIds.size();
+      event.mandatoryKeyCount = mandatoryKeys.size();
+      event.missingCount = (int) missingKeys.values().stream().flatMap(Set::stream).distinct().count();
+      event.commit();
+    }
+  }
+
+  private void addRepository(String repositoryId, String namespace, Set<String> mandatoryKeys, Predicate<String> isDefined) {
+    namespaceByRepository.put(repositoryId, namespace);
+    repositoriesByNamespace.computeIfAbsent(namespace, ns -> new HashSet<>()).add(repositoryId);
+    Map<String, Set<String>> missingKeys = missingKeysByNamespace.computeIfAbsent(namespace, ns -> new HashMap<>());
+    for (String key : mandatoryKeys) {
+      if (!isDefined.test(key)) {
+        missingKeys.computeIfAbsent(key, k -> new HashSet<>()).add(repositoryId);
+      }
+    }
+  }
+
+  private void removeRepository(String repositoryId) {
+    String namespace = namespaceByRepository.remove(repositoryId);
+    if (namespace == null) {
+      return;
+    }
+
+    Set<String> repositoryIds = repositoriesByNamespace.get(namespace);
+    repositoryIds.remove(repositoryId);
+    if (repositoryIds.isEmpty()) {
+      repositoriesByNamespace.remove(namespace);
+      missingKeysByNamespace.remove(namespace);
+      return;
+    }
+
+    Map<String, Set<String>> missingKeys = missingKeysByNamespace.get(namespace);
+    if (missingKeys != null) {
+      missingKeys.values().forEach(missingRepositoryIds -> missingRepositoryIds.remove(repositoryId));
+      missingKeys.values().removeIf(Set::isEmpty);
+    }
+  }
+}
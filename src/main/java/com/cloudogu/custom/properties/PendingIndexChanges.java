@@ -0,0 +1,50 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package com.cloudogu.custom.properties;
+
+import com.google.common.collect.ConcurrentHashMultiset;
+import com.google.common.collect.Multiset;
+import jakarta.inject.Singleton;
+
+import java.util.Collection;
+import java.util.Set;
+
+/**
+ * Tracks the repositories with changes, which have been collected by the {@link CustomPropertiesIndexer} but have
+ * not been written to the search index yet. A repository is counted once for each batch of changes containing it,
+ * so that it is only released once its last batch has been written.
+ */
+@Singleton
+class PendingIndexChanges {
+
+  private final Multiset<String> repositoryIds = ConcurrentHashMultiset.create();
+
+  void add(String repositoryId) {
+    repositoryIds.add(repositoryId);
+  }
+
+  void remove(Collection<String> writtenRepositoryIds) {
+    writtenRepositoryIds.forEach(repositoryIds::remove);
+  }
+
+  /**
+   * Returns a copy of the ids of all repositories, whose changes may be missing in the search index.
+   */
+  Set<String> getRepositoryIds() {
+    return Set.copyOf(repositoryIds.elementSet());
+  }
+}
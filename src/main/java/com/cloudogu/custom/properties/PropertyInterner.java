@@ -0,0 +1,45 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+
+package com.cloudogu.custom.properties;
+
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+
+/**
+ * Shares the instances of property keys and values, which are repeated across many repositories, between the
+ * cached and indexed properties. Equal keys and values are then mostly the same instance, so that their equality
+ * is an identity check and their hash codes are computed once. The interned strings are weakly referenced,
+ * so that keys and values no longer in use are collected.
+ */
+final class PropertyInterner {
+
+  private static final Interner<String> STRINGS = Interners.newWeakInterner();
+
+  private PropertyInterner() {
+  }
+
+  static String intern(String string) {
+    return string == null ? null : STRINGS.intern(string);
+  }
+
+  static CustomProperty intern(CustomProperty property) {
+    return new CustomProperty(
+      intern(property.getKey()), intern(property.getValue()), property.isDefaultProperty(), property.isMandatory()
+    );
+  }
+}
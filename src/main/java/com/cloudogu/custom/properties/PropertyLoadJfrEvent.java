@@ -0,0 +1,44 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+
+package com.cloudogu.custom.properties;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight recorder event for loading the stored custom properties of a single repository.
+ */
+@Name("com.cloudogu.customproperties.PropertyLoad")
+@Label("Property Load")
+@Category({"SCM-Manager", "Custom Properties"})
+@Description("Loading the stored custom properties of a repository")
+@StackTrace(false)
+class PropertyLoadJfrEvent extends jdk.jfr.Event {
+
+  @Label("Repository")
+  String repositoryId;
+
+  @Label("Namespace")
+  String namespace;
+
+  @Label("Property Count")
+  int propertyCount;
+}
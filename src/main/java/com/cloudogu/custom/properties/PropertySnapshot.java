@@ -0,0 +1,385 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+
+package com.cloudogu.custom.properties;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import jakarta.inject.Inject;
+import jakarta.inject.Singleton;
+import jakarta.servlet.ServletContextEvent;
+import jakarta.servlet.ServletContextListener;
+import lombok.extern.slf4j.Slf4j;
+import sonia.scm.SCMContextProvider;
+import sonia.scm.plugin.Extension;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Consolidated snapshot of the stored custom properties of all repositories in a single file, so that they can be
+ * loaded with one sequential read of a memory-mapped file instead of opening the store of every repository.
+ * The stores stay the source of truth: the file is an append-only log of the properties written to the stores,
+ * which gets compacted once it has grown to twice its size after the last compaction.
+ * <p>
+ * An existing file is only continued, if it has been closed cleanly. Otherwise a store might have been
+ * written without the log, so the file is discarded and the properties are read from the stores again.
+ * Even a cleanly closed file is only used for a fast start, because the stores might have been changed
+ * while the server was down, so the {@link CustomPropertiesService} verifies it against the stores in the background.
+ * <p>
+ * Records are appended by a single writer thread, so that modifications of the stores do not wait for the file.
+ */
+@Slf4j
+@Singleton
+@Extension
+public class PropertySnapshot implements ServletContextListener {
+
+  static final String ENABLED_PROPERTY = "scm.customProperties.snapshot.enabled";
+
+  private static final int MAGIC = 0x43505331;
+  private static final byte VERSION = 1;
+  private static final int STATE_OFFSET = 5;
+  private static final int HEADER_SIZE = 6;
+  private static final byte STATE_CLOSED = 0;
+  private static final byte STATE_OPEN = 1;
+  private static final byte RECORD_PROPERTIES = 1;
+  private static final byte RECORD_REMOVAL = 2;
+  private static final long MIN_COMPACTION_SIZE = 1024 * 1024;
+
+  private final Path file;
+  private final Executor writer;
+  // encoded records, which have not been appended by the writer yet
+  private final Queue<byte[]> pendingRecords = new ConcurrentLinkedQueue<>();
+  private final AtomicBoolean writeScheduled = new AtomicBoolean();
+
+  private boolean checked = false;
+  private volatile boolean failed = false;
+  private boolean open = false;
+  private long compactedSize = HEADER_SIZE;
+
+  @Inject
+  PropertySnapshot(SCMContextProvider contextProvider) {
+    this(
+      Boolean.parseBoolean(System.getProperty(ENABLED_PROPERTY, "true"))
+        ? contextProvider.resolve(Path.of("var", "custom-properties", "properties.snapshot"))
+        : null,
+      Executors.newSingleThreadExecutor(
+        new ThreadFactoryBuilder().setNameFormat("CustomPropertiesSnapshot-%d").setDaemon(true).build()
+      )
+    );
+  }
+
+  /**
+   * Creates a snapshot, which appends the records within the calling thread.
+   */
+  @VisibleForTesting
+  PropertySnapshot(Path file) {
+    this(file, Runnable::run);
+  }
+
+  @VisibleForTesting
+  PropertySnapshot(Path file, Executor writer) {
+    this.file = file;
+    this.writer = writer;
+  }
+
+  static PropertySnapshot disabled() {
+    return new PropertySnapshot((Path) null);
+  }
+
+  /**
+   * Returns the last written properties by repository id.
+   * The properties of repositories without a record have to be read from their stores.
+   */
+  synchronized Map<String, List<CustomProperty>> read() {
+    if (!check()) {
+      return Map.of();
+    }
+
+    writePendingRecords();
+    if (failed) {
+      return Map.of();
+    }
+    try {
+      return readRecords();
+    } catch (IOException | RuntimeException e) {
+      log.warn("Discarding unreadable custom properties snapshot {}", file, e);
+      reset();
+      return Map.of();
+    }
+  }
+
+  void put(String repositoryId, Collection<CustomProperty> properties) {
+    enqueue(encode(RECORD_PROPERTIES, repositoryId, properties));
+  }
+
+  /**
+   * Removes the record of the repository, so that its properties are read from the store again.
+   */
+  void remove(String repositoryId) {
+    enqueue(encode(RECORD_REMOVAL, repositoryId, List.of()));
+  }
+
+  /**
+   * Appends the pending records and marks the file as closed cleanly, so that it can be used after a restart.
+   */
+  synchronized void close() {
+    writePendingRecords();
+    if (open && !failed) {
+      try {
+        writeState(STATE_CLOSED);
+        open = false;
+      } catch (IOException e) {
+        log.warn("Could not close custom properties snapshot {}", file, e);
+      }
+    }
+  }
+
+  @Override
+  public void contextInitialized(ServletContextEvent event) {
+    // the file is checked lazily with its first access
+  }
+
+  @Override
+  public void contextDestroyed(ServletContextEvent event) {
+    close();
+  }
+
+  private boolean check() {
+    if (file == null || failed) {
+      return false;
+    }
+    if (!checked) {
+      checked = true;
+      if (isClosedCleanly()) {
+        try {
+          compactedSize = Files.size(file);
+        } catch (IOException e) {
+          fail(e);
+        }
+      } else {
+        reset();
+      }
+    }
+    return !failed;
+  }
+
+  private boolean isClosedCleanly() {
+    if (!Files.exists(file)) {
+      return false;
+    }
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+      while (header.hasRemaining() && channel.read(header) >= 0) {
+        // read until the header is complete or the file ends
+      }
+      header.flip();
+      if (header.remaining() < HEADER_SIZE || header.getInt() != MAGIC || header.get() != VERSION) {
+        log.warn("Discarding custom properties snapshot {} with unknown format", file);
+        return false;
+      }
+      if (header.get() != STATE_CLOSED) {
+        log.info("Discarding custom properties snapshot {}, because it has not been closed cleanly", file);
+        return false;
+      }
+      return true;
+    } catch (IOException e) {
+      log.warn("Could not read header of custom properties snapshot {}", file, e);
+      return false;
+    }
+  }
+
+  private void reset() {
+    try {
+      Files.createDirectories(file.getParent());
+      Files.write(file, header(STATE_CLOSED));
+      open = false;
+      compactedSize = HEADER_SIZE;
+    } catch (IOException e) {
+      fail(e);
+    }
+  }
+
+  private void enqueue(byte[] record) {
+    if (file == null || failed) {
+      return;
+    }
+    pendingRecords.add(record);
+    if (writeScheduled.compareAndSet(false, true)) {
+      writer.execute(this::writeScheduledRecords);
+    }
+  }
+
+  private synchronized void writeScheduledRecords() {
+    // reset before the queue is drained, so that records added afterward schedule another write
+    writeScheduled.set(false);
+    writePendingRecords();
+  }
+
+  /**
+   * Appends all pending records with a single write.
+   */
+  private void writePendingRecords() {
+    if (pendingRecords.isEmpty()) {
+      return;
+    }
+    ByteArrayOutputStream records = new ByteArrayOutputStream();
+    for (byte[] record = pendingRecords.poll(); record != null; record = pendingRecords.poll()) {
+      records.writeBytes(record);
+    }
+    append(records.toByteArray());
+  }
+
+  private void append(byte[] record) {
+    if (!check()) {
+      return;
+    }
+
+    try {
+      if (!open) {
+        writeState(STATE_OPEN);
+        open = true;
+      }
+      long size;
+      try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+        ByteBuffer buffer = ByteBuffer.wrap(record);
+        while (buffer.hasRemaining()) {
+          channel.write(buffer);
+        }
+        size = channel.size();
+      }
+      if (size > Math.max(MIN_COMPACTION_SIZE, 2 * compactedSize)) {
+        compact();
+      }
+    } catch (IOException | RuntimeException e) {
+      fail(e);
+    }
+  }
+
+  private void compact() throws IOException {
+    Map<String, List<CustomProperty>> properties = readRecords();
+    Path compacted = file.resolveSibling(file.getFileName() + ".tmp");
+    try (OutputStream output = new BufferedOutputStream(Files.newOutputStream(compacted))) {
+      output.write(header(open ? STATE_OPEN : STATE_CLOSED));
+      for (Map.Entry<String, List<CustomProperty>> entry : properties.entrySet()) {
+        output.write(encode(RECORD_PROPERTIES, entry.getKey(), entry.getValue()));
+      }
+    }
+    Files.move(compacted, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    compactedSize = Files.size(file);
+    log.debug("Compacted custom properties snapshot {} to {} repositories with {} bytes", file, properties.size(), compactedSize);
+  }
+
+  private Map<String, List<CustomProperty>> readRecords() throws IOException {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      buffer.position(HEADER_SIZE);
+      Map<String, List<CustomProperty>> properties = new HashMap<>();
+      while (buffer.hasRemaining()) {
+        byte type = buffer.get();
+        String repositoryId = readString(buffer);
+        if (type == RECORD_PROPERTIES) {
+          int count = buffer.getInt();
+          List<CustomProperty> repositoryProperties = new ArrayList<>(count);
+          for (int i = 0; i < count; i++) {
+            repositoryProperties.add(new CustomProperty(PropertyInterner.intern(readString(buffer)), PropertyInterner.intern(readString(buffer))));
+          }
+          properties.put(repositoryId, List.copyOf(repositoryProperties));
+        } else if (type == RECORD_REMOVAL) {
+          properties.remove(repositoryId);
+        } else {
+          throw new IOException("unknown record type " + type);
+        }
+      }
+      return properties;
+    }
+  }
+
+  private void writeState(byte state) throws IOException {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+      // the records have to be persisted, before the file is marked as closed
+      channel.force(false);
+      channel.write(ByteBuffer.wrap(new byte[]{state}), STATE_OFFSET);
+      channel.force(false);
+    }
+  }
+
+  private void fail(Exception e) {
+    log.warn("Disabling custom properties snapshot {}, the properties will be read from the stores", file, e);
+    failed = true;
+    try {
+      Files.deleteIfExists(file);
+    } catch (IOException deleteException) {
+      log.warn("Could not delete custom properties snapshot {}", file, deleteException);
+    }
+  }
+
+  private static byte[] header(byte state) {
+    return ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).put(VERSION).put(state).array();
+  }
+
+  private static byte[] encode(byte type, String repositoryId, Collection<CustomProperty> properties) {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (DataOutputStream output = new DataOutputStream(bytes)) {
+      output.writeByte(type);
+      writeString(output, repositoryId);
+      if (type == RECORD_PROPERTIES) {
+        output.writeInt(properties.size());
+        for (CustomProperty property : properties) {
+          writeString(output, property.getKey());
+          writeString(output, property.getValue());
+        }
+      }
+    } catch (IOException e) {
+      throw new IllegalStateException("could not encode custom properties of repository " + repositoryId, e);
+    }
+    return bytes.toByteArray();
+  }
+
+  private static void writeString(DataOutputStream output, String value) throws IOException {
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    output.writeInt(bytes.length);
+    output.write(bytes);
+  }
+
+  private static String readString(ByteBuffer buffer) {
+    byte[] bytes = new byte[buffer.getInt()];
+    buffer.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,351 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+
+package com.cloudogu.custom.properties;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.Predicate;
+
+import static com.cloudogu.custom.properties.CustomPropertiesContext.MULTIPLE_CHOICE_VALUE_SEPARATOR;
+
+/**
+ * Immutable columnar table of the stored properties of many repositories, which is kept outside the heap in a
+ * memory-mapped temporary file. Keys and values are stored once in dictionaries and every property is a row of
+ * dictionary ids, so that a search evaluates its matchers once per distinct key and value and afterward only
+ * compares integers, without creating an object per property.
+ * <p>
+ * Only the repository ids and the distinct keys are additionally held on the heap for the lookups by id.
+ */
+final class PropertyTable {
+
+  private static final int HEADER_INTS = 4;
+
+  private final ByteBuffer buffer;
+  private final int repositoryCount;
+  private final int keyCount;
+  private final int valueCount;
+  private final int rowCount;
+  private final int rowStartsOffset;
+  private final int rowKeysOffset;
+  private final int rowValuesOffset;
+  private final int keyRowCountsOffset;
+  private final int valueRowCountsOffset;
+  private final StringColumn repositoryIds;
+  private final StringColumn keys;
+  private final StringColumn loweredKeys;
+  private final StringColumn values;
+  private final StringColumn loweredValues;
+  private final Map<String, Integer> ordinalByRepositoryId;
+  private final Map<String, Integer> keyIdByKey;
+
+  private PropertyTable(ByteBuffer buffer) {
+    this.buffer = buffer;
+    this.repositoryCount = buffer.getInt(0);
+    this.keyCount = buffer.getInt(Integer.BYTES);
+    this.valueCount = buffer.getInt(2 * Integer.BYTES);
+    this.rowCount = buffer.getInt(3 * Integer.BYTES);
+    this.rowStartsOffset = HEADER_INTS * Integer.BYTES;
+    this.rowKeysOffset = rowStartsOffset + (repositoryCount + 1) * Integer.BYTES;
+    this.rowValuesOffset = rowKeysOffset + rowCount * Integer.BYTES;
+    this.keyRowCountsOffset = rowValuesOffset + rowCount * Integer.BYTES;
+    this.valueRowCountsOffset = keyRowCountsOffset + keyCount * Integer.BYTES;
+    this.repositoryIds = new StringColumn(valueRowCountsOffset + valueCount * Integer.BYTES, repositoryCount);
+    this.keys = new StringColumn(repositoryIds.end(), keyCount);
+    this.loweredKeys = new StringColumn(keys.end(), keyCount);
+    this.values = new StringColumn(loweredKeys.end(), valueCount);
+    this.loweredValues = new StringColumn(values.end(), valueCount);
+
+    this.ordinalByRepositoryId = new HashMap<>(repositoryCount * 4 / 3 + 1);
+    for (int ordinal = 0; ordinal < repositoryCount; ordinal++) {
+      ordinalByRepositoryId.put(repositoryIds.get(ordinal), ordinal);
+    }
+    this.keyIdByKey = new HashMap<>(keyCount * 4 / 3 + 1);
+    for (int keyId = 0; keyId < keyCount; keyId++) {
+      keyIdByKey.put(keys.get(keyId), keyId);
+    }
+  }
+
+  /**
+   * Writes the properties to a new table. Repositories without properties are omitted.
+   */
+  static PropertyTable build(Map<String, ? extends Collection<CustomProperty>> propertiesByRepository) throws IOException {
+    List<String> repositoryIds = new ArrayList<>();
+    Map<String, Integer> keyIds = new LinkedHashMap<>();
+    Map<String, Integer> valueIds = new LinkedHashMap<>();
+    int rowCount = propertiesByRepository.values().stream().mapToInt(Collection::size).sum();
+    int[] rowStarts = new int[propertiesByRepository.size() + 1];
+    int[] rowKeys = new int[rowCount];
+    int[] rowValues = new int[rowCount];
+
+    int row = 0;
+    for (Map.Entry<String, ? extends Collection<CustomProperty>> entry : propertiesByRepository.entrySet()) {
+      if (entry.getValue().isEmpty()) {
+        continue;
+      }
+      rowStarts[repositoryIds.size()] = row;
+      repositoryIds.add(entry.getKey());
+      for (CustomProperty property : entry.getValue()) {
+        rowKeys[row] = keyIds.computeIfAbsent(property.getKey(), key -> keyIds.size());
+        rowValues[row] = valueIds.computeIfAbsent(property.getValue(), value -> valueIds.size());
+        row++;
+      }
+    }
+    rowStarts[repositoryIds.size()] = row;
+
+    int[] keyRowCounts = new int[keyIds.size()];
+    int[] valueRowCounts = new int[valueIds.size()];
+    for (int i = 0; i < rowCount; i++) {
+      keyRowCounts[rowKeys[i]]++;
+      valueRowCounts[rowValues[i]]++;
+    }
+
+    List<String> keys = List.copyOf(keyIds.keySet());
+    List<String> values = List.copyOf(valueIds.keySet());
+    List<List<byte[]>> stringColumns = List.of(
+      encode(repositoryIds, false), encode(keys, false), encode(keys, true), encode(values, false), encode(values, true)
+    );
+
+    long size = (long) Integer.BYTES * (HEADER_INTS + repositoryIds.size() + 1 + 2L * rowCount + keys.size() + values.size());
+    for (List<byte[]> column : stringColumns) {
+      size += (long) Integer.BYTES * (column.size() + 1) + column.stream().mapToLong(bytes -> bytes.length).sum();
+    }
+    if (size > Integer.MAX_VALUE) {
+      throw new IOException("custom properties exceed the maximum table size with " + size + " bytes");
+    }
+
+    ByteBuffer buffer = map(size);
+    buffer.putInt(repositoryIds.size()).putInt(keys.size()).putInt(values.size()).putInt(rowCount);
+    buffer.asIntBuffer().put(rowStarts, 0, repositoryIds.size() + 1);
+    buffer.position(buffer.position() + (repositoryIds.size() + 1) * Integer.BYTES);
+    for (int[] column : List.of(rowKeys, rowValues, keyRowCounts, valueRowCounts)) {
+      buffer.asIntBuffer().put(column);
+      buffer.position(buffer.position() + column.length * Integer.BYTES);
+    }
+    for (List<byte[]> column : stringColumns) {
+      int offset = 0;
+      for (byte[] bytes : column) {
+        buffer.putInt(offset);
+        offset += bytes.length;
+      }
+      buffer.putInt(offset);
+      column.forEach(buffer::put);
+    }
+    return new PropertyTable(buffer.clear().asReadOnlyBuffer());
+  }
+
+  private static ByteBuffer map(long size) throws IOException {
+    Path file = Files.createTempFile("scm-custom-properties-", ".table");
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+    } finally {
+      // the mapping stays valid after the file has been removed, on systems not allowing this it is removed on exit
+      try {
+        Files.delete(file);
+      } catch (IOException e) {
+        file.toFile().deleteOnExit();
+      }
+    }
+  }
+
+  private static List<byte[]> encode(List<String> strings, boolean lowered) {
+    return strings.stream()
+      .map(string -> (lowered ? string.toLowerCase(Locale.ENGLISH) : string).getBytes(StandardCharsets.UTF_8))
+      .toList();
+  }
+
+  int getRepositoryCount() {
+    return repositoryCount;
+  }
+
+  /**
+   * Returns the ids of all repositories except the excluded ones with a property, whose lowered key matches
+   * the key matcher and whose lowered values match every value matcher.
+   */
+  Set<String> findRepositoryIds(Predicate<String> keyMatcher, Collection<Predicate<String>> valueMatchers, Set<String> excludedRepositoryIds) {
+    BitSet matchingKeys = matchKeys(keyMatcher);
+    if (matchingKeys.isEmpty()) {
+      return Set.of();
+    }
+    List<BitSet> matchingValues = valueMatchers.stream().map(this::matchValues).toList();
+    if (matchingValues.stream().anyMatch(BitSet::isEmpty)) {
+      return Set.of();
+    }
+
+    Set<String> repositoryIds = new HashSet<>();
+    for (int ordinal = 0; ordinal < repositoryCount; ordinal++) {
+      if (matchesAnyRow(ordinal, matchingKeys, matchingValues)) {
+        String repositoryId = this.repositoryIds.get(ordinal);
+        if (!excludedRepositoryIds.contains(repositoryId)) {
+          repositoryIds.add(repositoryId);
+        }
+      }
+    }
+    return repositoryIds;
+  }
+
+  /**
+   * Estimates the number of repositories {@link #findRepositoryIds} would return from the row counts of the
+   * matching keys and values. The estimate is an upper bound, because the values are counted for all keys.
+   */
+  int estimateRepositoryCount(Predicate<String> keyMatcher, Collection<Predicate<String>> valueMatchers) {
+    int estimate = countRows(matchKeys(keyMatcher), keyRowCountsOffset);
+    for (Predicate<String> valueMatcher : valueMatchers) {
+      estimate = Math.min(estimate, countRows(matchValues(valueMatcher), valueRowCountsOffset));
+    }
+    return estimate;
+  }
+
+  List<CustomProperty> getProperties(String repositoryId) {
+    Integer ordinal = ordinalByRepositoryId.get(repositoryId);
+    if (ordinal == null) {
+      return List.of();
+    }
+    int end = rowStart(ordinal + 1);
+    List<CustomProperty> properties = new ArrayList<>(end - rowStart(ordinal));
+    for (int row = rowStart(ordinal); row < end; row++) {
+      properties.add(new CustomProperty(keys.get(rowKey(row)), values.get(rowValue(row))));
+    }
+    return properties;
+  }
+
+  boolean hasProperty(String repositoryId, String key) {
+    Integer ordinal = ordinalByRepositoryId.get(repositoryId);
+    Integer keyId = keyIdByKey.get(key);
+    if (ordinal == null || keyId == null) {
+      return false;
+    }
+    int end = rowStart(ordinal + 1);
+    for (int row = rowStart(ordinal); row < end; row++) {
+      if (rowKey(row) == keyId) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  void forEachRepository(BiConsumer<String, List<CustomProperty>> consumer) {
+    for (int ordinal = 0; ordinal < repositoryCount; ordinal++) {
+      String repositoryId = repositoryIds.get(ordinal);
+      consumer.accept(repositoryId, getProperties(repositoryId));
+    }
+  }
+
+  private BitSet matchKeys(Predicate<String> keyMatcher) {
+    BitSet matching = new BitSet(keyCount);
+    for (int keyId = 0; keyId < keyCount; keyId++) {
+      if (keyMatcher.test(loweredKeys.get(keyId))) {
+        matching.set(keyId);
+      }
+    }
+    return matching;
+  }
+
+  private BitSet matchValues(Predicate<String> valueMatcher) {
+    BitSet matching = new BitSet(valueCount);
+    for (int valueId = 0; valueId < valueCount; valueId++) {
+      for (String loweredValue : loweredValues.get(valueId).split(MULTIPLE_CHOICE_VALUE_SEPARATOR)) {
+        if (valueMatcher.test(loweredValue)) {
+          matching.set(valueId);
+          break;
+        }
+      }
+    }
+    return matching;
+  }
+
+  private boolean matchesAnyRow(int ordinal, BitSet matchingKeys, List<BitSet> matchingValues) {
+    int end = rowStart(ordinal + 1);
+    for (int row = rowStart(ordinal); row < end; row++) {
+      if (matchingKeys.get(rowKey(row)) && matchesAll(matchingValues, rowValue(row))) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static boolean matchesAll(List<BitSet> matchingValues, int valueId) {
+    for (BitSet matching : matchingValues) {
+      if (!matching.get(valueId)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private int countRows(BitSet ids, int rowCountsOffset) {
+    int count = 0;
+    for (int id = ids.nextSetBit(0); id >= 0; id = ids.nextSetBit(id + 1)) {
+      count += buffer.getInt(rowCountsOffset + id * Integer.BYTES);
+    }
+    return count;
+  }
+
+  private int rowStart(int ordinal) {
+    return buffer.getInt(rowStartsOffset + ordinal * Integer.BYTES);
+  }
+
+  private int rowKey(int row) {
+    return buffer.getInt(rowKeysOffset + row * Integer.BYTES);
+  }
+
+  private int rowValue(int row) {
+    return buffer.getInt(rowValuesOffset + row * Integer.BYTES);
+  }
+
+  /**
+   * Strings of a column as offsets relative to the start of their UTF-8 encoded bytes, followed by the bytes.
+   */
+  private final class StringColumn {
+    private final int offsetsOffset;
+    private final int bytesOffset;
+    private final int count;
+
+    private StringColumn(int offsetsOffset, int count) {
+      this.offsetsOffset = offsetsOffset;
+      this.bytesOffset = offsetsOffset + (count + 1) * Integer.BYTES;
+      this.count = count;
+    }
+
+    String get(int id) {
+      int start = buffer.getInt(offsetsOffset + id * Integer.BYTES);
+      byte[] bytes = new byte[buffer.getInt(offsetsOffset + (id + 1) * Integer.BYTES) - start];
+      buffer.get(bytesOffset + start, bytes);
+      return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    int end() {
+      return bytesOffset + buffer.getInt(offsetsOffset + count * Integer.BYTES);
+    }
+  }
+}
@@ -21,6 +21,7 @@ import com.google.common.annotations.VisibleForTesting;
 import de.otto.edison.hal.HalRepresentation;
 import de.otto.edison.hal.Link;
 import de.otto.edison.hal.Links;
+import io.micrometer.core.instrument.Timer;
 import jakarta.inject.Inject;
 import jakarta.inject.Provider;
 import lombok.AllArgsConstructor;
@@ -43,18 +44,27 @@ public class RepositoryEnricher implements HalEnricher {
 
   private final Provider<ScmPathInfoStore> pathInfoStore;
   private final CustomPropertiesService customPropertiesService;
+  private final RepositoryPropertyIndex propertyIndex;
+  private final MissingMandatoryPropertiesIndex missingMandatoryPropertiesIndex;
   private final ConfigService configService;
   private final CustomPropertyMapper customPropertyMapper;
+  private final CustomPropertiesMetrics metrics;
 
   @Inject
   public RepositoryEnricher(Provider<ScmPathInfoStore> pathInfoStore,
                             CustomPropertiesService customPropertiesService,
+                            RepositoryPropertyIndex propertyIndex,
+                            MissingMandatoryPropertiesIndex missingMandatoryPropertiesIndex,
                             ConfigService configService,
-                            CustomPropertyMapper customPropertyMapper) {
+                            CustomPropertyMapper customPropertyMapper,
+                            CustomPropertiesMetrics metrics) {
     this.pathInfoStore = pathInfoStore;
     this.customPropertiesService = customPropertiesService;
+    this.propertyIndex = propertyIndex;
+    this.missingMandatoryPropertiesIndex = missingMandatoryPropertiesIndex;
     this.configService = configService;
     this.customPropertyMapper = customPropertyMapper;
+    this.metrics = metrics;
   }
 
   @Override
@@ -68,7 +78,18 @@ public class RepositoryEnricher implements HalEnricher {
       return;
     }
 
-    Collection<CustomProperty> properties = customPropertiesService.get(repository);
+    Timer.Sample sample = metrics.start();
+    try {
+      enrich(repository, appender);
+    } finally {
+      metrics.recordEnrichment(sample);
+    }
+  }
+
+  private void enrich(Repository repository, HalAppender appender) {
+    // repository lists enrich many repositories at once, so we read the stored properties from the index
+    // instead of opening the store of every single repository
+    Collection<CustomProperty> properties = customPropertiesService.get(repository, propertyIndex.getProperties(repository.getId()));
     CustomPropertyCollection collection = new CustomPropertyCollection(
       customPropertyMapper.mapToDtoCollection(properties, repository),
       createCollectionLinks(new LinkBuilder(pathInfoStore.get().get(), CustomPropertiesResource.class), repository)
@@ -78,7 +99,7 @@ public class RepositoryEnricher implements HalEnricher {
     appender.appendLink("predefinedCustomPropertyKeys", createPredefinedKeysLink(repository));
 
     MissingMandatoryPropertyCollection missingProperties = new MissingMandatoryPropertyCollection(
-      customPropertiesService.getMissingMandatoryPropertiesForRepository(repository)
+      missingMandatoryPropertiesIndex.getMissingMandatoryPropertiesForRepository(repository)
     );
     appender.appendEmbedded("missingMandatoryProperties", missingProperties);
   }
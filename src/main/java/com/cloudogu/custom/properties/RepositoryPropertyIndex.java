@@ -0,0 +1,570 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package com.cloudogu.custom.properties;
+
+import com.github.legman.Subscribe;
+import com.google.common.annotations.VisibleForTesting;
+import jakarta.inject.Inject;
+import jakarta.inject.Singleton;
+import lombok.extern.slf4j.Slf4j;
+import sonia.scm.HandlerEventType;
+import sonia.scm.repository.Repository;
+import sonia.scm.repository.RepositoryEvent;
+import sonia.scm.repository.RepositoryImportEvent;
+import sonia.scm.repository.RepositoryManager;
+import sonia.scm.web.security.AdministrationContext;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
+
+import static com.cloudogu.custom.properties.CustomPropertiesContext.MULTIPLE_CHOICE_VALUE_SEPARATOR;
+
+/**
+ * Resident index of all stored custom properties, which maps each key and each of its (multiple choice) values
+ * to the repositories defining them. The index is loaded once from the {@link PropertySnapshot} or the stores and
+ * is afterward kept up to date by the custom property and repository events, which reload the properties of
+ * the changed repositories.
+ * Default properties are not part of the index, because they are derived from the predefined keys.
+ * <p>
+ * Every repository with properties is mapped to a dense ordinal, so that the postings are bitmaps and
+ * the combination of keys and values are bitmap operations. Ordinals of repositories without any properties
+ * are reused.
+ * <p>
+ * With the system property {@value #PROPERTY_TABLE_PROPERTY} the properties are loaded into an off-heap
+ * {@link PropertyTable} instead. The resident maps then only hold the repositories changed since the table has
+ * been built, which hide their rows in the table, until so many have changed that the table is rebuilt.
+ */
+@Slf4j
+@Singleton
+public class RepositoryPropertyIndex {
+
+  static final String PROPERTY_TABLE_PROPERTY = "scm.customProperties.propertyTable";
+  private static final int MIN_CHANGES_FOR_TABLE_REBUILD = 1000;
+
+  private final RepositoryManager repositoryManager;
+  private final CustomPropertiesService customPropertiesService;
+  private final AdministrationContext administrationContext;
+
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+  private final Map<String, RepositoryProperties> propertiesByRepository = new HashMap<>();
+  private final Map<String, KeyPostings> postingsByKey = new HashMap<>();
+  private final Map<String, Integer> ordinalByRepositoryId = new HashMap<>();
+  private final List<String> repositoryIdByOrdinal = new ArrayList<>();
+  private final BitSet freeOrdinals = new BitSet();
+  private final boolean propertyTableEnabled;
+  private volatile boolean initialized = false;
+
+  // only in use with the property table, the changed repositories are held by the maps above
+  private PropertyTable table;
+  private final Set<String> changedRepositoryIds = new HashSet<>();
+
+  @Inject
+  RepositoryPropertyIndex(RepositoryManager repositoryManager,
+                          CustomPropertiesService customPropertiesService,
+                          AdministrationContext administrationContext) {
+    this(repositoryManager, customPropertiesService, administrationContext, Boolean.getBoolean(PROPERTY_TABLE_PROPERTY));
+  }
+
+  @VisibleForTesting
+  RepositoryPropertyIndex(RepositoryManager repositoryManager,
+                          CustomPropertiesService customPropertiesService,
+                          AdministrationContext administrationContext,
+                          boolean propertyTableEnabled) {
+    this.repositoryManager = repositoryManager;
+    this.customPropertiesService = customPropertiesService;
+    this.administrationContext = administrationContext;
+    this.propertyTableEnabled = propertyTableEnabled;
+  }
+
+  /**
+   * Returns the ids of all repositories with at least one property, whose lowered key matches the key matcher
+   * and whose lowered values match every value matcher.
+   * Each value matcher has to match at least one of the values of a multiple choice property.
+   */
+  Set<String> findRepositoryIds(Predicate<String> keyMatcher, Collection<Predicate<String>> valueMatchers) {
+    ensureInitialized();
+    lock.readLock().lock();
+    try {
+      BitSet result = new BitSet();
+      for (KeyPostings postings : postingsByKey.values()) {
+        if (keyMatcher.test(postings.loweredKey)) {
+          result.or(postings.findRepositories(valueMatchers));
+        }
+      }
+      Set<String> repositoryIds = toRepositoryIds(result);
+      if (table != null) {
+        repositoryIds.addAll(table.findRepositoryIds(keyMatcher, valueMatchers, changedRepositoryIds));
+      }
+      return repositoryIds;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Estimates the number of repositories {@link #findRepositoryIds} would return from the sizes of the postings,
+   * without collecting them. The estimate is an upper bound, because a repository matching several keys
+   * or several values of a multiple choice property is counted repeatedly.
+   */
+  int estimateRepositoryCount(Predicate<String> keyMatcher, Collection<Predicate<String>> valueMatchers) {
+    ensureInitialized();
+    lock.readLock().lock();
+    try {
+      int estimate = 0;
+      for (KeyPostings postings : postingsByKey.values()) {
+        if (keyMatcher.test(postings.loweredKey)) {
+          estimate += postings.estimateRepositoryCount(valueMatchers);
+        }
+      }
+      if (table != null) {
+        estimate += table.estimateRepositoryCount(keyMatcher, valueMatchers);
+      }
+      return estimate;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  Collection<CustomProperty> getProperties(String repositoryId) {
+    ensureInitialized();
+    lock.readLock().lock();
+    try {
+      if (isInTable(repositoryId)) {
+        return table.getProperties(repositoryId);
+      }
+      RepositoryProperties properties = propertiesByRepository.get(repositoryId);
+      return properties == null ? List.of() : properties.toCustomProperties();
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  boolean hasProperty(String repositoryId, String key) {
+    ensureInitialized();
+    lock.readLock().lock();
+    try {
+      if (isInTable(repositoryId)) {
+        return table.hasProperty(repositoryId, key);
+      }
+      RepositoryProperties properties = propertiesByRepository.get(repositoryId);
+      return properties != null && properties.get(key) != null;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  @Subscribe(async = false)
+  public void handleEvent(CustomPropertyCreateEvent event) {
+    if (event.isPartOfBulk()) {
+      return;
+    }
+    reload(List.of(event.getRepository()));
+  }
+
+  @Subscribe(async = false)
+  public void handleEvent(CustomPropertyUpdateEvent event) {
+    if (event.isPartOfBulk()) {
+      return;
+    }
+    reload(List.of(event.getRepository()));
+  }
+
+  @Subscribe(async = false)
+  public void handleEvent(CustomPropertyDeleteEvent event) {
+    if (event.isPartOfBulk()) {
+      return;
+    }
+    reload(List.of(event.getRepository()));
+  }
+
+  @Subscribe(async = false)
+  public void handleEvent(CustomPropertyBulkEvent event) {
+    reload(event.getChangedRepositories());
+  }
+
+  @Subscribe(async = false)
+  public void handleEvent(CustomPropertySnapshotCorrectedEvent event) {
+    reload(List.of(event.getRepository()));
+  }
+
+  @Subscribe(async = false)
+  public void handleEvent(RepositoryEvent event) {
+    if (event.getEventType() == HandlerEventType.DELETE) {
+      modify(() -> removeRepository(event.getItem().getId()));
+    }
+  }
+
+  @Subscribe(async = false)
+  public void handleEvent(RepositoryImportEvent event) {
+    if (!event.isFailed()) {
+      Collection<CustomProperty> properties = customPropertiesService.reloadStoredProperties(event.getItem());
+      modify(() -> load(event.getItem().getId(), properties));
+    }
+  }
+
+  /**
+   * Reloads the properties of the changed repositories from their stores instead of applying the changes of the events,
+   * because the events of concurrent modifications may be delivered in another order than the stores have been modified.
+   * The properties are read while holding the write lock, so that the last event handled always loads the latest state.
+   */
+  private void reload(Collection<Repository> repositories) {
+    modify(() -> repositories.forEach(
+      repository -> load(repository.getId(), customPropertiesService.getStoredProperties(repository))
+    ));
+  }
+
+  /**
+   * Applies the modification, if the index has been initialized. The flag is checked while holding the write lock,
+   * so that a change during the initialization waits for it and is applied to the loaded properties afterward.
+   */
+  private void modify(Runnable modification) {
+    lock.writeLock().lock();
+    try {
+      if (!initialized) {
+        // the changes will be read from the stores, once the index gets initialized
+        return;
+      }
+      modification.run();
+      rebuildTableIfNecessary();
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  private boolean isInTable(String repositoryId) {
+    return table != null && !changedRepositoryIds.contains(repositoryId);
+  }
+
+  /**
+   * Copies the properties of a repository from the table into the resident maps before its first change,
+   * so that the rows of the table are hidden afterward.
+   */
+  private void markChanged(String repositoryId) {
+    if (table != null && changedRepositoryIds.add(repositoryId)) {
+      table.getProperties(repositoryId).forEach(property -> put(repositoryId, property));
+    }
+  }
+
+  private void rebuildTableIfNecessary() {
+    if (table == null || changedRepositoryIds.size() < Math.max(MIN_CHANGES_FOR_TABLE_REBUILD, table.getRepositoryCount() / 10)) {
+      return;
+    }
+
+    Map<String, Collection<CustomProperty>> properties = new HashMap<>();
+    table.forEachRepository((repositoryId, tableProperties) -> {
+      if (!changedRepositoryIds.contains(repositoryId)) {
+        properties.put(repositoryId, tableProperties);
+      }
+    });
+    propertiesByRepository.forEach((repositoryId, changedProperties) -> properties.put(repositoryId, changedProperties.toCustomProperties()));
+    try {
+      table = PropertyTable.build(properties);
+    } catch (IOException e) {
+      log.warn("Could not rebuild custom property table, keeping {} changed repositories in the heap", changedRepositoryIds.size(), e);
+      return;
+    }
+    log.debug("Rebuilt custom property table with {} changed repositories", changedRepositoryIds.size());
+    changedRepositoryIds.clear();
+    propertiesByRepository.clear();
+    postingsByKey.clear();
+    ordinalByRepositoryId.clear();
+    repositoryIdByOrdinal.clear();
+    freeOrdinals.clear();
+  }
+
+  private void ensureInitialized() {
+    if (initialized) {
+      return;
+    }
+
+    lock.writeLock().lock();
+    try {
+      if (!initialized) {
+        log.debug("Loading custom properties of all repositories into index");
+        administrationContext.runAsAdmin(() -> {
+          // properties read from an outdated snapshot are corrected by an event, once they have been verified against the stores
+          Map<String, Collection<CustomProperty>> storedProperties = customPropertiesService.getAllStoredProperties(repositoryManager.getAll());
+          if (propertyTableEnabled) {
+            table = buildTable(storedProperties);
+          }
+          if (table == null) {
+            storedProperties.forEach(this::load);
+          }
+        });
+        initialized = true;
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  private static PropertyTable buildTable(Map<String, Collection<CustomProperty>> storedProperties) {
+    try {
+      return PropertyTable.build(storedProperties);
+    } catch (IOException e) {
+      log.warn("Could not build custom property table, keeping the properties in the heap", e);
+      return null;
+    }
+  }
+
+  private void load(String repositoryId, Collection<CustomProperty> properties) {
+    removeRepository(repositoryId);
+    properties.forEach(property -> put(repositoryId, property));
+  }
+
+  private Set<String> toRepositoryIds(BitSet ordinals) {
+    Set<String> repositoryIds = new HashSet<>(ordinals.cardinality() * 4 / 3 + 1);
+    ordinals.stream().forEach(ordinal -> repositoryIds.add(repositoryIdByOrdinal.get(ordinal)));
+    return repositoryIds;
+  }
+
+  private int acquireOrdinal(String repositoryId) {
+    return ordinalByRepositoryId.computeIfAbsent(repositoryId, id -> {
+      int ordinal = freeOrdinals.nextSetBit(0);
+      if (ordinal < 0) {
+        repositoryIdByOrdinal.add(id);
+        return repositoryIdByOrdinal.size() - 1;
+      }
+      freeOrdinals.clear(ordinal);
+      repositoryIdByOrdinal.set(ordinal, id);
+      return ordinal;
+    });
+  }
+
+  private void releaseOrdinal(String repositoryId) {
+    Integer ordinal = ordinalByRepositoryId.remove(repositoryId);
+    if (ordinal != null) {
+      repositoryIdByOrdinal.set(ordinal, null);
+      freeOrdinals.set(ordinal);
+    }
+  }
+
+  private void put(String repositoryId, CustomProperty property) {
+    markChanged(repositoryId);
+    String key = PropertyInterner.intern(property.getKey());
+    String value = PropertyInterner.intern(property.getValue());
+    remove(repositoryId, key);
+    propertiesByRepository
+      .computeIfAbsent(repositoryId, id -> new RepositoryProperties())
+      .put(key, value);
+    postingsByKey
+      .computeIfAbsent(key, KeyPostings::new)
+      .add(acquireOrdinal(repositoryId), value);
+  }
+
+  private void remove(String repositoryId, String key) {
+    markChanged(repositoryId);
+    RepositoryProperties properties = propertiesByRepository.get(repositoryId);
+    if (properties == null) {
+      return;
+    }
+
+    String removedValue = properties.remove(key);
+    if (removedValue != null) {
+      KeyPostings postings = postingsByKey.get(key);
+      postings.remove(ordinalByRepositoryId.get(repositoryId), removedValue);
+      if (postings.isEmpty()) {
+        postingsByKey.remove(key);
+      }
+    }
+
+    if (properties.isEmpty()) {
+      propertiesByRepository.remove(repositoryId);
+      releaseOrdinal(repositoryId);
+    }
+  }
+
+  private void removeRepository(String repositoryId) {
+    markChanged(repositoryId);
+    RepositoryProperties properties = propertiesByRepository.get(repositoryId);
+    if (properties != null) {
+      properties.keys().forEach(key -> remove(repositoryId, key));
+    }
+  }
+
+  private static String[] splitLoweredValues(String value) {
+    return value.toLowerCase(Locale.ENGLISH).split(MULTIPLE_CHOICE_VALUE_SEPARATOR);
+  }
+
+  /**
+   * The few properties of a single repository as parallel arrays of the interned keys and values,
+   * which take far less memory than a map of property objects.
+   */
+  private static final class RepositoryProperties {
+    private String[] keys = new String[4];
+    private String[] values = new String[4];
+    private int size = 0;
+
+    String get(String key) {
+      int index = indexOf(key);
+      return index < 0 ? null : values[index];
+    }
+
+    void put(String key, String value) {
+      int index = indexOf(key);
+      if (index >= 0) {
+        values[index] = value;
+        return;
+      }
+      if (size == keys.length) {
+        keys = Arrays.copyOf(keys, size * 2);
+        values = Arrays.copyOf(values, size * 2);
+      }
+      keys[size] = key;
+      values[size] = value;
+      size++;
+    }
+
+    String remove(String key) {
+      int index = indexOf(key);
+      if (index < 0) {
+        return null;
+      }
+      String removedValue = values[index];
+      size--;
+      keys[index] = keys[size];
+      values[index] = values[size];
+      keys[size] = null;
+      values[size] = null;
+      return removedValue;
+    }
+
+    boolean isEmpty() {
+      return size == 0;
+    }
+
+    List<String> keys() {
+      return List.of(Arrays.copyOf(keys, size));
+    }
+
+    List<CustomProperty> toCustomProperties() {
+      List<CustomProperty> properties = new ArrayList<>(size);
+      for (int i = 0; i < size; i++) {
+        properties.add(new CustomProperty(keys[i], values[i]));
+      }
+      return properties;
+    }
+
+    private int indexOf(String key) {
+      for (int i = 0; i < size; i++) {
+        if (keys[i].equals(key)) {
+          return i;
+        }
+      }
+      return -1;
+    }
+  }
+
+  private static final class KeyPostings {
+    private final String loweredKey;
+    private final BitSet repositories = new BitSet();
+    private final Map<String, BitSet> repositoriesByLoweredValue = new HashMap<>();
+
+    private KeyPostings(String key) {
+      this.loweredKey = key.toLowerCase(Locale.ENGLISH);
+    }
+
+    void add(int ordinal, String value) {
+      repositories.set(ordinal);
+      for (String loweredValue : splitLoweredValues(value)) {
+        repositoriesByLoweredValue.computeIfAbsent(loweredValue, v -> new BitSet()).set(ordinal);
+      }
+    }
+
+    void remove(int ordinal, String value) {
+      repositories.clear(ordinal);
+      for (String loweredValue : splitLoweredValues(value)) {
+        BitSet valueRepositories = repositoriesByLoweredValue.get(loweredValue);
+        if (valueRepositories != null) {
+          valueRepositories.clear(ordinal);
+          if (valueRepositories.isEmpty()) {
+            repositoriesByLoweredValue.remove(loweredValue);
+          }
+        }
+      }
+    }
+
+    boolean isEmpty() {
+      return repositories.isEmpty();
+    }
+
+    int estimateRepositoryCount(Collection<Predicate<String>> valueMatchers) {
+      int estimate = repositories.cardinality();
+      for (Predicate<String> valueMatcher : valueMatchers) {
+        int matching = 0;
+        if (valueMatcher instanceof GlobMatcher globMatcher && globMatcher.isLiteral()) {
+          BitSet valueRepositories = repositoriesByLoweredValue.get(globMatcher.getLiteral());
+          matching = valueRepositories == null ? 0 : valueRepositories.cardinality();
+        } else {
+          for (Map.Entry<String, BitSet> entry : repositoriesByLoweredValue.entrySet()) {
+            if (valueMatcher.test(entry.getKey())) {
+              matching += entry.getValue().cardinality();
+            }
+          }
+        }
+        estimate = Math.min(estimate, matching);
+      }
+      return estimate;
+    }
+
+    /**
+     * Returns a new bitmap of the repositories, which have at least one value matching each value matcher.
+     */
+    BitSet findRepositories(Collection<Predicate<String>> valueMatchers) {
+      BitSet result = null;
+      for (Predicate<String> valueMatcher : valueMatchers) {
+        BitSet matching = new BitSet();
+        if (valueMatcher instanceof GlobMatcher globMatcher && globMatcher.isLiteral()) {
+          BitSet valueRepositories = repositoriesByLoweredValue.get(globMatcher.getLiteral());
+          if (valueRepositories != null) {
+            matching.or(valueRepositories);
+          }
+        } else {
+          repositoriesByLoweredValue.forEach((loweredValue, valueRepositories) -> {
+            if (valueMatcher.test(loweredValue)) {
+              matching.or(valueRepositories);
+            }
+          });
+        }
+
+        if (result == null) {
+          result = matching;
+        } else {
+          result.and(matching);
+        }
+
+        if (result.isEmpty()) {
+          return result;
+        }
+      }
+
+      return result == null ? (BitSet) repositories.clone() : result;
+    }
+  }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package com.cloudogu.custom.properties;
+
+import com.google.common.annotations.VisibleForTesting;
+import jakarta.inject.Inject;
+import lombok.extern.slf4j.Slf4j;
+import sonia.scm.search.QueryResult;
+import sonia.scm.search.SearchEngine;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+/**
+ * Resolves candidates for the clauses of a repository search with queries against the search index of
+ * {@link IndexedCustomProperty}. Because the indexed fields are analyzed and default properties are not indexed,
+ * the result is a superset of the matching repositories, which has to be verified by the caller.
+ * Clauses, which cannot be translated safely into a query, are not resolved at all,
+ * so that the caller falls back to the {@link RepositoryPropertyIndex}.
+ * <p>
+ * The search index is updated asynchronously, so the repositories with changes not written to it yet
+ * are always added to the candidates, to be verified by the caller as well.
+ */
+@Slf4j
+class SearchEngineRepositoryQuery {
+
+  static final String ENABLED_PROPERTY = "scm.customProperties.searchEngineQueries";
+
+  private static final int PAGE_SIZE = 100;
+  // the fields are tokenized, so only single words or prefixes of a single word can be queried without false negatives
+  private static final Pattern TRANSLATABLE_GLOB = Pattern.compile("[\\p{L}\\p{N}_]+\\*?");
+
+  private final SearchEngine searchEngine;
+  private final CustomPropertiesService customPropertiesService;
+  private final PendingIndexChanges pendingIndexChanges;
+  private final boolean enabled;
+
+  @Inject
+  SearchEngineRepositoryQuery(SearchEngine searchEngine,
+                              CustomPropertiesService customPropertiesService,
+                              PendingIndexChanges pendingIndexChanges) {
+    this(searchEngine, customPropertiesService, pendingIndexChanges, Boolean.getBoolean(ENABLED_PROPERTY));
+  }
+
+  @VisibleForTesting
+  SearchEngineRepositoryQuery(SearchEngine searchEngine,
+                              CustomPropertiesService customPropertiesService,
+                              PendingIndexChanges pendingIndexChanges,
+                              boolean enabled) {
+    this.searchEngine = searchEngine;
+    this.customPropertiesService = customPropertiesService;
+    this.pendingIndexChanges = pendingIndexChanges;
+    this.enabled = enabled;
+  }
+
+  /**
+   * Returns the ids of all repositories, which may satisfy every clause, or an empty optional,
+   * if the search engine is not enabled or the clauses cannot be translated into queries.
+   */
+  Optional<Set<String>> findCandidateIds(List<CustomPropertiesSearchService.Clause> clauses,
+                                         CustomPropertiesSearchService.SearchNamespaces namespaces) {
+    if (!enabled) {
+      return Optional.empty();
+    }
+
+    List<List<String>> queries = new ArrayList<>();
+    for (CustomPropertiesSearchService.Clause clause : clauses) {
+      Optional<List<String>> clauseQueries = translate(clause);
+      if (clauseQueries.isEmpty()) {
+        log.debug("could not translate search clause {} into a query, falling back to property index", clause);
+        return Optional.empty();
+      }
+      queries.add(clauseQueries.get());
+    }
+
+    try {
+      // taken before querying, so that changes written in between are either found or added
+      Set<String> pendingRepositoryIds = pendingIndexChanges.getRepositoryIds();
+      Set<String> candidateIds = null;
+      for (int i = 0; i < clauses.size(); i++) {
+        Set<String> clauseCandidateIds = findCandidateIds(clauses.get(i), queries.get(i), namespaces);
+        if (candidateIds == null) {
+          candidateIds = clauseCandidateIds;
+        } else {
+          candidateIds.retainAll(clauseCandidateIds);
+        }
+
+        if (candidateIds.isEmpty()) {
+          break;
+        }
+      }
+      if (candidateIds != null) {
+        candidateIds.addAll(pendingRepositoryIds);
+      }
+      return Optional.ofNullable(candidateIds);
+    } catch (RuntimeException e) {
+      log.warn("search engine query for custom properties failed, falling back to property index", e);
+      return Optional.empty();
+    }
+  }
+
+  /**
+   * Translates a clause into one query per value, because every value of a multiple choice property is indexed
+   * as a document of its own. A clause without values is translated into a single query for the key.
+   */
+  private Optional<List<String>> translate(CustomPropertiesSearchService.Clause clause) {
+    String keyQuery = null;
+    if (clause.keyMatcher() instanceof GlobMatcher keyMatcher && !keyMatcher.getLoweredGlob().equals("*")) {
+      if (!isTranslatable(keyMatcher)) {
+        return Optional.empty();
+      }
+      keyQuery = "key:" + keyMatcher.getLoweredGlob();
+    }
+
+    if (clause.valueMatchers().isEmpty()) {
+      return Optional.ofNullable(keyQuery).map(List::of);
+    }
+
+    List<String> queries = new ArrayList<>();
+    for (Predicate<String> valueMatcher : clause.valueMatchers()) {
+      if (!(valueMatcher instanceof GlobMatcher valueGlob) || !isTranslatable(valueGlob)) {
+        return Optional.empty();
+      }
+      String valueQuery = "value:" + valueGlob.getLoweredGlob();
+      queries.add(keyQuery == null ? valueQuery : keyQuery + " AND " + valueQuery);
+    }
+    return Optional.of(queries);
+  }
+
+  private boolean isTranslatable(GlobMatcher matcher) {
+    return TRANSLATABLE_GLOB.matcher(matcher.getLoweredGlob()).matches();
+  }
+
+  private Set<String> findCandidateIds(CustomPropertiesSearchService.Clause clause, List<String> queries,
+                                       CustomPropertiesSearchService.SearchNamespaces namespaces) {
+    Set<String> candidateIds = null;
+    for (String query : queries) {
+      Set<String> repositoryIds = search(query);
+      if (candidateIds == null) {
+        candidateIds = repositoryIds;
+      } else {
+        candidateIds.retainAll(repositoryIds);
+      }
+    }
+
+    for (String namespace : namespaces.names()) {
+      if (customPropertiesService.getDefaultProperties(namespace).stream().anyMatch(clause::matches)) {
+        candidateIds.addAll(namespaces.getRepositoryIds(namespace));
+      }
+    }
+
+    return candidateIds;
+  }
+
+  private Set<String> search(String query) {
+    Set<String> repositoryIds = new HashSet<>();
+    int start = 0;
+    QueryResult result;
+    do {
+      result = searchEngine.forType(IndexedCustomProperty.class)
+        .search()
+        .start(start)
+        .limit(PAGE_SIZE)
+        .execute(query);
+      result.getHits().forEach(hit -> hit.getRepositoryId().ifPresent(repositoryIds::add));
+      start += PAGE_SIZE;
+    } while (start < result.getTotalHits());
+    return repositoryIds;
+  }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+
+package com.cloudogu.custom.properties;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight recorder event for the evaluation of a search filter,
+ * which resolves the repositories matching the filter before they are sorted and loaded.
+ */
+@Name("com.cloudogu.customproperties.SearchFilter")
+@Label("Search Filter Evaluation")
+@Category({"SCM-Manager", "Custom Properties"})
+@Description("Evaluation of a custom property search filter")
+@StackTrace(false)
+class SearchFilterJfrEvent extends jdk.jfr.Event {
+
+  @Label("Key")
+  String key;
+
+  @Label("Value")
+  String value;
+
+  @Label("Key Value Pair")
+  String keyValuePair;
+
+  @Label("Namespace")
+  String namespace;
+
+  @Label("Repository Count")
+  @Description("Number of repositories matching the filter")
+  int repositoryCount;
+}
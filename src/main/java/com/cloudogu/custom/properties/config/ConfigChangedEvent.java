@@ -0,0 +1,45 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package com.cloudogu.custom.properties.config;
+
+import sonia.scm.event.Event;
+
+import java.util.Optional;
+
+/**
+ * Signals a change of the global config or of the config of a single namespace,
+ * which might change the predefined keys of the affected namespaces.
+ */
+@Event
+public class ConfigChangedEvent {
+  private final String namespace;
+
+  public ConfigChangedEvent() {
+    this(null);
+  }
+
+  public ConfigChangedEvent(String namespace) {
+    this.namespace = namespace;
+  }
+
+  /**
+   * Returns the namespace, whose config has been changed, or an empty optional if the global config has been changed.
+   */
+  public Optional<String> getNamespace() {
+    return Optional.ofNullable(namespace);
+  }
+}
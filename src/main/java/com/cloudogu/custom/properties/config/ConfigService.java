@@ -16,33 +16,84 @@
 
 package com.cloudogu.custom.properties.config;
 
+import com.cloudogu.custom.properties.CustomPropertiesMetrics;
+import com.github.legman.Subscribe;
 import jakarta.inject.Inject;
+import jakarta.inject.Singleton;
+import sonia.scm.HandlerEventType;
+import sonia.scm.event.ScmEventBus;
+import sonia.scm.repository.NamespaceEvent;
+import sonia.scm.repository.Repository;
+import sonia.scm.repository.RepositoryEvent;
 import sonia.scm.store.ConfigurationStore;
 import sonia.scm.store.ConfigurationStoreFactory;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 
+@Singleton
 public class ConfigService {
 
   private static final String CONFIG_STORE_NAME = "custom-properties-config";
+  private static final String GLOBAL_CONFIG_CACHE = "global-config";
+  private static final String PREDEFINED_KEYS_CACHE = "predefined-keys";
 
   private final ConfigurationStore<GlobalConfig> globalConfigStore;
   private final ConfigurationStoreFactory configStoreFactory;
+  private final ScmEventBus eventBus;
+  private final CustomPropertiesMetrics metrics;
+
+  // global config read by every enricher call, replaced whenever it gets changed
+  private volatile GlobalConfig globalConfigCache;
+  // merged global and namespace keys, invalidated whenever one of the configs gets changed
+  private final Map<String, Map<String, PredefinedKey>> predefinedKeysCache = new ConcurrentHashMap<>();
 
   @Inject
-  public ConfigService(ConfigurationStoreFactory configurationStoreFactory) {
+  public ConfigService(ConfigurationStoreFactory configurationStoreFactory, ScmEventBus eventBus, CustomPropertiesMetrics metrics) {
     this.globalConfigStore = configurationStoreFactory
       .withType(GlobalConfig.class)
       .withName(CONFIG_STORE_NAME)
       .build();
 
     this.configStoreFactory = configurationStoreFactory;
+    this.eventBus = eventBus;
+    this.metrics = metrics;
   }
 
+  /**
+   * Returns a copy of the global config, so that modifying it does not change the cached config
+   * without storing it by {@link #setGlobalConfig(GlobalConfig)}.
+   */
   public GlobalConfig getGlobalConfig() {
-    return globalConfigStore.getOptional().orElseGet(GlobalConfig::new);
+    return copy(getCachedGlobalConfig());
+  }
+
+  private GlobalConfig getCachedGlobalConfig() {
+    GlobalConfig globalConfig = globalConfigCache;
+    metrics.recordCacheAccess(GLOBAL_CONFIG_CACHE, CustomPropertiesMetrics.SCOPE_GLOBAL, globalConfig != null);
+    if (globalConfig != null) {
+      return globalConfig;
+    }
+
+    synchronized (this) {
+      if (globalConfigCache == null) {
+        globalConfigCache = globalConfigStore.getOptional().orElseGet(GlobalConfig::new);
+      }
+      return globalConfigCache;
+    }
+  }
+
+  private static GlobalConfig copy(GlobalConfig globalConfig) {
+    return new GlobalConfig(globalConfig.isEnabled(), globalConfig.isEnableNamespaceConfig(), copy(globalConfig.getPredefinedKeys()));
+  }
+
+  private static Map<String, PredefinedKey> copy(Map<String, PredefinedKey> predefinedKeys) {
+    Map<String, PredefinedKey> copiedKeys = new HashMap<>(predefinedKeys.size() * 4 / 3 + 1);
+    predefinedKeys.forEach((key, predefinedKey) -> copiedKeys.put(key, predefinedKey.copy()));
+    return copiedKeys;
   }
 
   public void setGlobalConfig(GlobalConfig globalConfig) {
@@ -54,7 +105,12 @@ public class ConfigService {
       throw new InvalidMultipleChoiceException(entry.getKey());
     });
 
-    globalConfigStore.set(globalConfig);
+    synchronized (this) {
+      globalConfigStore.set(globalConfig);
+      globalConfigCache = null;
+      predefinedKeysCache.clear();
+    }
+    eventBus.post(new ConfigChangedEvent());
   }
 
   public NamespaceConfig getNamespaceConfig(String namespace) {
@@ -70,7 +126,11 @@ public class ConfigService {
       throw new InvalidMultipleChoiceException(namespace, entry.getKey());
     });
 
-    getNamespaceConfigStore(namespace).set(namespaceConfig);
+    synchronized (this) {
+      getNamespaceConfigStore(namespace).set(namespaceConfig);
+      predefinedKeysCache.remove(namespace);
+    }
+    eventBus.post(new ConfigChangedEvent(namespace));
   }
 
   private Optional<Map.Entry<String, PredefinedKey>> findInvalidDefaultValue(Map<String, PredefinedKey> predefinedKeys) {
@@ -99,7 +159,49 @@ public class ConfigService {
       .build();
   }
 
+  /**
+   * Returns an immutable view of the keys predefined globally and for the given namespace,
+   * where keys of the namespace override global keys with the same name.
+   */
   public Map<String, PredefinedKey> getAllPredefinedKeys(String namespace) {
+    Map<String, PredefinedKey> cachedKeys = predefinedKeysCache.get(namespace);
+    metrics.recordCacheAccess(PREDEFINED_KEYS_CACHE, CustomPropertiesMetrics.SCOPE_NAMESPACE, cachedKeys != null);
+    if (cachedKeys != null) {
+      return cachedKeys;
+    }
+
+    synchronized (this) {
+      return predefinedKeysCache.computeIfAbsent(namespace, this::mergePredefinedKeys);
+    }
+  }
+
+  /**
+   * Drops the merged keys of a deleted namespace.
+   */
+  @Subscribe(async = false)
+  public void handleEvent(NamespaceEvent event) {
+    if (event.getEventType() == HandlerEventType.DELETE) {
+      predefinedKeysCache.remove(event.getItem().getNamespace());
+    }
+  }
+
+  /**
+   * Drops the merged keys of both namespaces, whenever a repository is moved to another namespace.
+   */
+  @Subscribe(async = false)
+  public void handleEvent(RepositoryEvent event) {
+    Repository oldRepository = event.getOldItem();
+    if (event.getEventType() == HandlerEventType.MODIFY && oldRepository != null
+      && !Objects.equals(oldRepository.getNamespace(), event.getItem().getNamespace())) {
+      predefinedKeysCache.remove(oldRepository.getNamespace());
+      predefinedKeysCache.remove(event.getItem().getNamespace());
+    }
+  }
+
+  private Map<String, PredefinedKey> mergePredefinedKeys(String namespace) {
+    PredefinedKeysMergeJfrEvent event = new PredefinedKeysMergeJfrEvent();
+    event.begin();
+    // the cached config is copied, so that the merged keys are not shared with it
     GlobalConfig globalConfig = getGlobalConfig();
     Map<String, PredefinedKey> result = new HashMap<>(globalConfig.getPredefinedKeys());
 
@@ -107,6 +209,13 @@ public class ConfigService {
       result.putAll(getNamespaceConfig(namespace).getPredefinedKeys());
     }
 
-    return result;
+    Map<String, PredefinedKey> mergedKeys = Map.copyOf(result);
+    event.end();
+    if (event.shouldCommit()) {
+      event.namespace = namespace;
+      event.predefinedKeyCount = mergedKeys.size();
+      event.commit();
+    }
+    return mergedKeys;
   }
 }
@@ -20,19 +20,26 @@ import com.cloudogu.custom.properties.CustomPropertiesContext;
 import com.google.common.base.Strings;
 import jakarta.xml.bind.annotation.XmlAccessType;
 import jakarta.xml.bind.annotation.XmlAccessorType;
-import lombok.AllArgsConstructor;
+import jakarta.xml.bind.annotation.XmlTransient;
+import lombok.AccessLevel;
 import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
 import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import static com.cloudogu.custom.properties.config.ValueMode.NONE;
 
 @Data
 @NoArgsConstructor
-@AllArgsConstructor
 @XmlAccessorType(XmlAccessType.FIELD)
 public class PredefinedKey {
   private List<String> allowedValues = new ArrayList<>();
@@ -41,6 +48,25 @@ public class PredefinedKey {
   private ValueMode mode = ValueMode.DEFAULT;
   private String defaultValue = "";
 
+  /*
+   * Derived from the allowed values on the first validation and dropped, whenever they are replaced,
+   * so that validating against hundreds of allowed values does not compare each of them.
+   * It cannot be built eagerly, because JAXB sets the allowed values without the setter.
+   * The field is volatile, so that other threads only see the set after it has been filled completely.
+   */
+  @XmlTransient
+  @Getter(AccessLevel.NONE)
+  @Setter(AccessLevel.NONE)
+  @ToString.Exclude
+  @EqualsAndHashCode.Exclude
+  private transient volatile Set<String> allowedValueSet;
+
+  public PredefinedKey(List<String> allowedValues, ValueMode mode, String defaultValue) {
+    this.allowedValues = copy(allowedValues);
+    this.mode = mode;
+    this.defaultValue = defaultValue;
+  }
+
   public PredefinedKey(List<String> allowedValues) {
     this(allowedValues, NONE, "");
   }
@@ -64,14 +90,42 @@ public class PredefinedKey {
       return false;
     }
 
-    return Arrays.stream(choices)
-      .filter(choice -> !allowedValues.contains(choice))
-      .findFirst()
-      .isEmpty();
+    Set<String> allowed = getAllowedValueSet();
+    return Arrays.stream(choices).allMatch(allowed::contains);
   }
 
   private boolean isSingleValueValid(String value) {
-    return allowedValues.isEmpty() || allowedValues.contains(value);
+    return allowedValues.isEmpty() || getAllowedValueSet().contains(value);
+  }
+
+  private Set<String> getAllowedValueSet() {
+    Set<String> allowed = allowedValueSet;
+    if (allowed == null) {
+      allowed = Collections.unmodifiableSet(new HashSet<>(allowedValues));
+      allowedValueSet = allowed;
+    }
+    return allowed;
+  }
+
+  /**
+   * Returns an unmodifiable view of the allowed values, so that the derived set cannot be outdated
+   * by modifying the list in place. Use {@link #setAllowedValues(List)} to change them.
+   */
+  public List<String> getAllowedValues() {
+    return Collections.unmodifiableList(allowedValues);
+  }
+
+  public void setAllowedValues(List<String> allowedValues) {
+    this.allowedValues = copy(allowedValues);
+    this.allowedValueSet = null;
+  }
+
+  private static List<String> copy(List<String> allowedValues) {
+    return allowedValues == null ? new ArrayList<>() : new ArrayList<>(allowedValues);
+  }
+
+  PredefinedKey copy() {
+    return new PredefinedKey(allowedValues, mode, defaultValue);
   }
 
   public boolean isDefaultValueValid() {
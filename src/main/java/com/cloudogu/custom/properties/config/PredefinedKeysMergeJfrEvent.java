@@ -0,0 +1,41 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+
+package com.cloudogu.custom.properties.config;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight recorder event for merging the global and namespace predefined keys, whenever they are not cached.
+ */
+@Name("com.cloudogu.customproperties.PredefinedKeysMerge")
+@Label("Predefined Keys Merge")
+@Category({"SCM-Manager", "Custom Properties"})
+@Description("Merge of the global and namespace predefined keys")
+@StackTrace(false)
+class PredefinedKeysMergeJfrEvent extends jdk.jfr.Event {
+
+  @Label("Namespace")
+  String namespace;
+
+  @Label("Predefined Key Count")
+  int predefinedKeyCount;
+}
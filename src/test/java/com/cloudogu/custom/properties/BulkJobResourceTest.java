@@ -0,0 +1,197 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+package com.cloudogu.custom.properties;
+
+import com.cloudogu.custom.properties.config.ConfigService;
+import com.cloudogu.custom.properties.config.GlobalConfig;
+import com.google.inject.util.Providers;
+import org.github.sdorra.jse.ShiroExtension;
+import org.github.sdorra.jse.SubjectAware;
+import org.jboss.resteasy.mock.MockHttpRequest;
+import org.jboss.resteasy.mock.MockHttpResponse;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import sonia.scm.api.v2.resources.ScmPathInfoStore;
+import sonia.scm.repository.Repository;
+import sonia.scm.repository.RepositoryManager;
+import sonia.scm.repository.RepositoryTestData;
+import sonia.scm.web.RestDispatcher;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Predicate;
+
+import static jakarta.ws.rs.core.Response.Status.ACCEPTED;
+import static jakarta.ws.rs.core.Response.Status.BAD_REQUEST;
+import static jakarta.ws.rs.core.Response.Status.NOT_FOUND;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+@ExtendWith({MockitoExtension.class, ShiroExtension.class})
+class BulkJobResourceTest {
+
+  private final Repository heartOfGold = RepositoryTestData.createHeartOfGold();
+  private final Repository puzzle = RepositoryTestData.create42Puzzle();
+
+  @Mock
+  private RepositoryManager repositoryManager;
+  @Mock
+  private ConfigService configService;
+  @Mock
+  private CustomPropertiesSearchService searchService;
+  @Mock
+  private BulkJobService bulkJobService;
+
+  @Captor
+  private ArgumentCaptor<Collection<Repository>> repositoriesCaptor;
+
+  private RestDispatcher dispatcher;
+
+  @BeforeEach
+  void setUp() {
+    heartOfGold.setId("1");
+    puzzle.setId("2");
+
+    ScmPathInfoStore scmPathInfoStore = new ScmPathInfoStore();
+    scmPathInfoStore.set(() -> URI.create("https://scm-test.de/scm/api/"));
+
+    BulkJobResource resource = new BulkJobResource(
+      Providers.of(scmPathInfoStore),
+      repositoryManager,
+      configService,
+      searchService,
+      new CustomPropertyMapperImpl(),
+      bulkJobService
+    );
+
+    dispatcher = new RestDispatcher();
+    dispatcher.addSingletonResource(resource);
+
+    lenient().when(configService.getGlobalConfig()).thenReturn(new GlobalConfig(true, true, Map.of()));
+  }
+
+  private MockHttpResponse invokePost(String body) throws URISyntaxException {
+    MockHttpRequest request = MockHttpRequest.post("/v2/custom-properties-jobs");
+    request.contentType(BulkJobResource.BULK_JOB_MEDIA_TYPE);
+    request.content(body.getBytes(StandardCharsets.UTF_8));
+    MockHttpResponse response = new MockHttpResponse();
+
+    dispatcher.invoke(request, response);
+
+    return response;
+  }
+
+  @Test
+  @SubjectAware(value = "Trainer Red", permissions = "repository:modify:1")
+  @SuppressWarnings("unchecked")
+  void shouldStartJobForModifiableRepositoriesOfNamespace() throws URISyntaxException {
+    when(repositoryManager.getAll(any(Predicate.class))).thenAnswer(
+      invocation -> List.of(heartOfGold, puzzle).stream().filter(invocation.getArgument(0)).toList()
+    );
+    when(bulkJobService.start(repositoriesCaptor.capture(), any())).thenReturn(new BulkJob("42", "Trainer Red", 1));
+
+    MockHttpResponse response = invokePost("""
+      {"namespace": "hitchhiker", "operations": [{"type": "CREATE", "property": {"key": "team", "value": "platform"}}]}
+      """);
+
+    assertThat(response.getStatus()).isEqualTo(ACCEPTED.getStatusCode());
+    assertThat(response.getOutputHeaders().getFirst("Location"))
+      .hasToString("https://scm-test.de/scm/api/v2/custom-properties-jobs/42");
+    assertThat(repositoriesCaptor.getValue()).containsExactly(heartOfGold);
+    verify(bulkJobService).start(any(), eq(List.of(
+      new CustomPropertyOperation(CustomPropertyOperation.Type.CREATE, null, new CustomProperty("team", "platform"))
+    )));
+  }
+
+  @Test
+  @SubjectAware(value = "Trainer Red", permissions = "repository:modify:1")
+  @SuppressWarnings("unchecked")
+  void shouldStartJobForRepositoriesMatchingNamespaceGlob() throws URISyntaxException {
+    when(repositoryManager.getAll(any(Predicate.class))).thenAnswer(
+      invocation -> List.of(heartOfGold, puzzle).stream().filter(invocation.getArgument(0)).toList()
+    );
+    when(bulkJobService.start(repositoriesCaptor.capture(), any())).thenReturn(new BulkJob("42", "Trainer Red", 1));
+
+    MockHttpResponse response = invokePost("""
+      {"namespace": "hitch*", "operations": [{"type": "DELETE", "key": "team"}]}
+      """);
+
+    assertThat(response.getStatus()).isEqualTo(ACCEPTED.getStatusCode());
+    assertThat(repositoriesCaptor.getValue()).containsExactly(heartOfGold);
+  }
+
+  @Test
+  @SubjectAware(value = "Trainer Red", permissions = "repository:modify:*")
+  void shouldRejectJobWithoutSelection() throws URISyntaxException {
+    MockHttpResponse response = invokePost("""
+      {"operations": [{"type": "DELETE", "key": "team"}]}
+      """);
+
+    assertThat(response.getStatus()).isEqualTo(BAD_REQUEST.getStatusCode());
+  }
+
+  @Test
+  @SubjectAware(value = "Trainer Red", permissions = "repository:modify:*")
+  void shouldRejectJobWithBlankSelection() throws URISyntaxException {
+    MockHttpResponse response = invokePost("""
+      {"namespace": " ", "key": "", "operations": [{"type": "DELETE", "key": "team"}]}
+      """);
+
+    assertThat(response.getStatus()).isEqualTo(BAD_REQUEST.getStatusCode());
+    verifyNoInteractions(bulkJobService);
+  }
+
+  @Test
+  @SubjectAware(value = "Trainer Red", permissions = "repository:modify:1")
+  @SuppressWarnings("unchecked")
+  void shouldRejectJobWithInvalidOperation() throws URISyntaxException {
+    when(repositoryManager.getAll(any(Predicate.class))).thenReturn(List.of(heartOfGold));
+    when(bulkJobService.start(any(), any())).thenThrow(new InvalidValueException(heartOfGold, new CustomProperty("lang", "Go")));
+
+    MockHttpResponse response = invokePost("""
+      {"namespace": "hitchhiker", "operations": [{"type": "CREATE", "property": {"key": "lang", "value": "Go"}}]}
+      """);
+
+    assertThat(response.getStatus()).isEqualTo(BAD_REQUEST.getStatusCode());
+  }
+
+  @Test
+  @SubjectAware(value = "Team Rocket")
+  void shouldNotReturnJobOfOtherUser() throws URISyntaxException {
+    when(bulkJobService.get("42")).thenReturn(Optional.of(new BulkJob("42", "Trainer Red", 1)));
+
+    MockHttpRequest request = MockHttpRequest.get("/v2/custom-properties-jobs/42");
+    MockHttpResponse response = new MockHttpResponse();
+    dispatcher.invoke(request, response);
+
+    assertThat(response.getStatus()).isEqualTo(NOT_FOUND.getStatusCode());
+  }
+}
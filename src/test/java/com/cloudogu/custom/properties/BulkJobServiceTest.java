@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+package com.cloudogu.custom.properties;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import org.github.sdorra.jse.ShiroExtension;
+import org.github.sdorra.jse.SubjectAware;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import sonia.scm.event.ScmEventBus;
+import sonia.scm.repository.Repository;
+
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+@ExtendWith({MockitoExtension.class, ShiroExtension.class})
+@SubjectAware("Trainer Red")
+class BulkJobServiceTest {
+
+  private final List<CustomPropertyOperation> operations = List.of(
+    new CustomPropertyOperation(CustomPropertyOperation.Type.CREATE, null, new CustomProperty("team", "platform"))
+  );
+
+  @Mock
+  private CustomPropertiesService customPropertiesService;
+  @Mock
+  private ScmEventBus eventBus;
+
+  private BulkJobService bulkJobService;
+
+  @BeforeEach
+  void setUp() {
+    bulkJobService = new BulkJobService(
+      customPropertiesService,
+      eventBus,
+      MoreExecutors.newDirectExecutorService(),
+      MoreExecutors.newDirectExecutorService()
+    );
+  }
+
+  private List<Repository> createRepositories(int count) {
+    return IntStream.range(0, count)
+      .mapToObj(i -> new Repository(String.valueOf(i), "git", "platform", "repository-" + i))
+      .toList();
+  }
+
+  @Test
+  void shouldPostSingleEventPerBatch() {
+    List<Repository> repositories = createRepositories(BulkJobService.BATCH_SIZE + 1);
+    when(customPropertiesService.applyWithoutEvent(any(), any())).thenAnswer(
+      invocation -> List.of(new CustomPropertyCreateEvent(invocation.getArgument(0), new CustomProperty("team", "platform")))
+    );
+
+    BulkJob job = bulkJobService.start(repositories, operations);
+
+    assertThat(job.getState()).isEqualTo(BulkJob.State.FINISHED);
+    assertThat(job.getProcessed()).isEqualTo(BulkJobService.BATCH_SIZE + 1);
+    assertThat(job.getChanged()).isEqualTo(BulkJobService.BATCH_SIZE + 1);
+    assertThat(job.getInitiator()).isEqualTo("Trainer Red");
+    verify(eventBus, times(2)).post(any(CustomPropertyBulkEvent.class));
+    verify(eventBus).post(argThat(event -> ((CustomPropertyBulkEvent) event).getChanges().size() == BulkJobService.BATCH_SIZE));
+    assertThat(bulkJobService.get(job.getId())).contains(job);
+  }
+
+  @Test
+  void shouldRejectInvalidOperationsBeforeQueuingJob() {
+    List<Repository> repositories = createRepositories(2);
+    InvalidValueException exception = new InvalidValueException(repositories.get(0), new CustomProperty("team", "platform"));
+    doThrow(exception).when(customPropertiesService).validate(repositories, operations);
+
+    assertThatThrownBy(() -> bulkJobService.start(repositories, operations)).isSameAs(exception);
+
+    verify(customPropertiesService, never()).applyWithoutEvent(any(), any());
+    verifyNoInteractions(eventBus);
+  }
+
+  @Test
+  void shouldContinueWithOtherRepositoriesAfterFailure() {
+    List<Repository> repositories = createRepositories(2);
+    when(customPropertiesService.applyWithoutEvent(repositories.get(0), operations))
+      .thenThrow(new IllegalStateException("store not available"));
+    when(customPropertiesService.applyWithoutEvent(repositories.get(1), operations)).thenReturn(List.of());
+
+    BulkJob job = bulkJobService.start(repositories, operations);
+
+    assertThat(job.getState()).isEqualTo(BulkJob.State.FINISHED);
+    assertThat(job.getProcessed()).isEqualTo(2);
+    assertThat(job.getChanged()).isZero();
+    assertThat(job.getFailed()).isEqualTo(1);
+    assertThat(job.getFailures()).containsExactly("platform/repository-0: store not available");
+  }
+}
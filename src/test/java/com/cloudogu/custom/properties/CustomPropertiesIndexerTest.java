@@ -17,14 +17,17 @@
 package com.cloudogu.custom.properties;
 
 import jakarta.servlet.ServletContextEvent;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Captor;
+import org.mockito.InOrder;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
 import sonia.scm.repository.Repository;
 import sonia.scm.repository.RepositoryImportEvent;
@@ -37,10 +40,23 @@ import sonia.scm.search.ReindexRepositoryEvent;
 import sonia.scm.search.SearchEngine;
 import sonia.scm.search.SerializableIndexTask;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.lenient;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
@@ -62,6 +78,12 @@ class CustomPropertiesIndexerTest {
   private SearchEngine searchEngine;
   @Mock
   private SearchEngine.ForType<IndexedCustomProperty> forType;
+  @Mock
+  private ScheduledExecutorService flushScheduler;
+  @Spy
+  private CustomPropertiesMetrics metrics = new CustomPropertiesMetrics(new SimpleMeterRegistry());
+  @Spy
+  private PendingIndexChanges pendingIndexChanges = new PendingIndexChanges();
   @InjectMocks
   private CustomPropertiesIndexer indexer;
 
@@ -97,6 +119,7 @@ class CustomPropertiesIndexerTest {
     CustomPropertyCreateEvent event = new CustomPropertyCreateEvent(repository, customProperty);
 
     indexer.handleEvent(event);
+    indexer.flush();
 
     verify(forType, times(1)).update(captor.capture());
 
@@ -112,6 +135,7 @@ class CustomPropertiesIndexerTest {
     CustomPropertyCreateEvent event = new CustomPropertyCreateEvent(repository, multipleChoiceProperty);
 
     indexer.handleEvent(event);
+    indexer.flush();
 
     verify(forType, times(1)).update(captor.capture());
 
@@ -123,6 +147,42 @@ class CustomPropertiesIndexerTest {
     verifyIndexStore(multipleChoiceProperty.getKey(), "c", repository);
   }
 
+  @Test
+  void shouldSubmitSerializableFlushTask() throws IOException, ClassNotFoundException {
+    indexer.handleEvent(new CustomPropertyCreateEvent(repository, customProperty));
+    indexer.flush();
+    verify(forType, times(1)).update(captor.capture());
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (ObjectOutputStream output = new ObjectOutputStream(bytes)) {
+      output.writeObject(captor.getValue());
+    }
+    CustomPropertiesIndexer.FlushTask task;
+    try (ObjectInputStream input = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+      task = (CustomPropertiesIndexer.FlushTask) input.readObject();
+    }
+    task.setMetrics(metrics);
+    task.update(index);
+
+    verifyIndexStore(customProperty.getKey(), customProperty.getValue(), repository);
+  }
+
+  @Test
+  void shouldTrackRepositoriesUntilTheirChangesHaveBeenWritten() {
+    indexer.handleEvent(new CustomPropertyCreateEvent(repository, customProperty));
+    indexer.handleEvent(new CustomPropertyCreateEvent(repository, new CustomProperty("other", "value")));
+    assertThat(pendingIndexChanges.getRepositoryIds()).containsOnly(repository.getId());
+
+    indexer.flush();
+    verify(forType, times(1)).update(captor.capture());
+    SerializableIndexTask<IndexedCustomProperty> task = captor.getValue();
+    task.update(index);
+    assertThat(pendingIndexChanges.getRepositoryIds()).containsOnly(repository.getId());
+
+    task.afterUpdate();
+    assertThat(pendingIndexChanges.getRepositoryIds()).isEmpty();
+  }
+
   @Test
   void shouldIndexCustomPropertyForUpdateEventWithDifferentValue() {
     CustomPropertyUpdateEvent event = new CustomPropertyUpdateEvent(
@@ -130,7 +190,8 @@ class CustomPropertiesIndexerTest {
     );
 
     indexer.handleEvent(event);
-    verify(forType, times(2)).update(captor.capture());
+    indexer.flush();
+    verify(forType, times(1)).update(captor.capture());
 
     captor.getAllValues().forEach(task -> task.update(index));
 
@@ -148,13 +209,14 @@ class CustomPropertiesIndexerTest {
     );
 
     indexer.handleEvent(event);
-    verify(forType, times(2)).update(captor.capture());
+    indexer.flush();
+    verify(forType, times(1)).update(captor.capture());
 
     captor.getAllValues().forEach(task -> task.update(index));
 
     verifyIndexDelete(oldProp.getKey(), "a", repository);
     verifyIndexDelete(oldProp.getKey(), "b", repository);
-    verifyIndexDelete(oldProp.getKey(), "c", repository);
+    verify(deleter, never()).byId(buildIdString(oldProp.getKey(), "c", repository));
 
     verifyIndexStore(newProp.getKey(), "c", repository);
     verifyIndexStore(newProp.getKey(), "d", repository);
@@ -168,7 +230,8 @@ class CustomPropertiesIndexerTest {
     );
 
     indexer.handleEvent(event);
-    verify(forType, times(2)).update(captor.capture());
+    indexer.flush();
+    verify(forType, times(1)).update(captor.capture());
 
     captor.getAllValues().forEach(task -> task.update(index));
 
@@ -186,7 +249,8 @@ class CustomPropertiesIndexerTest {
     );
 
     indexer.handleEvent(event);
-    verify(forType, times(2)).update(captor.capture());
+    indexer.flush();
+    verify(forType, times(1)).update(captor.capture());
 
     captor.getAllValues().forEach(task -> task.update(index));
 
@@ -204,6 +268,7 @@ class CustomPropertiesIndexerTest {
     CustomPropertyDeleteEvent event = new CustomPropertyDeleteEvent(repository, customProperty);
 
     indexer.handleEvent(event);
+    indexer.flush();
     verify(forType, times(1)).update(captor.capture());
 
     SerializableIndexTask<IndexedCustomProperty> task = captor.getValue();
@@ -218,6 +283,7 @@ class CustomPropertiesIndexerTest {
     CustomPropertyDeleteEvent event = new CustomPropertyDeleteEvent(repository, multiple);
 
     indexer.handleEvent(event);
+    indexer.flush();
     verify(forType, times(1)).update(captor.capture());
 
     SerializableIndexTask<IndexedCustomProperty> task = captor.getValue();
@@ -228,6 +294,65 @@ class CustomPropertiesIndexerTest {
     verifyIndexDelete(customProperty.getKey(), "c", repository);
   }
 
+  @Test
+  void shouldIndexAllChangesOfBulkEventWithSingleUpdate() {
+    CustomPropertyBulkEvent event = new CustomPropertyBulkEvent(List.of(
+      new CustomPropertyCreateEvent(repository, new CustomProperty("created", "a")),
+      new CustomPropertyUpdateEvent(repository, new CustomProperty("updated", "new"), new CustomProperty("updated", "old")),
+      new CustomPropertyDeleteEvent(repository, new CustomProperty("deleted", "b"))
+    ));
+
+    indexer.handleEvent(event);
+    indexer.flush();
+    verify(forType, times(1)).update(captor.capture());
+
+    SerializableIndexTask<IndexedCustomProperty> task = captor.getValue();
+    task.update(index);
+
+    verifyIndexStore("created", "a", repository);
+    verifyIndexDelete("updated", "old", repository);
+    verifyIndexStore("updated", "new", repository);
+    verifyIndexDelete("deleted", "b", repository);
+  }
+
+  @Test
+  void shouldWriteBurstOfEventsWithSingleUpdate() {
+    doReturn(mock(ScheduledFuture.class)).when(flushScheduler).schedule(any(Runnable.class), anyLong(), any());
+
+    indexer.handleEvent(new CustomPropertyCreateEvent(repository, new CustomProperty("lang", "java")));
+    indexer.handleEvent(new CustomPropertyCreateEvent(repository, new CustomProperty("license", "MIT")));
+    indexer.handleEvent(new CustomPropertyDeleteEvent(repository, new CustomProperty("lang", "java")));
+
+    verify(flushScheduler).schedule(any(Runnable.class), anyLong(), any());
+    verify(forType, never()).update(any(SerializableIndexTask.class));
+
+    indexer.flush();
+    verify(forType, times(1)).update(captor.capture());
+
+    SerializableIndexTask<IndexedCustomProperty> task = captor.getValue();
+    task.update(index);
+
+    verifyIndexStore("license", "MIT", repository);
+    verifyIndexDelete("lang", "java", repository);
+    verify(index, never()).store(eq(buildIdString("lang", "java", repository)), any(), any());
+  }
+
+  @Test
+  void shouldWriteImmediatelyIfBatchIsFull() {
+    for (int i = 0; i < CustomPropertiesIndexer.MAX_BATCH_SIZE; i++) {
+      indexer.handleEvent(new CustomPropertyCreateEvent(repository, new CustomProperty("key" + i, "value")));
+    }
+
+    verify(forType, times(1)).update(any(SerializableIndexTask.class));
+  }
+
+  @Test
+  void shouldNotWriteWithoutPendingChanges() {
+    indexer.flush();
+
+    verifyNoInteractions(forType);
+  }
+
   @Test
   void shouldReindexRepository() {
     indexer.handleEvent(new ReindexRepositoryEvent(repository));
@@ -258,15 +383,25 @@ class CustomPropertiesIndexerTest {
     @Mock
     private CustomPropertiesService customPropertiesService;
 
+    @Mock
+    private IndexFingerprintStore fingerprintStore;
+
     @Test
     void shouldReindex() {
       when(customPropertiesService.get(repository)).thenReturn(List.of(customProperty));
       CustomPropertiesIndexer.IndexRepositoryTask task = new CustomPropertiesIndexer.IndexRepositoryTask(repository);
       task.setCustomPropertiesService(customPropertiesService);
+      task.setFingerprintStore(fingerprintStore);
+      task.setMetrics(metrics);
 
       task.update(index);
 
       verifyIndexStore(customProperty.getKey(), customProperty.getValue(), repository);
+      verify(fingerprintStore, never()).set(any(), any());
+
+      task.afterUpdate();
+
+      verify(fingerprintStore).set(repository, IndexFingerprintStore.fingerprint(List.of(customProperty)));
     }
   }
 
@@ -276,6 +411,9 @@ class CustomPropertiesIndexerTest {
     @Mock
     private CustomPropertiesService customPropertiesService;
 
+    @Mock
+    private IndexFingerprintStore fingerprintStore;
+
     @Mock
     private Index.DeleteBy deleteBy;
 
@@ -284,6 +422,8 @@ class CustomPropertiesIndexerTest {
       when(customPropertiesService.get(repository)).thenReturn(List.of(customProperty));
       CustomPropertiesIndexer.ReindexRepositoryTask task = new CustomPropertiesIndexer.ReindexRepositoryTask(repository);
       task.setCustomPropertiesService(customPropertiesService);
+      task.setFingerprintStore(fingerprintStore);
+      task.setMetrics(metrics);
       when(deleter.by(Repository.class, repository)).thenReturn(deleteBy);
 
       task.update(index);
@@ -291,6 +431,26 @@ class CustomPropertiesIndexerTest {
       verify(index.delete()).by(Repository.class, repository);
       verify(deleteBy).execute();
       verifyIndexStore(customProperty.getKey(), customProperty.getValue(), repository);
+      verify(fingerprintStore, never()).set(any(), any());
+
+      task.afterUpdate();
+
+      verify(fingerprintStore).set(repository, IndexFingerprintStore.fingerprint(List.of(customProperty)));
+    }
+
+    @Test
+    void shouldNotRecordFingerprintIfUpdateFailed() {
+      when(customPropertiesService.get(repository)).thenThrow(new IllegalStateException("broken store"));
+      CustomPropertiesIndexer.ReindexRepositoryTask task = new CustomPropertiesIndexer.ReindexRepositoryTask(repository);
+      task.setCustomPropertiesService(customPropertiesService);
+      task.setFingerprintStore(fingerprintStore);
+      task.setMetrics(metrics);
+      when(deleter.by(Repository.class, repository)).thenReturn(deleteBy);
+
+      assertThrows(IllegalStateException.class, () -> task.update(index));
+      task.afterUpdate();
+
+      verify(fingerprintStore, never()).set(any(), any());
     }
   }
 
@@ -309,6 +469,12 @@ class CustomPropertiesIndexerTest {
     @Mock
     private IndexLogStore.ForIndex forIndex;
 
+    @Mock
+    private IndexFingerprintStore fingerprintStore;
+
+    @Spy
+    private CustomPropertiesMetrics reindexMetrics = new CustomPropertiesMetrics(new SimpleMeterRegistry());
+
     @InjectMocks
     private CustomPropertiesIndexer.ReindexAllTask task;
 
@@ -326,17 +492,66 @@ class CustomPropertiesIndexerTest {
       verify(index, never()).delete();
     }
 
+    @Test
+    void shouldNotReindexRepositoryWithUnchangedFingerprint() {
+      when(forIndex.get(IndexedCustomProperty.class)).thenReturn(Optional.of(new IndexLog(IndexedCustomProperty.VERSION)));
+      when(repositoryManager.getAll()).thenReturn(List.of(repository));
+      when(customPropertiesService.getStoredProperties(repository)).thenReturn(List.of(customProperty));
+      when(fingerprintStore.get(repository)).thenReturn(Optional.of(IndexFingerprintStore.fingerprint(List.of(customProperty))));
+
+      task.update(index);
+      task.afterUpdate();
+
+      verify(index, never()).delete();
+      verify(index, never()).store(any(), any(), any());
+      verify(fingerprintStore, never()).set(any(), any());
+    }
+
+    @Test
+    void shouldReindexOnlyRepositoriesWithChangedFingerprint() {
+      Repository unchangedRepository = new Repository("2", "git", "hitchhiker", "unchanged");
+      CustomProperty unchangedProperty = new CustomProperty("lang", "java");
+      Index.DeleteBy deleteBy = mock(Index.DeleteBy.class);
+      when(forIndex.get(IndexedCustomProperty.class)).thenReturn(Optional.of(new IndexLog(IndexedCustomProperty.VERSION)));
+      when(repositoryManager.getAll()).thenReturn(List.of(unchangedRepository, repository));
+      when(customPropertiesService.getStoredProperties(unchangedRepository)).thenReturn(List.of(unchangedProperty));
+      when(customPropertiesService.getStoredProperties(repository)).thenReturn(List.of(customProperty));
+      when(fingerprintStore.get(unchangedRepository)).thenReturn(Optional.of(IndexFingerprintStore.fingerprint(List.of(unchangedProperty))));
+      when(fingerprintStore.get(repository)).thenReturn(Optional.empty());
+      when(deleter.by(Repository.class, repository)).thenReturn(deleteBy);
+
+      task.update(index);
+
+      verify(deleter, never()).all();
+      verify(deleter, never()).by(Repository.class, unchangedRepository);
+      verify(deleteBy).execute();
+      verifyIndexStore(customProperty.getKey(), customProperty.getValue(), repository);
+      verify(index, times(1)).store(any(), any(), any());
+      verify(fingerprintStore, never()).set(any(), any());
+
+      task.afterUpdate();
+
+      verify(fingerprintStore).set(repository, IndexFingerprintStore.fingerprint(List.of(customProperty)));
+      verify(fingerprintStore, never()).reset();
+    }
+
     @Test
     void shouldReindexAllIfLogStoreIsEmpty() {
       when(forIndex.get(IndexedCustomProperty.class))
         .thenReturn(Optional.empty());
       when(repositoryManager.getAll()).thenReturn(List.of(repository));
-      when(customPropertiesService.get(repository)).thenReturn(List.of(customProperty));
+      when(customPropertiesService.getStoredProperties(repository)).thenReturn(List.of(customProperty));
 
       task.update(index);
 
+      task.afterUpdate();
+
       verify(deleter).all();
       verifyIndexStore(customProperty.getKey(), customProperty.getValue(), repository);
+      InOrder inOrder = inOrder(fingerprintStore);
+      inOrder.verify(fingerprintStore).reset();
+      inOrder.verify(fingerprintStore).set(repository, IndexFingerprintStore.fingerprint(List.of(customProperty)));
+      verify(fingerprintStore, never()).get(any());
     }
 
     @Test
@@ -344,12 +559,25 @@ class CustomPropertiesIndexerTest {
       when(forIndex.get(IndexedCustomProperty.class))
         .thenReturn(Optional.of(new IndexLog(IndexedCustomProperty.VERSION - 1)));
       when(repositoryManager.getAll()).thenReturn(List.of(repository));
-      when(customPropertiesService.get(repository)).thenReturn(List.of(customProperty));
+      when(customPropertiesService.getStoredProperties(repository)).thenReturn(List.of(customProperty));
 
       task.update(index);
 
       verify(deleter).all();
       verifyIndexStore(customProperty.getKey(), customProperty.getValue(), repository);
     }
+
+    @Test
+    void shouldReindexOtherRepositoriesIfStoreCannotBeRead() {
+      Repository brokenRepository = new Repository("2", "git", "hitchhiker", "broken");
+      when(forIndex.get(IndexedCustomProperty.class)).thenReturn(Optional.empty());
+      when(repositoryManager.getAll()).thenReturn(List.of(brokenRepository, repository));
+      when(customPropertiesService.getStoredProperties(brokenRepository)).thenThrow(new IllegalStateException("broken store"));
+      when(customPropertiesService.getStoredProperties(repository)).thenReturn(List.of(customProperty));
+
+      task.update(index);
+
+      verifyIndexStore(customProperty.getKey(), customProperty.getValue(), repository);
+    }
   }
 }
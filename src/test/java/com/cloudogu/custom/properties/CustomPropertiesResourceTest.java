@@ -21,6 +21,8 @@ import com.cloudogu.custom.properties.config.GlobalConfig;
 import com.cloudogu.custom.properties.config.PredefinedKey;
 import com.cloudogu.custom.properties.config.PredefinedKeyMapperImpl;
 import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.github.sdorra.jse.ShiroExtension;
 import org.github.sdorra.jse.SubjectAware;
 import org.jboss.resteasy.mock.MockHttpRequest;
@@ -46,11 +48,13 @@ import sonia.scm.web.JsonMockHttpRequest;
 import sonia.scm.web.JsonMockHttpResponse;
 import sonia.scm.web.RestDispatcher;
 
+import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.net.URISyntaxException;
 import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.Map;
+import java.util.stream.Stream;
 
 import static jakarta.ws.rs.core.Response.Status.BAD_REQUEST;
 import static jakarta.ws.rs.core.Response.Status.CONFLICT;
@@ -60,8 +64,13 @@ import static jakarta.ws.rs.core.Response.Status.NO_CONTENT;
 import static jakarta.ws.rs.core.Response.Status.OK;
 import static java.lang.String.format;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 @ExtendWith({MockitoExtension.class, ShiroExtension.class})
@@ -94,6 +103,7 @@ class CustomPropertiesResourceTest {
     """;
   private final CustomPropertyMapper customPropertyMapper = new CustomPropertyMapperImpl();
   private final ConfigurationEntryStoreFactory storeFactory = new InMemoryByteConfigurationEntryStoreFactory();
+  private final CustomPropertiesMetrics metrics = new CustomPropertiesMetrics(new SimpleMeterRegistry());
   @Mock
   ScmEventBus eventBus;
   private Repository repository;
@@ -109,7 +119,7 @@ class CustomPropertiesResourceTest {
   @BeforeEach
   void setUp() {
     repository = RepositoryTestData.createHeartOfGold("git");
-    configService = new ConfigService(new InMemoryByteConfigurationStoreFactory());
+    configService = new ConfigService(new InMemoryByteConfigurationStoreFactory(), eventBus, metrics);
 
     RepositoryMapper repositoryMapper = new RepositoryMapperImpl();
     repositoryMapper.setRepositoryLinkProvider(repositoryLinkProvider);
@@ -117,12 +127,13 @@ class CustomPropertiesResourceTest {
 
     CustomPropertiesResource resource = new CustomPropertiesResource(
       repositoryManager,
-      new CustomPropertiesService(storeFactory, configService, eventBus, repositoryManager),
+      new CustomPropertiesService(storeFactory, configService, eventBus, PropertySnapshot.disabled(), metrics),
       configService,
       customPropertyMapper,
       new PredefinedKeyMapperImpl(),
       repositoryMapper,
-      searchService
+      searchService,
+      new ObjectMapper()
     );
 
     dispatcher = new RestDispatcher();
@@ -899,6 +910,91 @@ class CustomPropertiesResourceTest {
     }
   }
 
+  @Nested
+  class Apply {
+
+    private MockHttpResponse invokePatch(String operations) throws URISyntaxException {
+      String uri = format("/v2/custom-properties/%s/%s", repository.getNamespace(), repository.getName());
+      MockHttpRequest request = MockHttpRequest.create("PATCH", uri);
+      request.contentType(CustomPropertiesResource.PROPERTY_OPERATIONS_MEDIA_TYPE);
+      request.content(operations.getBytes(StandardCharsets.UTF_8));
+      MockHttpResponse response = new MockHttpResponse();
+
+      dispatcher.invoke(request, response);
+
+      return response;
+    }
+
+    @Test
+    @SubjectAware(value = "hasReadPermissionsOnly", permissions = "repository:read:*")
+    void shouldReturnUnauthorizedForLackingWritePermissions() throws URISyntaxException {
+      MockHttpResponse response = invokePatch("[]");
+
+      assertThat(response.getStatus()).isEqualTo(FORBIDDEN.getStatusCode());
+    }
+
+    @Test
+    @SubjectAware(value = "hasModifyAndReadPermissions", permissions = {"repository:modify:*", "repository:read:*"})
+    void shouldApplyAllOperationsWithSingleEvent() throws URISyntaxException {
+      DataStore<CustomProperty> store = storeFactory.withType(CustomProperty.class).withName("custom-properties").forRepository(repository).build();
+      store.put("hello", new CustomProperty("hello", "world"));
+      store.put("lorem", new CustomProperty("lorem", "ipsum"));
+
+      MockHttpResponse response = invokePatch("""
+        [
+          {"type": "CREATE", "property": {"key": "ice", "value": "cream"}},
+          {"type": "UPDATE", "key": "hello", "property": {"key": "hello", "value": "welt;monde", "separator": ";"}},
+          {"type": "DELETE", "key": "lorem"}
+        ]
+        """);
+
+      assertThat(response.getStatus()).isEqualTo(NO_CONTENT.getStatusCode());
+      assertThat(store.getAll()).containsOnly(
+        entry("ice", new CustomProperty("ice", "cream")),
+        entry("hello", new CustomProperty("hello", "welt\tmonde"))
+      );
+      verify(eventBus).post(argThat(event -> ((CustomPropertyBulkEvent) event).getChanges().size() == 3));
+    }
+
+    @Test
+    @SubjectAware(value = "hasModifyAndReadPermissions", permissions = {"repository:modify:*", "repository:read:*"})
+    void shouldApplyNoOperationIfOneConflicts() throws URISyntaxException {
+      DataStore<CustomProperty> store = storeFactory.withType(CustomProperty.class).withName("custom-properties").forRepository(repository).build();
+      store.put("hello", new CustomProperty("hello", "world"));
+
+      MockHttpResponse response = invokePatch("""
+        [
+          {"type": "CREATE", "property": {"key": "ice", "value": "cream"}},
+          {"type": "CREATE", "property": {"key": "hello", "value": "monde"}}
+        ]
+        """);
+
+      assertThat(response.getStatus()).isEqualTo(CONFLICT.getStatusCode());
+      assertThat(store.getAll()).containsOnly(entry("hello", new CustomProperty("hello", "world")));
+      verify(eventBus, never()).post(any());
+    }
+
+    @Test
+    @SubjectAware(value = "hasModifyAndReadPermissions", permissions = {"repository:modify:*", "repository:read:*"})
+    void shouldRespondNotFoundIfPropertyToUpdateDoesntExist() throws URISyntaxException {
+      MockHttpResponse response = invokePatch("""
+        [{"type": "UPDATE", "key": "hello", "property": {"key": "hello", "value": "monde"}}]
+        """);
+
+      assertThat(response.getStatus()).isEqualTo(NOT_FOUND.getStatusCode());
+    }
+
+    @Test
+    @SubjectAware(value = "hasModifyAndReadPermissions", permissions = {"repository:modify:*", "repository:read:*"})
+    void shouldRespondBadRequestForIncompleteOperation() throws URISyntaxException {
+      MockHttpResponse response = invokePatch("""
+        [{"type": "UPDATE", "key": "hello"}]
+        """);
+
+      assertThat(response.getStatus()).isEqualTo(BAD_REQUEST.getStatusCode());
+    }
+  }
+
   @Nested
   class FindRepositoriesWithCustomProperties {
 
@@ -1046,6 +1142,129 @@ class CustomPropertiesResourceTest {
       assertRepository(response.getContentAsJson(), repository, expectedSelfLink, false);
     }
 
+    @Test
+    @SubjectAware(value = "Trainer Red")
+    void shouldReturnPageWithNextLink() throws URISyntaxException {
+      GlobalConfig enabledConfig = new GlobalConfig();
+      enabledConfig.setEnabled(true);
+      configService.setGlobalConfig(enabledConfig);
+
+      CustomPropertiesSearchService.Filter expectedFilter = new CustomPropertiesSearchService.Filter(
+        "lang", null, null, false
+      );
+      String expectedSelfLink = String.format("/scm/api/v2/repositories/%s/%s", repository.getNamespace(), repository.getName());
+
+      when(searchService.findRepositoriesWithCustomProperties(expectedFilter, null, 1)).thenReturn(
+        new CustomPropertiesSearchService.Page(
+          List.of(new CustomPropertiesSearchService.RepositoryWithProps(repository, List.of())), true
+        )
+      );
+      when(repositoryLinkProvider.get(repository.getNamespaceAndName())).thenReturn(expectedSelfLink);
+
+      MockHttpRequest request = MockHttpRequest.get("/v2/custom-properties/repositories?key=lang&limit=1");
+      JsonMockHttpResponse response = new JsonMockHttpResponse();
+
+      dispatcher.invoke(request, response);
+
+      assertThat(response.getStatus()).isEqualTo(OK.getStatusCode());
+      JsonNode responseBody = response.getContentAsJson();
+      assertRepository(responseBody.get("_embedded").get("repositories"), repository, expectedSelfLink, false);
+      String nextLink = responseBody.get("_links").get("next").get("href").asText();
+      assertThat(nextLink).contains("key=lang").contains("limit=1").contains("cursor=");
+
+      String cursor = nextLink.substring(nextLink.indexOf("cursor=") + "cursor=".length());
+      when(searchService.findRepositoriesWithCustomProperties(expectedFilter, repository.getNamespaceAndName(), 1)).thenReturn(
+        new CustomPropertiesSearchService.Page(List.of(), false)
+      );
+      MockHttpRequest nextRequest = MockHttpRequest.get("/v2/custom-properties/repositories?key=lang&limit=1&cursor=" + cursor);
+      JsonMockHttpResponse nextResponse = new JsonMockHttpResponse();
+
+      dispatcher.invoke(nextRequest, nextResponse);
+
+      assertThat(nextResponse.getStatus()).isEqualTo(OK.getStatusCode());
+      assertThat(nextResponse.getContentAsJson().get("_links").has("next")).isFalse();
+    }
+
+    @Test
+    @SubjectAware(value = "Trainer Red")
+    void shouldReturnBadRequestForInvalidCursor() throws URISyntaxException {
+      GlobalConfig enabledConfig = new GlobalConfig();
+      enabledConfig.setEnabled(true);
+      configService.setGlobalConfig(enabledConfig);
+
+      MockHttpRequest request = MockHttpRequest.get("/v2/custom-properties/repositories?limit=1&cursor=bm9zbGFzaA");
+      MockHttpResponse response = new MockHttpResponse();
+
+      dispatcher.invoke(request, response);
+
+      assertThat(response.getStatus()).isEqualTo(BAD_REQUEST.getStatusCode());
+    }
+
+    @Test
+    @SubjectAware(value = "Trainer Red")
+    void shouldStreamRepositoriesAsNdjson() throws URISyntaxException, IOException {
+      GlobalConfig enabledConfig = new GlobalConfig();
+      enabledConfig.setEnabled(true);
+      configService.setGlobalConfig(enabledConfig);
+
+      Repository otherRepository = RepositoryTestData.create42Puzzle("git");
+      CustomPropertiesSearchService.Filter expectedFilter = new CustomPropertiesSearchService.Filter(
+        null, null, null, false
+      );
+
+      when(searchService.streamRepositoriesWithCustomProperties(expectedFilter)).thenReturn(Stream.of(
+        new CustomPropertiesSearchService.RepositoryWithProps(otherRepository, List.of()),
+        new CustomPropertiesSearchService.RepositoryWithProps(repository, List.of(new CustomProperty("lang", "java")))
+      ));
+      when(repositoryLinkProvider.get(any())).thenReturn("/scm/api/v2/repositories/hitchhiker/any");
+
+      MockHttpRequest request = MockHttpRequest.get("/v2/custom-properties/repositories?includeProps=true")
+        .accept(CustomPropertiesResource.NDJSON_MEDIA_TYPE);
+      MockHttpResponse response = new MockHttpResponse();
+
+      dispatcher.invoke(request, response);
+
+      assertThat(response.getStatus()).isEqualTo(OK.getStatusCode());
+      assertThat(response.getOutputHeaders().getFirst("Content-Type")).hasToString(CustomPropertiesResource.NDJSON_MEDIA_TYPE);
+      String[] lines = response.getContentAsString().split("\n");
+      assertThat(lines).hasSize(2);
+      ObjectMapper objectMapper = new ObjectMapper();
+      assertThat(objectMapper.readTree(lines[0]).get("name").asText()).isEqualTo(otherRepository.getName());
+      JsonNode secondRepository = objectMapper.readTree(lines[1]);
+      assertThat(secondRepository.get("name").asText()).isEqualTo(repository.getName());
+      assertThat(secondRepository.get("_embedded").get("customProperties").get(0).get("key").asText()).isEqualTo("lang");
+      verify(searchService, never()).findRepositoriesWithCustomProperties(any());
+    }
+
+    @Test
+    @SubjectAware(value = "Trainer Red")
+    void shouldAggregateRepositories() throws URISyntaxException {
+      GlobalConfig enabledConfig = new GlobalConfig();
+      enabledConfig.setEnabled(true);
+      configService.setGlobalConfig(enabledConfig);
+
+      CustomPropertiesSearchService.Filter expectedFilter = new CustomPropertiesSearchService.Filter(
+        null, null, "lang=java", "hitchhiker", true
+      );
+      when(searchService.aggregate(expectedFilter, List.of("team"))).thenReturn(
+        new CustomPropertiesSearchService.Aggregation(42, Map.of("team", Map.of("platform", 40, "portal", 2)))
+      );
+
+      MockHttpRequest request = MockHttpRequest.get(
+        "/v2/custom-properties/aggregation?property=lang%3Djava&excludeArchived=true&namespace=hitchhiker&facet=team"
+      );
+      JsonMockHttpResponse response = new JsonMockHttpResponse();
+
+      dispatcher.invoke(request, response);
+
+      assertThat(response.getStatus()).isEqualTo(OK.getStatusCode());
+      JsonNode responseBody = response.getContentAsJson();
+      assertThat(responseBody.get("count").asInt()).isEqualTo(42);
+      assertThat(responseBody.get("facets").get("team").get("platform").asInt()).isEqualTo(40);
+      assertThat(responseBody.get("facets").get("team").get("portal").asInt()).isEqualTo(2);
+      verify(searchService, never()).findRepositoriesWithCustomProperties(any());
+    }
+
     @Test
     @SubjectAware(value = "Trainer Red")
     void shouldIncludeCustomPropsForResult() throws URISyntaxException {
@@ -16,22 +16,56 @@
 
 package com.cloudogu.custom.properties;
 
+import com.cloudogu.custom.properties.config.ConfigService;
+import com.cloudogu.custom.properties.config.PredefinedKey;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.apache.shiro.authz.UnauthorizedException;
+import org.github.sdorra.jse.ShiroExtension;
+import org.github.sdorra.jse.SubjectAware;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import sonia.scm.event.ScmEventBus;
 import sonia.scm.repository.Repository;
 import sonia.scm.repository.RepositoryManager;
 import sonia.scm.repository.RepositoryTestData;
+import sonia.scm.store.InMemoryByteConfigurationEntryStoreFactory;
+import sonia.scm.web.security.AdministrationContext;
+import sonia.scm.web.security.PrivilegedAction;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.lenient;
-
-@ExtendWith({MockitoExtension.class})
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith({MockitoExtension.class, ShiroExtension.class})
+@SubjectAware(value = "Trainer Red", permissions = "repository:read")
 class CustomPropertiesSearchServiceTest {
 
   private final Repository javaRepo = RepositoryTestData.createHeartOfGold();
@@ -41,7 +75,7 @@ class CustomPropertiesSearchServiceTest {
   private final CustomProperty javaTimeoutProp = new CustomProperty("timeout", "1000");
   private final CustomProperty javaMultipleChoiceProp = new CustomProperty("multiple_choice", "arch\tubuntu\tmint");
   private final List<CustomProperty> javaRepoProps = List.of(
-    javaLangProp, javaPendingReleaseProp, javaVersionProp, javaTimeoutProp, javaMultipleChoiceProp
+    javaLangProp, javaMultipleChoiceProp, javaPendingReleaseProp, javaTimeoutProp, javaVersionProp
   );
   private final Repository goRepo = RepositoryTestData.create42Puzzle();
   private final CustomProperty goLangProp = new CustomProperty("Lang", "Go");
@@ -50,7 +84,7 @@ class CustomPropertiesSearchServiceTest {
   private final CustomProperty goTimeoutProp = new CustomProperty("timeout", "1000");
   private final CustomProperty goMultipleChoiceProp = new CustomProperty("multiple_choice", "debian\tgentoo\tmanjaro");
   private final List<CustomProperty> goRepoProps = List.of(
-    goLangProp, goSonarAnalysisProp, goVersionProp, goTimeoutProp, goMultipleChoiceProp
+    goLangProp, goMultipleChoiceProp, goSonarAnalysisProp, goTimeoutProp, goVersionProp
   );
   private final Repository archivedRepo = RepositoryTestData.createHappyVerticalPeopleTransporter();
   private final CustomProperty archivedLangProp = new CustomProperty("lang", "c");
@@ -59,26 +93,96 @@ class CustomPropertiesSearchServiceTest {
   private final CustomProperty archivedTimeoutProp = new CustomProperty("timeout", "1000");
   private final CustomProperty archivedMultipleChoiceProp = new CustomProperty("multiple_choice", "windows\tunix\tmacOS");
   private final List<CustomProperty> archivedRepoProps = List.of(
-    archivedLangProp, archivedDeprecatedProp, archivedVersionProp, archivedTimeoutProp, archivedMultipleChoiceProp
+    archivedDeprecatedProp, archivedLangProp, archivedMultipleChoiceProp, archivedTimeoutProp, archivedVersionProp
   );
+  private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+  private final CustomPropertiesMetrics metrics = new CustomPropertiesMetrics(meterRegistry);
   @Mock
-  private CustomPropertiesService customPropertiesService;
+  private ConfigService configService;
+  @Mock
+  private ScmEventBus eventBus;
   @Mock
   private RepositoryManager repositoryManager;
+  @Mock
+  private AdministrationContext administrationContext;
+  @Mock
+  private SearchEngineRepositoryQuery searchEngineQuery;
+  private CustomPropertiesService customPropertiesService;
+  private RepositoryPropertyIndex propertyIndex;
   private CustomPropertiesSearchService searchService;
 
   @BeforeEach
   void setup() {
-    searchService = new CustomPropertiesSearchService(customPropertiesService, repositoryManager);
-
+    javaRepo.setId("java");
+    goRepo.setId("go");
+    archivedRepo.setId("archived");
     archivedRepo.setArchived(true);
 
-    lenient().when(customPropertiesService.get(javaRepo)).thenReturn(javaRepoProps);
-    lenient().when(customPropertiesService.get(goRepo)).thenReturn(goRepoProps);
-    lenient().when(customPropertiesService.get(archivedRepo)).thenReturn(archivedRepoProps);
+    InMemoryByteConfigurationEntryStoreFactory storeFactory = new InMemoryByteConfigurationEntryStoreFactory();
+    storeProperties(storeFactory, javaRepo, javaRepoProps);
+    storeProperties(storeFactory, goRepo, goRepoProps);
+    storeProperties(storeFactory, archivedRepo, archivedRepoProps);
+
+    customPropertiesService = new CustomPropertiesService(storeFactory, configService, eventBus, PropertySnapshot.disabled(), metrics);
+    propertyIndex = spy(new RepositoryPropertyIndex(repositoryManager, customPropertiesService, administrationContext));
+    searchService = new CustomPropertiesSearchService(customPropertiesService, repositoryManager, propertyIndex, searchEngineQuery, metrics);
+
+    lenient().doAnswer(invocation -> {
+      invocation.getArgument(0, PrivilegedAction.class).run();
+      return null;
+    }).when(administrationContext).runAsAdmin(any(PrivilegedAction.class));
+    lenient().when(configService.getAllPredefinedKeys("hitchhiker")).thenReturn(Map.of());
 
     List<Repository> allRepos = List.of(javaRepo, goRepo, archivedRepo);
     lenient().when(repositoryManager.getAll()).thenReturn(allRepos);
+    lenient().when(repositoryManager.getAll(any())).thenAnswer(
+      invocation -> allRepos.stream().filter(invocation.getArgument(0)).toList()
+    );
+    lenient().when(repositoryManager.getAllNamespaces()).thenReturn(List.of("hitchhiker"));
+    allRepos.forEach(repository -> lenient().when(repositoryManager.get(repository.getId())).thenReturn(repository));
+  }
+
+  private void storeProperties(InMemoryByteConfigurationEntryStoreFactory storeFactory, Repository repository, List<CustomProperty> properties) {
+    properties.forEach(
+      property -> storeFactory
+        .withType(CustomProperty.class)
+        .withName("custom-properties")
+        .forRepository(repository)
+        .build()
+        .put(property.getKey(), property)
+    );
+  }
+
+  @Test
+  void shouldRecordSearchLatencyAndResultSize() {
+    searchService.findRepositoriesWithCustomProperties(
+      new CustomPropertiesSearchService.Filter("version", null, null, "hitchhiker", true)
+    );
+
+    assertThat(meterRegistry.get(CustomPropertiesMetrics.SEARCH).tags("endpoint", "repositories", "scope", "namespace").timer().count())
+      .isEqualTo(1);
+    assertThat(meterRegistry.get(CustomPropertiesMetrics.SEARCH_RESULTS).tags("endpoint", "repositories", "scope", "namespace").summary().totalAmount())
+      .isEqualTo(2);
+  }
+
+  @Test
+  void shouldEmitFlightRecorderEventForFilterEvaluation(@TempDir Path temp) throws IOException {
+    Path recordingFile = temp.resolve("search.jfr");
+    try (Recording recording = new Recording()) {
+      recording.enable("com.cloudogu.customproperties.SearchFilter").withThreshold(Duration.ZERO);
+      recording.start();
+      searchService.findRepositoriesWithCustomProperties(
+        new CustomPropertiesSearchService.Filter("version", null, null, "hitchhiker", false)
+      );
+      recording.stop();
+      recording.dump(recordingFile);
+    }
+
+    List<RecordedEvent> events = RecordingFile.readAllEvents(recordingFile);
+    assertThat(events).hasSize(1);
+    assertThat(events.get(0).getString("key")).isEqualTo("version");
+    assertThat(events.get(0).getString("namespace")).isEqualTo("hitchhiker");
+    assertThat(events.get(0).getInt("repositoryCount")).isEqualTo(3);
   }
 
   @Test
@@ -88,8 +192,8 @@ class CustomPropertiesSearchServiceTest {
     );
 
     assertThat(result).isEqualTo(List.of(
-      new CustomPropertiesSearchService.RepositoryWithProps(javaRepo, javaRepoProps),
       new CustomPropertiesSearchService.RepositoryWithProps(goRepo, goRepoProps),
+      new CustomPropertiesSearchService.RepositoryWithProps(javaRepo, javaRepoProps),
       new CustomPropertiesSearchService.RepositoryWithProps(archivedRepo, archivedRepoProps)
     ));
   }
@@ -101,8 +205,8 @@ class CustomPropertiesSearchServiceTest {
     );
 
     assertThat(result).isEqualTo(List.of(
-      new CustomPropertiesSearchService.RepositoryWithProps(javaRepo, javaRepoProps),
       new CustomPropertiesSearchService.RepositoryWithProps(goRepo, goRepoProps),
+      new CustomPropertiesSearchService.RepositoryWithProps(javaRepo, javaRepoProps),
       new CustomPropertiesSearchService.RepositoryWithProps(archivedRepo, archivedRepoProps)
     ));
   }
@@ -114,11 +218,90 @@ class CustomPropertiesSearchServiceTest {
     );
 
     assertThat(result).isEqualTo(List.of(
-      new CustomPropertiesSearchService.RepositoryWithProps(javaRepo, javaRepoProps),
-      new CustomPropertiesSearchService.RepositoryWithProps(goRepo, goRepoProps)
+      new CustomPropertiesSearchService.RepositoryWithProps(goRepo, goRepoProps),
+      new CustomPropertiesSearchService.RepositoryWithProps(javaRepo, javaRepoProps)
     ));
   }
 
+  @Test
+  void shouldStreamMatchingRepositories() {
+    try (Stream<CustomPropertiesSearchService.RepositoryWithProps> result = searchService.streamRepositoriesWithCustomProperties(
+      new CustomPropertiesSearchService.Filter("lang", null, null, true)
+    )) {
+      assertThat(result).containsExactly(
+        new CustomPropertiesSearchService.RepositoryWithProps(goRepo, goRepoProps),
+        new CustomPropertiesSearchService.RepositoryWithProps(javaRepo, javaRepoProps)
+      );
+    }
+  }
+
+  @Test
+  void shouldMeasureStreamOnceItIsClosed() {
+    Stream<CustomPropertiesSearchService.RepositoryWithProps> result = searchService.streamRepositoriesWithCustomProperties(
+      new CustomPropertiesSearchService.Filter("lang", null, null, true)
+    );
+    assertThat(meterRegistry.find(CustomPropertiesMetrics.SEARCH).tags("endpoint", "repositories-stream").timer()).isNull();
+
+    try (result) {
+      assertThat(result.limit(1)).hasSize(1);
+    }
+
+    assertThat(meterRegistry.get(CustomPropertiesMetrics.SEARCH).tags("endpoint", "repositories-stream", "scope", "global").timer().count())
+      .isEqualTo(1);
+    assertThat(meterRegistry.get(CustomPropertiesMetrics.SEARCH_RESULTS).tags("endpoint", "repositories-stream", "scope", "global").summary().totalAmount())
+      .isEqualTo(1);
+  }
+
+  @Test
+  void shouldReturnFirstPageWithCursorForNextPage() {
+    CustomPropertiesSearchService.Page page = searchService.findRepositoriesWithCustomProperties(
+      new CustomPropertiesSearchService.Filter(null, null, null, false), null, 2
+    );
+
+    assertThat(page.repositories()).isEqualTo(List.of(
+      new CustomPropertiesSearchService.RepositoryWithProps(goRepo, goRepoProps),
+      new CustomPropertiesSearchService.RepositoryWithProps(javaRepo, javaRepoProps)
+    ));
+    assertThat(page.next()).contains(javaRepo.getNamespaceAndName());
+  }
+
+  @Test
+  void shouldReturnLastPageAfterCursor() {
+    CustomPropertiesSearchService.Page page = searchService.findRepositoriesWithCustomProperties(
+      new CustomPropertiesSearchService.Filter("lang", null, null, false), javaRepo.getNamespaceAndName(), 2
+    );
+
+    assertThat(page.repositories()).isEqualTo(List.of(
+      new CustomPropertiesSearchService.RepositoryWithProps(archivedRepo, archivedRepoProps)
+    ));
+    assertThat(page.next()).isEmpty();
+  }
+
+  @Test
+  void shouldNotReturnCursorIfPageIsExactlyFull() {
+    CustomPropertiesSearchService.Page page = searchService.findRepositoriesWithCustomProperties(
+      new CustomPropertiesSearchService.Filter(null, null, null, true), null, 2
+    );
+
+    assertThat(page.repositories()).hasSize(2);
+    assertThat(page.next()).isEmpty();
+  }
+
+  @Test
+  @SubjectAware(value = "Trainer Red", permissions = "repository:read:java")
+  void shouldNotLoadRepositoriesWithoutReadPermission() {
+    lenient().when(repositoryManager.get("go")).thenThrow(new UnauthorizedException());
+    lenient().when(repositoryManager.get("archived")).thenThrow(new UnauthorizedException());
+
+    Collection<CustomPropertiesSearchService.RepositoryWithProps> result = searchService.findRepositoriesWithCustomProperties(
+      new CustomPropertiesSearchService.Filter("timeout", null, "lang=*", false)
+    );
+
+    assertThat(result)
+      .extracting(CustomPropertiesSearchService.RepositoryWithProps::repository)
+      .containsExactly(javaRepo);
+  }
+
   @Test
   void shouldMatchRepositoriesBasedOnKeys() {
     Collection<CustomPropertiesSearchService.RepositoryWithProps> firstResult = searchService.findRepositoriesWithCustomProperties(
@@ -126,8 +309,8 @@ class CustomPropertiesSearchServiceTest {
     );
 
     assertThat(firstResult).isEqualTo(List.of(
-      new CustomPropertiesSearchService.RepositoryWithProps(javaRepo, javaRepoProps),
       new CustomPropertiesSearchService.RepositoryWithProps(goRepo, goRepoProps),
+      new CustomPropertiesSearchService.RepositoryWithProps(javaRepo, javaRepoProps),
       new CustomPropertiesSearchService.RepositoryWithProps(archivedRepo, archivedRepoProps)
     ));
 
@@ -145,8 +328,8 @@ class CustomPropertiesSearchServiceTest {
       new CustomPropertiesSearchService.Filter("", "true", "", false)
     );
     assertThat(firstResult).isEqualTo(List.of(
-      new CustomPropertiesSearchService.RepositoryWithProps(javaRepo, javaRepoProps),
       new CustomPropertiesSearchService.RepositoryWithProps(goRepo, goRepoProps),
+      new CustomPropertiesSearchService.RepositoryWithProps(javaRepo, javaRepoProps),
       new CustomPropertiesSearchService.RepositoryWithProps(archivedRepo, archivedRepoProps)
     ));
 
@@ -164,8 +347,8 @@ class CustomPropertiesSearchServiceTest {
       new CustomPropertiesSearchService.Filter("", "", "timeout=1000", false)
     );
     assertThat(firstResult).isEqualTo(List.of(
-      new CustomPropertiesSearchService.RepositoryWithProps(javaRepo, javaRepoProps),
       new CustomPropertiesSearchService.RepositoryWithProps(goRepo, goRepoProps),
+      new CustomPropertiesSearchService.RepositoryWithProps(javaRepo, javaRepoProps),
       new CustomPropertiesSearchService.RepositoryWithProps(archivedRepo, archivedRepoProps)
     ));
 
@@ -183,8 +366,8 @@ class CustomPropertiesSearchServiceTest {
       new CustomPropertiesSearchService.Filter("timeout", "1000", "timeout=1000", false)
     );
     assertThat(firstResult).isEqualTo(List.of(
-      new CustomPropertiesSearchService.RepositoryWithProps(javaRepo, javaRepoProps),
       new CustomPropertiesSearchService.RepositoryWithProps(goRepo, goRepoProps),
+      new CustomPropertiesSearchService.RepositoryWithProps(javaRepo, javaRepoProps),
       new CustomPropertiesSearchService.RepositoryWithProps(archivedRepo, archivedRepoProps)
     ));
 
@@ -202,8 +385,8 @@ class CustomPropertiesSearchServiceTest {
       new CustomPropertiesSearchService.Filter("la*", "*1000", "l*g=*", false)
     );
     assertThat(firstResult).isEqualTo(List.of(
-      new CustomPropertiesSearchService.RepositoryWithProps(javaRepo, javaRepoProps),
       new CustomPropertiesSearchService.RepositoryWithProps(goRepo, goRepoProps),
+      new CustomPropertiesSearchService.RepositoryWithProps(javaRepo, javaRepoProps),
       new CustomPropertiesSearchService.RepositoryWithProps(archivedRepo, archivedRepoProps)
     ));
 
@@ -238,8 +421,8 @@ class CustomPropertiesSearchServiceTest {
       new CustomPropertiesSearchService.Filter(null, "m*", null, false)
     );
     assertThat(secondResult).isEqualTo(List.of(
-      new CustomPropertiesSearchService.RepositoryWithProps(javaRepo, javaRepoProps),
       new CustomPropertiesSearchService.RepositoryWithProps(goRepo, goRepoProps),
+      new CustomPropertiesSearchService.RepositoryWithProps(javaRepo, javaRepoProps),
       new CustomPropertiesSearchService.RepositoryWithProps(archivedRepo, archivedRepoProps)
     ));
   }
@@ -274,8 +457,8 @@ class CustomPropertiesSearchServiceTest {
       new CustomPropertiesSearchService.Filter(null, null, "multiple_choice=m*", false)
     );
     assertThat(secondResult).isEqualTo(List.of(
-      new CustomPropertiesSearchService.RepositoryWithProps(javaRepo, javaRepoProps),
       new CustomPropertiesSearchService.RepositoryWithProps(goRepo, goRepoProps),
+      new CustomPropertiesSearchService.RepositoryWithProps(javaRepo, javaRepoProps),
       new CustomPropertiesSearchService.RepositoryWithProps(archivedRepo, archivedRepoProps)
     ));
   }
@@ -296,4 +479,184 @@ class CustomPropertiesSearchServiceTest {
       new CustomPropertiesSearchService.RepositoryWithProps(goRepo, goRepoProps)
     ));
   }
+
+  @Test
+  void shouldCountRepositoriesPerValue() {
+    when(configService.getAllPredefinedKeys("hitchhiker")).thenReturn(Map.of(
+      "deprecated", new PredefinedKey(List.of(), "false")
+    ));
+
+    CustomPropertiesSearchService.Aggregation aggregation = searchService.aggregate(
+      new CustomPropertiesSearchService.Filter(null, null, "timeout=1000", false), List.of("deprecated", "lang", "multiple_choice")
+    );
+
+    assertThat(aggregation.count()).isEqualTo(3);
+    assertThat(aggregation.facets().get("deprecated")).containsOnly(entry("false", 2), entry("true", 1));
+    assertThat(aggregation.facets().get("lang")).containsOnly(entry("c", 1), entry("java", 1));
+    assertThat(aggregation.facets().get("multiple_choice"))
+      .hasSize(9)
+      .containsEntry("ubuntu", 1)
+      .containsEntry("gentoo", 1);
+  }
+
+  @Test
+  void shouldCountOnlyRepositoriesOfNamespace() {
+    CustomPropertiesSearchService.Aggregation aggregation = searchService.aggregate(
+      new CustomPropertiesSearchService.Filter("lang", null, null, "hitchhiker", true), List.of()
+    );
+
+    assertThat(aggregation.count()).isEqualTo(2);
+    assertThat(aggregation.facets()).isEmpty();
+
+    assertThat(searchService.aggregate(
+      new CustomPropertiesSearchService.Filter("lang", null, null, "other", true), List.of("lang")
+    ).count()).isZero();
+  }
+
+  @Test
+  void shouldFindRepositoriesOfMatchingNamespacesOnly() {
+    Repository otherRepo = new Repository("other", "git", "other", "java");
+    when(repositoryManager.getAll(any())).thenAnswer(
+      invocation -> List.of(javaRepo, goRepo, archivedRepo, otherRepo).stream().filter(invocation.getArgument(0)).toList()
+    );
+
+    Collection<CustomPropertiesSearchService.RepositoryWithProps> result = searchService.findRepositoriesWithCustomProperties(
+      new CustomPropertiesSearchService.Filter(null, null, null, "HITCH*", true)
+    );
+
+    assertThat(result)
+      .extracting(CustomPropertiesSearchService.RepositoryWithProps::repository)
+      .containsExactly(goRepo, javaRepo);
+  }
+
+  @Test
+  void shouldNotExpandDefaultPropertiesOfOtherNamespaces() {
+    when(repositoryManager.getAllNamespaces()).thenReturn(List.of("hitchhiker", "other"));
+
+    Collection<CustomPropertiesSearchService.RepositoryWithProps> result = searchService.findRepositoriesWithCustomProperties(
+      new CustomPropertiesSearchService.Filter(null, null, "deprecated=*", "other", false)
+    );
+
+    assertThat(result).isEmpty();
+    verify(configService, never()).getAllPredefinedKeys("hitchhiker");
+  }
+
+  @Test
+  void shouldMatchDefaultPropertiesOfRepositoriesWithoutOwnValue() {
+    when(configService.getAllPredefinedKeys("hitchhiker")).thenReturn(Map.of(
+      "deprecated", new PredefinedKey(List.of(), "false")
+    ));
+
+    Collection<CustomPropertiesSearchService.RepositoryWithProps> result = searchService.findRepositoriesWithCustomProperties(
+      new CustomPropertiesSearchService.Filter(null, null, "deprecated=false", false)
+    );
+
+    assertThat(result)
+      .extracting(CustomPropertiesSearchService.RepositoryWithProps::repository)
+      .containsExactly(goRepo, javaRepo);
+    assertThat(result.iterator().next().props())
+      .contains(new CustomProperty("deprecated", "false", true, false));
+  }
+
+  @Test
+  void shouldReadRepositoriesOfNamespacesWithMatchingDefaultsOnlyOnce() {
+    Repository otherRepo = new Repository("other", "git", "other", "java");
+    when(repositoryManager.getAllNamespaces()).thenReturn(List.of("hitchhiker", "other"));
+    when(repositoryManager.get("other")).thenReturn(otherRepo);
+    when(repositoryManager.getAll(any())).thenAnswer(
+      invocation -> List.of(javaRepo, goRepo, archivedRepo, otherRepo).stream().filter(invocation.getArgument(0)).toList()
+    );
+    when(configService.getAllPredefinedKeys(any())).thenReturn(Map.of(
+      "deprecated", new PredefinedKey(List.of(), "false"),
+      "published", new PredefinedKey(List.of(), "false")
+    ));
+
+    Collection<CustomPropertiesSearchService.RepositoryWithProps> result = searchService.findRepositoriesWithCustomProperties(
+      new CustomPropertiesSearchService.Filter(null, "false", null, false)
+    );
+
+    assertThat(result)
+      .extracting(CustomPropertiesSearchService.RepositoryWithProps::repository)
+      .containsExactlyInAnyOrder(javaRepo, goRepo, archivedRepo, otherRepo);
+    verify(repositoryManager, times(1)).getAll(any());
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  void shouldResolveMostSelectiveClauseAndVerifyOnlyItsCandidates() {
+    Collection<CustomPropertiesSearchService.RepositoryWithProps> result = searchService.findRepositoriesWithCustomProperties(
+      new CustomPropertiesSearchService.Filter("timeout", null, "lang=java", false)
+    );
+
+    assertThat(result)
+      .extracting(CustomPropertiesSearchService.RepositoryWithProps::repository)
+      .containsExactly(javaRepo);
+
+    ArgumentCaptor<Predicate<String>> keyMatcher = ArgumentCaptor.forClass(Predicate.class);
+    verify(propertyIndex).findRepositoryIds(keyMatcher.capture(), any());
+    assertThat(keyMatcher.getValue().test("lang")).isTrue();
+    assertThat(keyMatcher.getValue().test("timeout")).isFalse();
+    verify(propertyIndex, never()).getProperties("go");
+    verify(propertyIndex, never()).getProperties("archived");
+  }
+
+  @Test
+  void shouldVerifyLessSelectiveClausesIncludingDefaults() {
+    when(configService.getAllPredefinedKeys("hitchhiker")).thenReturn(Map.of(
+      "deprecated", new PredefinedKey(List.of(), "false")
+    ));
+
+    Collection<CustomPropertiesSearchService.RepositoryWithProps> result = searchService.findRepositoriesWithCustomProperties(
+      new CustomPropertiesSearchService.Filter("pending_release", "1000", "deprecated=false", false)
+    );
+
+    assertThat(result)
+      .extracting(CustomPropertiesSearchService.RepositoryWithProps::repository)
+      .containsExactly(javaRepo);
+    verify(propertyIndex, never()).getProperties("go");
+  }
+
+  @Test
+  void shouldVerifyCandidatesOfSearchEngineAgainstFilter() {
+    when(searchEngineQuery.findCandidateIds(any(), any())).thenReturn(
+      Optional.of(new HashSet<>(Set.of("java", "go", "archived")))
+    );
+
+    Collection<CustomPropertiesSearchService.RepositoryWithProps> result = searchService.findRepositoriesWithCustomProperties(
+      new CustomPropertiesSearchService.Filter(null, null, "lang=java", false)
+    );
+
+    assertThat(result)
+      .extracting(CustomPropertiesSearchService.RepositoryWithProps::repository)
+      .containsExactly(javaRepo);
+    verify(searchEngineQuery).findCandidateIds(any(), argThat(namespaces -> namespaces.names().equals(List.of("hitchhiker"))));
+  }
+
+  @Test
+  void shouldNotReturnCandidatesOfSearchEngineNotMatchingFilter() {
+    when(searchEngineQuery.findCandidateIds(any(), any())).thenReturn(Optional.of(new HashSet<>(Set.of("go"))));
+
+    Collection<CustomPropertiesSearchService.RepositoryWithProps> result = searchService.findRepositoriesWithCustomProperties(
+      new CustomPropertiesSearchService.Filter(null, null, "lang=java", false)
+    );
+
+    assertThat(result).isEmpty();
+  }
+
+  @Test
+  void shouldFindPropertiesCreatedAfterIndexWasLoaded() {
+    searchService.findRepositoriesWithCustomProperties(new CustomPropertiesSearchService.Filter("lang", null, null, false));
+
+    CustomProperty newProperty = new CustomProperty("team", "platform");
+    customPropertiesService.create(goRepo, newProperty);
+    propertyIndex.handleEvent(new CustomPropertyCreateEvent(goRepo, newProperty));
+
+    Collection<CustomPropertiesSearchService.RepositoryWithProps> result = searchService.findRepositoriesWithCustomProperties(
+      new CustomPropertiesSearchService.Filter(null, null, "team=platform", false)
+    );
+
+    assertThat(result)
+      .extracting(CustomPropertiesSearchService.RepositoryWithProps::repository)
+      .containsExactly(goRepo);
+  }
 }
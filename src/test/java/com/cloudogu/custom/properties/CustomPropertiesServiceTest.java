@@ -19,10 +19,12 @@ package com.cloudogu.custom.properties;
 import com.cloudogu.custom.properties.config.ConfigService;
 import com.cloudogu.custom.properties.config.PredefinedKey;
 import com.cloudogu.custom.properties.config.ValueMode;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.EnumSource;
 import org.mockito.ArgumentCaptor;
@@ -30,29 +32,35 @@ import org.mockito.Captor;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import sonia.scm.AlreadyExistsException;
+import sonia.scm.HandlerEventType;
 import sonia.scm.NotFoundException;
 import sonia.scm.event.ScmEventBus;
 import sonia.scm.repository.Repository;
-import sonia.scm.repository.RepositoryManager;
+import sonia.scm.repository.RepositoryEvent;
 import sonia.scm.repository.RepositoryTestData;
+import sonia.scm.store.ConfigurationEntryStore;
+import sonia.scm.store.ConfigurationEntryStoreFactory;
 import sonia.scm.store.DataStore;
 import sonia.scm.store.InMemoryByteConfigurationEntryStoreFactory;
 
+import java.nio.file.Path;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
-import java.util.stream.Stream;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.assertj.core.api.Assertions.entry;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.CALLS_REAL_METHODS;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.lenient;
-import static org.mockito.Mockito.times;
-import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.verifyNoInteractions;
-import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
 
 @ExtendWith(MockitoExtension.class)
@@ -67,8 +75,7 @@ class CustomPropertiesServiceTest {
   private DataStore<CustomProperty> store;
   @Mock
   private ConfigService configService;
-  @Mock
-  private RepositoryManager repositoryManager;
+  private InMemoryByteConfigurationEntryStoreFactory storeFactory;
   private CustomPropertiesService customPropertiesService;
 
   @BeforeEach
@@ -78,9 +85,9 @@ class CustomPropertiesServiceTest {
 
   @BeforeEach
   void setup() {
-    InMemoryByteConfigurationEntryStoreFactory storeFactory = new InMemoryByteConfigurationEntryStoreFactory();
+    storeFactory = new InMemoryByteConfigurationEntryStoreFactory();
     store = storeFactory.withType(CustomProperty.class).withName("custom-properties").forRepository(repository).build();
-    customPropertiesService = new CustomPropertiesService(storeFactory, configService, eventBus, repositoryManager);
+    customPropertiesService = new CustomPropertiesService(storeFactory, configService, eventBus, PropertySnapshot.disabled(), new CustomPropertiesMetrics(new SimpleMeterRegistry()));
   }
 
   @Nested
@@ -283,95 +290,6 @@ class CustomPropertiesServiceTest {
     }
   }
 
-  @Nested
-  class GetMissingMandatoryProperties {
-
-    @Test
-    void shouldReturnEveryMissingPropertiesFromEachRepository() {
-      Repository otherRepository = RepositoryTestData.create42Puzzle();
-      when(repositoryManager.getAll()).thenReturn(List.of(repository, otherRepository));
-      when(configService.getAllPredefinedKeys(any())).thenReturn(Map.of(
-        "a", new PredefinedKey(List.of(), ValueMode.MANDATORY, ""),
-        "b", new PredefinedKey(List.of(), ValueMode.MANDATORY, ""),
-        "c", new PredefinedKey(List.of("1", "2"), ValueMode.MANDATORY, ""),
-        "d", new PredefinedKey(List.of("3", "4"), ValueMode.MANDATORY, "")
-      ));
-
-      customPropertiesService.create(repository, new CustomProperty("a", "value"));
-      customPropertiesService.create(repository, new CustomProperty("c", "1"));
-
-      customPropertiesService.create(otherRepository, new CustomProperty("b", "value"));
-      customPropertiesService.create(otherRepository, new CustomProperty("c", "1"));
-
-      Map<String, Collection<Repository>> result = customPropertiesService.getMissingMandatoryProperties();
-
-      assertThat(result).containsOnly(
-        entry("a", List.of(otherRepository)),
-        entry("b", List.of(repository)),
-        entry("d", List.of(repository, otherRepository))
-      );
-
-      //getAllPredefinedKeys should be called 5 times in total.
-      //Three times for `repository` because of the two custom property creation and for the check of missing mandatory properties
-      //Two times for `otherRepository` because of the two custom property creation,
-      //but not for the check of missing mandatory properties, because at this point the cache should be used
-      verify(configService, times(5)).getAllPredefinedKeys(namespace);
-      verifyNoMoreInteractions(configService);
-    }
-  }
-
-  @Nested
-  class GetMissingMandatoryPropertiesForNamespace {
-
-    @Test
-    void shouldReturnMissingPropertiesFromEachNamespaceRepositories() {
-      Repository otherRepository = RepositoryTestData.create42Puzzle();
-      otherRepository.setNamespace("Kanto");
-
-      when(repositoryManager.getAll(any())).thenAnswer(
-        invocation -> Stream.of(repository, otherRepository).filter(invocation.getArgument(0)).toList()
-      );
-
-      when(configService.getAllPredefinedKeys(otherRepository.getNamespace())).thenReturn(Map.of(
-        "a", new PredefinedKey(List.of(), ValueMode.MANDATORY, ""),
-        "b", new PredefinedKey(List.of(), ValueMode.MANDATORY, ""),
-        "c", new PredefinedKey(List.of("1", "2"), ValueMode.MANDATORY, ""),
-        "d", new PredefinedKey(List.of("3", "4"), ValueMode.MANDATORY, "")
-      ));
-
-      customPropertiesService.create(otherRepository, new CustomProperty("b", "value"));
-      customPropertiesService.create(otherRepository, new CustomProperty("c", "1"));
-
-      Map<String, Collection<Repository>> result = customPropertiesService.getMissingMandatoryPropertiesForNamespace("Kanto");
-
-      assertThat(result).containsOnly(
-        entry("a", List.of(otherRepository)),
-        entry("d", List.of(otherRepository))
-      );
-    }
-  }
-
-  @Nested
-  class GetMissingMandatoryPropertiesForRepository {
-
-    @Test
-    void shouldReturnMissingMandatoryPropertiesForRepository() {
-      when(configService.getAllPredefinedKeys(namespace)).thenReturn(Map.of(
-        "a", new PredefinedKey(List.of(), ValueMode.MANDATORY, ""),
-        "b", new PredefinedKey(List.of(), ValueMode.MANDATORY, ""),
-        "c", new PredefinedKey(List.of("1", "2"), ValueMode.MANDATORY, ""),
-        "d", new PredefinedKey(List.of("3", "4"), ValueMode.MANDATORY, "")
-      ));
-
-      customPropertiesService.create(repository, new CustomProperty("b", "value"));
-      customPropertiesService.create(repository, new CustomProperty("c", "1"));
-
-      Collection<String> result = customPropertiesService.getMissingMandatoryPropertiesForRepository(repository);
-
-      assertThat(result).containsOnly("a", "d");
-    }
-  }
-
   @Nested
   class CreateCustomPropertyTest {
 
@@ -684,6 +602,76 @@ class CustomPropertiesServiceTest {
     }
   }
 
+  @Nested
+  class ApplyOperationsTest {
+
+    @Test
+    void shouldRejectOperationsWithValueNotAllowedInAnyNamespace() {
+      Repository otherRepository = new Repository("2", "git", "other", "42");
+      when(configService.getAllPredefinedKeys(namespace)).thenReturn(Map.of());
+      when(configService.getAllPredefinedKeys("other")).thenReturn(Map.of(
+        "lang", new PredefinedKey(List.of("Java"))
+      ));
+      List<CustomPropertyOperation> operations = List.of(
+        new CustomPropertyOperation(CustomPropertyOperation.Type.CREATE, null, new CustomProperty("lang", "Go"))
+      );
+
+      assertThatThrownBy(() -> customPropertiesService.validate(List.of(repository, otherRepository), operations))
+        .isInstanceOf(InvalidValueException.class);
+    }
+
+    @Test
+    void shouldPostBulkEventFollowedByEventOfEachChange() {
+      store.put("lang", new CustomProperty("lang", "Java"));
+      store.put("owner", new CustomProperty("owner", "Trillian"));
+
+      customPropertiesService.apply(repository, List.of(
+        new CustomPropertyOperation(CustomPropertyOperation.Type.UPDATE, "lang", new CustomProperty("lang", "Go")),
+        new CustomPropertyOperation(CustomPropertyOperation.Type.DELETE, "owner", null)
+      ));
+
+      List<Object> events = eventCaptor.getAllValues();
+      assertThat(events).hasSize(3);
+      CustomPropertyBulkEvent bulkEvent = (CustomPropertyBulkEvent) events.get(0);
+      assertThat(events.subList(1, 3)).containsExactlyElementsOf(bulkEvent.getChanges());
+      assertThat(events.subList(1, 3)).hasOnlyElementsOfTypes(CustomPropertyDeleteEvent.class, CustomPropertyUpdateEvent.class);
+      assertThat(bulkEvent.getChanges()).allMatch(BasicCustomPropertyEvent::isPartOfBulk);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void shouldRestorePropertiesIfWritingFails() {
+      store.put("lang", new CustomProperty("lang", "Java"));
+      store.put("owner", new CustomProperty("owner", "Trillian"));
+      ConfigurationEntryStore<CustomProperty> failingStore = spy((ConfigurationEntryStore<CustomProperty>) store);
+      doThrow(new IllegalStateException("disk full")).when(failingStore).put(eq("license"), any());
+      ConfigurationEntryStoreFactory failingStoreFactory = mock(ConfigurationEntryStoreFactory.class, CALLS_REAL_METHODS);
+      doReturn(failingStore).when(failingStoreFactory).getStore(any());
+      CustomPropertiesService service = new CustomPropertiesService(
+        failingStoreFactory, configService, eventBus, PropertySnapshot.disabled(), new CustomPropertiesMetrics(new SimpleMeterRegistry())
+      );
+
+      assertThatThrownBy(() -> service.apply(repository, List.of(
+        new CustomPropertyOperation(CustomPropertyOperation.Type.DELETE, "owner", null),
+        new CustomPropertyOperation(CustomPropertyOperation.Type.CREATE, null, new CustomProperty("license", "MIT"))
+      ))).hasMessage("disk full");
+
+      assertThat(store.getAll()).containsOnlyKeys("lang", "owner");
+      verifyNoInteractions(eventBus);
+    }
+
+    @Test
+    void shouldNotValidateDeletions() {
+      when(configService.getAllPredefinedKeys(namespace)).thenReturn(Map.of(
+        "lang", new PredefinedKey(List.of("Java"))
+      ));
+
+      customPropertiesService.validate(List.of(repository), List.of(
+        new CustomPropertyOperation(CustomPropertyOperation.Type.DELETE, "lang", null)
+      ));
+    }
+  }
+
   @Nested
   class DeleteCustomPropertyTest {
 
@@ -706,4 +694,145 @@ class CustomPropertiesServiceTest {
       assertThat(event.getRepository()).isEqualTo(repository);
     }
   }
+
+  @Nested
+  class StoredPropertiesCacheTest {
+
+    @BeforeEach
+    void storeProperty() {
+      store.put("lang", new CustomProperty("lang", "Java"));
+    }
+
+    @Test
+    void shouldNotReadStoreAgainForCachedProperties() {
+      customPropertiesService.getStoredProperties(repository);
+      store.put("license", new CustomProperty("license", "MIT"));
+
+      assertThat(customPropertiesService.getStoredProperties(repository)).containsOnly(new CustomProperty("lang", "Java"));
+    }
+
+    @Test
+    void shouldInvalidateCachedPropertiesOnModification() {
+      customPropertiesService.getStoredProperties(repository);
+
+      customPropertiesService.create(repository, new CustomProperty("license", "MIT"));
+      assertThat(customPropertiesService.getStoredProperties(repository)).containsOnly(
+        new CustomProperty("lang", "Java"), new CustomProperty("license", "MIT")
+      );
+
+      customPropertiesService.delete(repository, "lang");
+      assertThat(customPropertiesService.getStoredProperties(repository)).containsOnly(new CustomProperty("license", "MIT"));
+    }
+
+    @Test
+    void shouldInvalidateCachedPropertiesOnRepositoryDelete() {
+      customPropertiesService.getStoredProperties(repository);
+      store.remove("lang");
+
+      customPropertiesService.handleEvent(new RepositoryEvent(HandlerEventType.DELETE, repository));
+
+      assertThat(customPropertiesService.getStoredProperties(repository)).isEmpty();
+    }
+
+    @Test
+    void shouldShareKeysAndValuesOfDifferentRepositories() {
+      Repository otherRepository = RepositoryTestData.create42Puzzle();
+      storeFactory.withType(CustomProperty.class).withName("custom-properties").forRepository(otherRepository).build()
+        .put("lang", new CustomProperty("lang", "Java"));
+
+      CustomProperty property = customPropertiesService.getStoredProperties(repository).iterator().next();
+      CustomProperty otherProperty = customPropertiesService.getStoredProperties(otherRepository).iterator().next();
+
+      assertThat(otherProperty.getKey()).isSameAs(property.getKey());
+      assertThat(otherProperty.getValue()).isSameAs(property.getValue());
+    }
+
+    @Test
+    void shouldReadImportedPropertiesOnReload() {
+      customPropertiesService.getStoredProperties(repository);
+      store.put("license", new CustomProperty("license", "MIT"));
+
+      assertThat(customPropertiesService.reloadStoredProperties(repository)).hasSize(2);
+    }
+  }
+
+  @Nested
+  class PropertySnapshotTest {
+
+    private final Repository otherRepository = RepositoryTestData.create42Puzzle();
+
+    private PropertySnapshot snapshot;
+
+    @BeforeEach
+    void createServiceWithSnapshot(@TempDir Path directory) {
+      snapshot = new PropertySnapshot(directory.resolve("properties.snapshot"));
+      customPropertiesService = createService();
+    }
+
+    private CustomPropertiesService createService() {
+      return new CustomPropertiesService(
+        storeFactory, configService, eventBus, snapshot, new CustomPropertiesMetrics(new SimpleMeterRegistry()),
+        10_000, 0, Runnable::run
+      );
+    }
+
+    @Test
+    void shouldReadOnlyStoresOfRepositoriesMissingInSnapshot() {
+      customPropertiesService.create(repository, new CustomProperty("lang", "Java"));
+      // modified behind the back of the service, so that a read of the store would be noticed
+      store.put("license", new CustomProperty("license", "MIT"));
+      storeFactory.withType(CustomProperty.class).withName("custom-properties").forRepository(otherRepository).build()
+        .put("lang", new CustomProperty("lang", "Go"));
+
+      Map<String, Collection<CustomProperty>> properties = createService().getAllStoredProperties(List.of(repository, otherRepository));
+
+      assertThat(properties.get(repository.getId())).containsOnly(new CustomProperty("lang", "Java"));
+      assertThat(properties.get(otherRepository.getId())).containsOnly(new CustomProperty("lang", "Go"));
+      assertThat(snapshot.read()).containsOnlyKeys(repository.getId(), otherRepository.getId());
+    }
+
+    @Test
+    void shouldCorrectSnapshotDifferingFromStores() {
+      customPropertiesService.create(repository, new CustomProperty("lang", "Java"));
+      // modified while the server was down
+      store.put("license", new CustomProperty("license", "MIT"));
+
+      createService().getAllStoredProperties(List.of(repository));
+
+      assertThat(eventCaptor.getValue()).isInstanceOfSatisfying(
+        CustomPropertySnapshotCorrectedEvent.class, event -> assertThat(event.getRepository()).isEqualTo(repository)
+      );
+      assertThat(snapshot.read().get(repository.getId())).containsOnly(
+        new CustomProperty("lang", "Java"), new CustomProperty("license", "MIT")
+      );
+    }
+
+    @Test
+    void shouldNotCorrectSnapshotMatchingStores() {
+      customPropertiesService.create(repository, new CustomProperty("lang", "Java"));
+
+      createService().getAllStoredProperties(List.of(repository));
+
+      assertThat(eventCaptor.getAllValues()).noneMatch(CustomPropertySnapshotCorrectedEvent.class::isInstance);
+    }
+
+    @Test
+    void shouldRemoveDeletedRepositoryFromSnapshot() {
+      customPropertiesService.create(repository, new CustomProperty("lang", "Java"));
+
+      customPropertiesService.handleEvent(new RepositoryEvent(HandlerEventType.DELETE, repository));
+
+      assertThat(snapshot.read()).isEmpty();
+    }
+
+    @Test
+    void shouldRemoveRepositoryFromSnapshotIfModificationFails() {
+      customPropertiesService.create(repository, new CustomProperty("lang", "Java"));
+
+      assertThatThrownBy(() -> customPropertiesService.create(repository, new CustomProperty("lang", "Go")))
+        .isInstanceOf(AlreadyExistsException.class);
+
+      assertThat(snapshot.read()).isEmpty();
+    }
+  }
 }
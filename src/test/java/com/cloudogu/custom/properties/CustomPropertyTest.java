@@ -0,0 +1,54 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package com.cloudogu.custom.properties;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CustomPropertyTest {
+
+  @Test
+  void shouldLowerKeyAndSplitValueOnce() {
+    CustomProperty property = new CustomProperty("Lang", "Java\tGo");
+
+    assertThat(property.loweredKey()).isEqualTo("lang");
+    assertThat(property.loweredValues()).containsExactly("java", "go");
+    assertThat(property.loweredValues()).isSameAs(property.loweredValues());
+  }
+
+  @Test
+  void shouldDropLoweredFormsOfReplacedKeyAndValue() {
+    CustomProperty property = new CustomProperty("Lang", "Java");
+    property.loweredKey();
+    property.loweredValues();
+
+    property.setKey("License");
+    property.setValue("MIT");
+
+    assertThat(property.loweredKey()).isEqualTo("license");
+    assertThat(property.loweredValues()).containsExactly("mit");
+  }
+
+  @Test
+  void shouldIgnoreLoweredFormsForEquality() {
+    CustomProperty matched = new CustomProperty("Lang", "Java");
+    matched.loweredValues();
+
+    assertThat(matched).isEqualTo(new CustomProperty("Lang", "Java")).hasSameHashCodeAs(new CustomProperty("Lang", "Java"));
+  }
+}
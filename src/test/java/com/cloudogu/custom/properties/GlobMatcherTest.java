@@ -0,0 +1,58 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package com.cloudogu.custom.properties;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class GlobMatcherTest {
+
+  @Test
+  void shouldMatchLiteralPatternCaseInsensitive() {
+    GlobMatcher matcher = GlobMatcher.compile("Java");
+
+    assertThat(matcher.isLiteral()).isTrue();
+    assertThat(matcher.getLiteral()).isEqualTo("java");
+    assertThat(matcher.test("java")).isTrue();
+    assertThat(matcher.test("javascript")).isFalse();
+  }
+
+  @Test
+  void shouldMatchPrefixPattern() {
+    GlobMatcher matcher = GlobMatcher.compile("1.*");
+
+    assertThat(matcher.isLiteral()).isFalse();
+    assertThat(matcher.test("1.0")).isTrue();
+    assertThat(matcher.test("1.")).isTrue();
+    assertThat(matcher.test("10")).isFalse();
+  }
+
+  @Test
+  void shouldMatchEverythingWithSingleWildcard() {
+    assertThat(GlobMatcher.compile("*").test("anything")).isTrue();
+  }
+
+  @Test
+  void shouldMatchOtherPatternsLikeGlob() {
+    GlobMatcher matcher = GlobMatcher.compile("*Script?");
+
+    assertThat(matcher.test("typescripts")).isTrue();
+    assertThat(matcher.test("javascript")).isFalse();
+    assertThat(matcher.test("script.")).isTrue();
+  }
+}
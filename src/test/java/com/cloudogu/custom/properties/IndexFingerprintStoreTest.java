@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package com.cloudogu.custom.properties;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import sonia.scm.repository.Repository;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class IndexFingerprintStoreTest {
+
+  private final Repository repository = new Repository("1", "git", "hitchhiker", "42");
+
+  private Path directory;
+  private IndexFingerprintStore fingerprintStore;
+
+  @BeforeEach
+  void setUp(@TempDir Path temp) {
+    directory = temp.resolve("fingerprints");
+    fingerprintStore = new IndexFingerprintStore(directory);
+  }
+
+  @Test
+  void shouldBeEmptyForUnindexedRepository() {
+    assertThat(fingerprintStore.get(repository)).isEmpty();
+  }
+
+  @Test
+  void shouldStoreFingerprint() {
+    fingerprintStore.set(repository, "abc");
+
+    assertThat(fingerprintStore.get(repository)).contains("abc");
+  }
+
+  @Test
+  void shouldDiscardFingerprintsOnReset() {
+    fingerprintStore.set(repository, "abc");
+
+    fingerprintStore.reset();
+
+    assertThat(fingerprintStore.get(repository)).isEmpty();
+  }
+
+  @Test
+  void shouldIgnoreFingerprintsOfOtherIndexVersion() throws IOException {
+    fingerprintStore.set(repository, "abc");
+    Files.writeString(directory.resolve("version"), Integer.toString(IndexedCustomProperty.VERSION - 1));
+
+    assertThat(new IndexFingerprintStore(directory).get(repository)).isEmpty();
+  }
+
+  @Test
+  void shouldIgnoreFingerprintsWithoutIndexVersion() throws IOException {
+    Files.createDirectories(directory);
+    Files.writeString(directory.resolve(repository.getId()), "abc");
+
+    assertThat(fingerprintStore.get(repository)).isEmpty();
+  }
+
+  @Test
+  void shouldKeepFingerprintsForNextStart() {
+    fingerprintStore.set(repository, "abc");
+
+    assertThat(new IndexFingerprintStore(directory).get(repository)).contains("abc");
+  }
+
+  @Test
+  void shouldIgnoreOrderOfProperties() {
+    String fingerprint = IndexFingerprintStore.fingerprint(List.of(new CustomProperty("a", "1"), new CustomProperty("b", "2")));
+
+    assertThat(IndexFingerprintStore.fingerprint(List.of(new CustomProperty("b", "2"), new CustomProperty("a", "1"))))
+      .isEqualTo(fingerprint);
+  }
+
+  @Test
+  void shouldDifferForChangedValue() {
+    assertThat(IndexFingerprintStore.fingerprint(List.of(new CustomProperty("a", "1"))))
+      .isNotEqualTo(IndexFingerprintStore.fingerprint(List.of(new CustomProperty("a", "2"))))
+      .isNotEqualTo(IndexFingerprintStore.fingerprint(List.of(new CustomProperty("a1", ""))));
+  }
+}
@@ -46,12 +46,12 @@ class MandatoryPropertiesResourceTest {
   private final Repository pewterCity = new Repository("1", "git", "Kanto", "Pewter_City");
 
   @Mock
-  private CustomPropertiesService customPropertiesService;
+  private MissingMandatoryPropertiesIndex missingMandatoryPropertiesIndex;
   private RestDispatcher dispatcher;
 
   @BeforeEach
   void setUp() {
-    MandatoryPropertiesResource resource = new MandatoryPropertiesResource(customPropertiesService);
+    MandatoryPropertiesResource resource = new MandatoryPropertiesResource(missingMandatoryPropertiesIndex);
     dispatcher = new RestDispatcher();
     dispatcher.addSingletonResource(resource);
   }
@@ -73,7 +73,7 @@ class MandatoryPropertiesResourceTest {
     @Test
     @SubjectAware(permissions = {"configuration:read,write:customProperties"})
     void shouldReturnAllMissingMandatoryProperties() throws URISyntaxException {
-      when(customPropertiesService.getMissingMandatoryProperties()).thenReturn(Map.of(
+      when(missingMandatoryPropertiesIndex.getMissingMandatoryProperties()).thenReturn(Map.of(
         "gym", List.of(viridianCity, pewterCity)
       ));
 
@@ -106,7 +106,7 @@ class MandatoryPropertiesResourceTest {
     @Test
     @SubjectAware(permissions = {"namespace:customProperties:Kanto"})
     void shouldReturnAllMissingMandatoryProperties() throws URISyntaxException {
-      when(customPropertiesService.getMissingMandatoryPropertiesForNamespace("Kanto")).thenReturn(Map.of(
+      when(missingMandatoryPropertiesIndex.getMissingMandatoryPropertiesForNamespace("Kanto")).thenReturn(Map.of(
         "gym", List.of(viridianCity, pewterCity)
       ));
 
@@ -0,0 +1,236 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package com.cloudogu.custom.properties;
+
+import com.cloudogu.custom.properties.config.ConfigChangedEvent;
+import com.cloudogu.custom.properties.config.ConfigService;
+import com.cloudogu.custom.properties.config.PredefinedKey;
+import com.cloudogu.custom.properties.config.ValueMode;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.github.sdorra.jse.ShiroExtension;
+import org.github.sdorra.jse.SubjectAware;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import sonia.scm.HandlerEventType;
+import sonia.scm.event.ScmEventBus;
+import sonia.scm.repository.Repository;
+import sonia.scm.repository.RepositoryEvent;
+import sonia.scm.repository.RepositoryManager;
+import sonia.scm.repository.RepositoryTestData;
+import sonia.scm.store.DataStore;
+import sonia.scm.store.InMemoryByteConfigurationEntryStoreFactory;
+import sonia.scm.web.security.AdministrationContext;
+import sonia.scm.web.security.PrivilegedAction;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.when;
+
+@ExtendWith({MockitoExtension.class, ShiroExtension.class})
+@SubjectAware(value = "Trainer Red", permissions = "repository:read")
+class MissingMandatoryPropertiesIndexTest {
+
+  private final Repository repository = RepositoryTestData.createHeartOfGold();
+  private final Repository otherRepository = RepositoryTestData.create42Puzzle();
+
+  private final CustomPropertiesMetrics metrics = new CustomPropertiesMetrics(new SimpleMeterRegistry());
+  @Mock
+  private ScmEventBus eventBus;
+  @Mock
+  private ConfigService configService;
+  @Mock
+  private RepositoryManager repositoryManager;
+  @Mock
+  private AdministrationContext administrationContext;
+
+  private CustomPropertiesService customPropertiesService;
+  private MissingMandatoryPropertiesIndex index;
+
+  @BeforeEach
+  void setUp() {
+    repository.setId("1");
+    otherRepository.setId("2");
+    otherRepository.setNamespace("Kanto");
+
+    lenient().doAnswer(invocation -> {
+      invocation.getArgument(0, PrivilegedAction.class).run();
+      return null;
+    }).when(administrationContext).runAsAdmin(any(PrivilegedAction.class));
+    lenient().when(repositoryManager.getAll()).thenReturn(List.of(repository, otherRepository));
+    lenient().when(repositoryManager.get("1")).thenReturn(repository);
+    lenient().when(repositoryManager.get("2")).thenReturn(otherRepository);
+    lenient().when(configService.getAllPredefinedKeys(any())).thenReturn(Map.of(
+      "a", new PredefinedKey(List.of(), ValueMode.MANDATORY, ""),
+      "b", new PredefinedKey(List.of(), ValueMode.MANDATORY, ""),
+      "c", new PredefinedKey(List.of("1", "2"), ValueMode.MANDATORY, ""),
+      "d", new PredefinedKey(List.of("3", "4"), ValueMode.MANDATORY, ""),
+      "lang", new PredefinedKey(List.of())
+    ));
+
+    customPropertiesService = new CustomPropertiesService(new InMemoryByteConfigurationEntryStoreFactory(), configService, eventBus, PropertySnapshot.disabled(), metrics);
+    RepositoryPropertyIndex propertyIndex = new RepositoryPropertyIndex(repositoryManager, customPropertiesService, administrationContext);
+    index = new MissingMandatoryPropertiesIndex(repositoryManager, configService, customPropertiesService, propertyIndex, administrationContext, metrics);
+
+    customPropertiesService.create(repository, new CustomProperty("a", "value"));
+    customPropertiesService.create(repository, new CustomProperty("c", "1"));
+    customPropertiesService.create(otherRepository, new CustomProperty("b", "value"));
+    customPropertiesService.create(otherRepository, new CustomProperty("c", "1"));
+  }
+
+  @Test
+  void shouldReturnEveryMissingPropertiesFromEachRepository() {
+    Map<String, Collection<Repository>> result = index.getMissingMandatoryProperties();
+
+    assertThat(result).containsOnly(
+      entry("a", List.of(otherRepository)),
+      entry("b", List.of(repository)),
+      entry("d", List.of(otherRepository, repository))
+    );
+  }
+
+  @Test
+  void shouldReturnMissingPropertiesFromEachNamespaceRepositories() {
+    Map<String, Collection<Repository>> result = index.getMissingMandatoryPropertiesForNamespace("Kanto");
+
+    assertThat(result).containsOnly(
+      entry("a", List.of(otherRepository)),
+      entry("d", List.of(otherRepository))
+    );
+  }
+
+  @Test
+  void shouldReturnMissingMandatoryPropertiesForRepository() {
+    assertThat(index.getMissingMandatoryPropertiesForRepository(repository)).containsExactly("b", "d");
+  }
+
+  @Test
+  void shouldUpdateMissingPropertiesOnPropertyEvents() {
+    index.getMissingMandatoryPropertiesForRepository(repository);
+
+    customPropertiesService.create(repository, new CustomProperty("b", "value"));
+    index.handleEvent(new CustomPropertyCreateEvent(repository, new CustomProperty("b", "value")));
+    customPropertiesService.delete(repository, "a");
+    index.handleEvent(new CustomPropertyDeleteEvent(repository, new CustomProperty("a", "value")));
+    customPropertiesService.create(repository, new CustomProperty("lang", "Java"));
+    customPropertiesService.update(repository, "lang", new CustomProperty("d", "3"));
+    index.handleEvent(new CustomPropertyUpdateEvent(repository, new CustomProperty("d", "3"), new CustomProperty("lang", "Java")));
+
+    assertThat(index.getMissingMandatoryPropertiesForRepository(repository)).containsExactly("a");
+  }
+
+  @Test
+  void shouldRecomputeRepositoryFromStoreRegardlessOfEventOrder() {
+    index.getMissingMandatoryPropertiesForRepository(repository);
+
+    customPropertiesService.delete(repository, "a");
+    customPropertiesService.create(repository, new CustomProperty("a", "other value"));
+    index.handleEvent(new CustomPropertyCreateEvent(repository, new CustomProperty("a", "other value")));
+    index.handleEvent(new CustomPropertyDeleteEvent(repository, new CustomProperty("a", "value")));
+
+    assertThat(index.getMissingMandatoryPropertiesForRepository(repository)).containsExactly("b", "d");
+  }
+
+  @Test
+  void shouldRecomputeRepositoryOfCorrectedSnapshot(@TempDir Path directory) {
+    Path snapshotFile = directory.resolve("properties.snapshot");
+    PropertySnapshot outdatedSnapshot = new PropertySnapshot(snapshotFile);
+    outdatedSnapshot.put(repository.getId(), List.of(new CustomProperty("a", "value"), new CustomProperty("c", "1")));
+    outdatedSnapshot.put(otherRepository.getId(), List.of(new CustomProperty("b", "value"), new CustomProperty("c", "1")));
+    outdatedSnapshot.close();
+    // the store has been changed, while the server was down
+    InMemoryByteConfigurationEntryStoreFactory storeFactory = new InMemoryByteConfigurationEntryStoreFactory();
+    DataStore<CustomProperty> store = storeFactory.withType(CustomProperty.class).withName("custom-properties").forRepository(repository).build();
+    List.of("a", "b", "c", "d").forEach(key -> store.put(key, new CustomProperty(key, "3")));
+    storeFactory.withType(CustomProperty.class).withName("custom-properties").forRepository(otherRepository).build()
+      .put("b", new CustomProperty("b", "value"));
+
+    List<Runnable> verifications = new ArrayList<>();
+    CustomPropertiesService service = new CustomPropertiesService(
+      storeFactory, configService, eventBus, new PropertySnapshot(snapshotFile), metrics, 10_000, 0, verifications::add
+    );
+    RepositoryPropertyIndex propertyIndex = new RepositoryPropertyIndex(repositoryManager, service, administrationContext);
+    MissingMandatoryPropertiesIndex correctedIndex = new MissingMandatoryPropertiesIndex(
+      repositoryManager, configService, service, propertyIndex, administrationContext, metrics
+    );
+    doAnswer(invocation -> {
+      CustomPropertySnapshotCorrectedEvent event = invocation.getArgument(0);
+      propertyIndex.handleEvent(event);
+      correctedIndex.handleEvent(event);
+      return null;
+    }).when(eventBus).post(any(CustomPropertySnapshotCorrectedEvent.class));
+
+    assertThat(correctedIndex.getMissingMandatoryPropertiesForRepository(repository)).containsExactly("b", "d");
+
+    verifications.forEach(Runnable::run);
+
+    assertThat(correctedIndex.getMissingMandatoryPropertiesForRepository(repository)).isEmpty();
+    assertThat(correctedIndex.getMissingMandatoryPropertiesForRepository(otherRepository)).containsExactly("a", "c", "d");
+  }
+
+  @Test
+  void shouldRecomputeNamespaceOnConfigChange() {
+    index.getMissingMandatoryPropertiesForRepository(repository);
+
+    when(configService.getAllPredefinedKeys("hitchhiker")).thenReturn(Map.of(
+      "e", new PredefinedKey(List.of(), ValueMode.MANDATORY, "")
+    ));
+    index.handleEvent(new ConfigChangedEvent("hitchhiker"));
+
+    assertThat(index.getMissingMandatoryPropertiesForRepository(repository)).containsExactly("e");
+    assertThat(index.getMissingMandatoryPropertiesForRepository(otherRepository)).containsExactly("a", "d");
+  }
+
+  @Test
+  void shouldMoveRepositoryToOtherNamespace() {
+    index.getMissingMandatoryPropertiesForRepository(repository);
+
+    repository.setNamespace("Kanto");
+    index.handleEvent(new RepositoryEvent(HandlerEventType.MODIFY, repository));
+
+    assertThat(index.getMissingMandatoryPropertiesForNamespace("hitchhiker")).isEmpty();
+    assertThat(index.getMissingMandatoryPropertiesForNamespace("Kanto")).containsOnly(
+      entry("a", List.of(otherRepository)),
+      entry("b", List.of(repository)),
+      entry("d", List.of(otherRepository, repository))
+    );
+  }
+
+  @Test
+  void shouldRemoveDeletedRepository() {
+    index.getMissingMandatoryPropertiesForRepository(repository);
+
+    index.handleEvent(new RepositoryEvent(HandlerEventType.DELETE, otherRepository));
+
+    assertThat(index.getMissingMandatoryProperties()).containsOnly(
+      entry("b", List.of(repository)),
+      entry("d", List.of(repository))
+    );
+  }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+
+package com.cloudogu.custom.properties;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
+
+class PropertySnapshotTest {
+
+  private Path file;
+  private PropertySnapshot snapshot;
+
+  @BeforeEach
+  void setUp(@TempDir Path directory) {
+    file = directory.resolve("custom-properties").resolve("properties.snapshot");
+    snapshot = new PropertySnapshot(file);
+  }
+
+  @Test
+  void shouldBeEmptyWithoutFile() {
+    assertThat(snapshot.read()).isEmpty();
+  }
+
+  @Test
+  void shouldReadLastRecordOfEachRepository() {
+    snapshot.put("1", List.of(new CustomProperty("lang", "Java")));
+    snapshot.put("2", List.of(new CustomProperty("lang", "Go"), new CustomProperty("license", "MIT")));
+    snapshot.put("1", List.of(new CustomProperty("lang", "Java\tKotlin")));
+    snapshot.put("3", List.of());
+    snapshot.remove("2");
+
+    assertThat(snapshot.read()).containsOnly(
+      entry("1", List.of(new CustomProperty("lang", "Java\tKotlin"))),
+      entry("3", List.of())
+    );
+  }
+
+  @Test
+  void shouldAppendPendingRecordsBeforeReadingAndClosing() {
+    List<Runnable> scheduledWrites = new ArrayList<>();
+    PropertySnapshot deferred = new PropertySnapshot(file, scheduledWrites::add);
+    deferred.put("1", List.of(new CustomProperty("lang", "Java")));
+    deferred.put("2", List.of(new CustomProperty("lang", "Go")));
+
+    assertThat(scheduledWrites).hasSize(1);
+    assertThat(deferred.read()).containsOnlyKeys("1", "2");
+
+    deferred.put("3", List.of());
+    deferred.close();
+
+    assertThat(new PropertySnapshot(file).read()).containsOnlyKeys("1", "2", "3");
+  }
+
+  @Test
+  void shouldContinueCleanlyClosedFile() {
+    snapshot.put("1", List.of(new CustomProperty("lang", "Java")));
+    snapshot.close();
+
+    PropertySnapshot restarted = new PropertySnapshot(file);
+    restarted.put("2", List.of(new CustomProperty("lang", "Go")));
+
+    assertThat(restarted.read()).containsOnlyKeys("1", "2");
+  }
+
+  @Test
+  void shouldDiscardFileWhichHasNotBeenClosed() {
+    snapshot.put("1", List.of(new CustomProperty("lang", "Java")));
+
+    assertThat(new PropertySnapshot(file).read()).isEmpty();
+  }
+
+  @Test
+  void shouldDiscardFileWithUnknownFormat() throws IOException {
+    Files.createDirectories(file.getParent());
+    Files.writeString(file, "lang=Java");
+
+    assertThat(snapshot.read()).isEmpty();
+  }
+
+  @Test
+  void shouldCompactGrownLog() throws IOException {
+    String value = "x".repeat(10_000);
+    for (int i = 0; i < 250; i++) {
+      snapshot.put("1", List.of(new CustomProperty("lang", value + i)));
+    }
+
+    assertThat(Files.size(file)).isLessThan(1024 * 1024);
+    assertThat(snapshot.read()).containsOnly(entry("1", List.of(new CustomProperty("lang", value + 249))));
+  }
+
+  @Test
+  void shouldDoNothingIfDisabled() {
+    PropertySnapshot disabled = PropertySnapshot.disabled();
+
+    disabled.put("1", List.of(new CustomProperty("lang", "Java")));
+
+    assertThat(disabled.read()).isEmpty();
+  }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+
+package com.cloudogu.custom.properties;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
+
+class PropertyTableTest {
+
+  private PropertyTable table;
+
+  @BeforeEach
+  void buildTable() throws IOException {
+    Map<String, List<CustomProperty>> properties = new LinkedHashMap<>();
+    properties.put("1", List.of(new CustomProperty("Lang", "Java\tGo"), new CustomProperty("license", "MIT")));
+    properties.put("2", List.of(new CustomProperty("lang", "Rust")));
+    properties.put("3", List.of());
+    properties.put("4", List.of(new CustomProperty("Lang", "Go"), new CustomProperty("owner", "Zaphod")));
+    table = PropertyTable.build(properties);
+  }
+
+  private Predicate<String> equalTo(String expected) {
+    return expected::equals;
+  }
+
+  @Test
+  void shouldOmitRepositoriesWithoutProperties() {
+    assertThat(table.getRepositoryCount()).isEqualTo(3);
+    assertThat(table.getProperties("3")).isEmpty();
+  }
+
+  @Test
+  void shouldFindRepositoriesByLoweredKeyAndValues() {
+    assertThat(table.findRepositoryIds(equalTo("lang"), List.of(), Set.of())).containsOnly("1", "2", "4");
+    assertThat(table.findRepositoryIds(equalTo("lang"), List.of(equalTo("go")), Set.of())).containsOnly("1", "4");
+    assertThat(table.findRepositoryIds(key -> true, List.of(equalTo("java"), equalTo("go")), Set.of())).containsOnly("1");
+    assertThat(table.findRepositoryIds(key -> true, List.of(equalTo("java"), equalTo("mit")), Set.of())).isEmpty();
+    assertThat(table.findRepositoryIds(equalTo("unknown"), List.of(), Set.of())).isEmpty();
+  }
+
+  @Test
+  void shouldExcludeRepositories() {
+    assertThat(table.findRepositoryIds(equalTo("lang"), List.of(equalTo("go")), Set.of("4"))).containsOnly("1");
+  }
+
+  @Test
+  void shouldEstimateRepositoryCountFromRowCounts() {
+    assertThat(table.estimateRepositoryCount(equalTo("lang"), List.of())).isEqualTo(3);
+    assertThat(table.estimateRepositoryCount(equalTo("lang"), List.of(equalTo("go")))).isEqualTo(2);
+    assertThat(table.estimateRepositoryCount(equalTo("license"), List.of(equalTo("rust")))).isZero();
+  }
+
+  @Test
+  void shouldReturnPropertiesWithOriginalCase() {
+    assertThat(table.getProperties("1")).containsExactly(
+      new CustomProperty("Lang", "Java\tGo"), new CustomProperty("license", "MIT")
+    );
+    assertThat(table.hasProperty("4", "owner")).isTrue();
+    assertThat(table.hasProperty("4", "license")).isFalse();
+    assertThat(table.hasProperty("5", "owner")).isFalse();
+  }
+
+  @Test
+  void shouldIterateAllRepositories() {
+    Map<String, List<CustomProperty>> properties = new HashMap<>();
+
+    table.forEachRepository(properties::put);
+
+    assertThat(properties).containsOnly(
+      entry("1", List.of(new CustomProperty("Lang", "Java\tGo"), new CustomProperty("license", "MIT"))),
+      entry("2", List.of(new CustomProperty("lang", "Rust"))),
+      entry("4", List.of(new CustomProperty("Lang", "Go"), new CustomProperty("owner", "Zaphod")))
+    );
+  }
+}
@@ -20,6 +20,7 @@ import com.cloudogu.custom.properties.config.ConfigService;
 import com.cloudogu.custom.properties.config.GlobalConfig;
 import com.google.inject.util.Providers;
 import de.otto.edison.hal.Links;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.github.sdorra.jse.ShiroExtension;
 import org.github.sdorra.jse.SubjectAware;
 import org.junit.jupiter.api.BeforeEach;
@@ -36,12 +37,14 @@ import sonia.scm.repository.Repository;
 import sonia.scm.repository.RepositoryTestData;
 
 import java.net.URI;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 
 import static de.otto.edison.hal.Link.link;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.lenient;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.when;
@@ -51,6 +54,7 @@ import static org.mockito.Mockito.when;
 class RepositoryEnricherTest {
 
   private final Repository repository = RepositoryTestData.create42Puzzle();
+  private final Collection<CustomProperty> storedProperties = List.of(new CustomProperty("published", "true"));
 
   @Mock
   private HalEnricherContext context;
@@ -61,6 +65,10 @@ class RepositoryEnricherTest {
   private ConfigService configService;
   @Mock
   private CustomPropertiesService customPropertiesService;
+  @Mock
+  private RepositoryPropertyIndex propertyIndex;
+  @Mock
+  private MissingMandatoryPropertiesIndex missingMandatoryPropertiesIndex;
   private RepositoryEnricher enricher;
 
   @Captor
@@ -72,6 +80,7 @@ class RepositoryEnricherTest {
   @BeforeEach
   void setUp() {
     repository.setId("1337");
+    lenient().when(propertyIndex.getProperties("1337")).thenReturn(storedProperties);
 
     ScmPathInfoStore scmPathInfoStore = new ScmPathInfoStore();
     scmPathInfoStore.set(() -> URI.create("https://scm-test.de/scm/api/"));
@@ -81,8 +90,11 @@ class RepositoryEnricherTest {
     enricher = new RepositoryEnricher(
       Providers.of(scmPathInfoStore),
       customPropertiesService,
+      propertyIndex,
+      missingMandatoryPropertiesIndex,
       configService,
-      mapper
+      mapper,
+      new CustomPropertiesMetrics(new SimpleMeterRegistry())
     );
   }
 
@@ -112,7 +124,7 @@ class RepositoryEnricherTest {
     GlobalConfig enabledConfig = new GlobalConfig(true, true, Map.of());
     when(configService.getGlobalConfig()).thenReturn(enabledConfig);
     when(context.oneRequireByType(Repository.class)).thenReturn(repository);
-    when(customPropertiesService.get(repository)).thenReturn(List.of());
+    when(customPropertiesService.get(repository, storedProperties)).thenReturn(List.of());
 
     enricher.enrich(context, appender);
     verify(appender).appendLink(
@@ -128,7 +140,7 @@ class RepositoryEnricherTest {
 
     when(configService.getGlobalConfig()).thenReturn(enabledConfig);
     when(context.oneRequireByType(Repository.class)).thenReturn(repository);
-    when(customPropertiesService.get(repository)).thenReturn(
+    when(customPropertiesService.get(repository, storedProperties)).thenReturn(
       List.of(
         new CustomProperty("lang", "java", true, false),
         new CustomProperty("published", "true", false, false)
@@ -157,7 +169,7 @@ class RepositoryEnricherTest {
 
     when(configService.getGlobalConfig()).thenReturn(enabledConfig);
     when(context.oneRequireByType(Repository.class)).thenReturn(repository);
-    when(customPropertiesService.get(repository)).thenReturn(
+    when(customPropertiesService.get(repository, storedProperties)).thenReturn(
       List.of(
         new CustomProperty("lang", "java", true, false),
         new CustomProperty("published", "true", false, false)
@@ -195,7 +207,7 @@ class RepositoryEnricherTest {
     when(configService.getGlobalConfig()).thenReturn(enabledConfig);
     when(context.oneRequireByType(Repository.class)).thenReturn(repository);
 
-    when(customPropertiesService.getMissingMandatoryPropertiesForRepository(repository)).thenReturn(
+    when(missingMandatoryPropertiesIndex.getMissingMandatoryPropertiesForRepository(repository)).thenReturn(
       List.of("Required", "Mandatory")
     );
 
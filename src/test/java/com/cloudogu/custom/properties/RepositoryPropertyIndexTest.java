@@ -0,0 +1,276 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package com.cloudogu.custom.properties;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import sonia.scm.HandlerEventType;
+import sonia.scm.repository.Repository;
+import sonia.scm.repository.RepositoryEvent;
+import sonia.scm.repository.RepositoryManager;
+import sonia.scm.web.security.AdministrationContext;
+import sonia.scm.web.security.PrivilegedAction;
+
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class RepositoryPropertyIndexTest {
+
+  private final Repository repository = new Repository("1", "git", "hitchhiker", "42");
+
+  @Mock
+  private RepositoryManager repositoryManager;
+  @Mock
+  private CustomPropertiesService customPropertiesService;
+  @Mock
+  private AdministrationContext administrationContext;
+
+  private RepositoryPropertyIndex index;
+
+  @BeforeEach
+  void setUp() {
+    lenient().doAnswer(invocation -> {
+      invocation.getArgument(0, PrivilegedAction.class).run();
+      return null;
+    }).when(administrationContext).runAsAdmin(any(PrivilegedAction.class));
+    when(repositoryManager.getAll()).thenReturn(List.of(repository));
+    when(customPropertiesService.getAllStoredProperties(List.of(repository))).thenReturn(Map.of(
+      "1", List.of(new CustomProperty("Lang", "Java\tGo"))
+    ));
+
+    index = new RepositoryPropertyIndex(repositoryManager, customPropertiesService, administrationContext);
+  }
+
+  private Predicate<String> equalTo(String expected) {
+    return expected::equals;
+  }
+
+  @Test
+  void shouldLoadStoredPropertiesOnlyOnce() {
+    assertThat(index.findRepositoryIds(equalTo("lang"), List.of(equalTo("java"), equalTo("go")))).containsOnly("1");
+    assertThat(index.getProperties("1")).containsOnly(new CustomProperty("Lang", "Java\tGo"));
+
+    verify(customPropertiesService, times(1)).getAllStoredProperties(List.of(repository));
+  }
+
+  @Test
+  void shouldApplyEventReceivedDuringInitialization() throws InterruptedException {
+    CustomPropertyCreateEvent event = new CustomPropertyCreateEvent(repository, new CustomProperty("license", "MIT"));
+    Thread eventThread = new Thread(() -> index.handleEvent(event));
+    doAnswer(invocation -> {
+      eventThread.start();
+      while (eventThread.getState() != Thread.State.WAITING && eventThread.getState() != Thread.State.TERMINATED) {
+        Thread.onSpinWait();
+      }
+      return Map.of("1", List.of(new CustomProperty("Lang", "Java\tGo")));
+    }).when(customPropertiesService).getAllStoredProperties(List.of(repository));
+    when(customPropertiesService.getStoredProperties(repository)).thenReturn(List.of(
+      new CustomProperty("Lang", "Java\tGo"), new CustomProperty("license", "MIT")
+    ));
+
+    index.getProperties("1");
+    eventThread.join();
+
+    assertThat(index.getProperties("1")).containsOnly(
+      new CustomProperty("Lang", "Java\tGo"), new CustomProperty("license", "MIT")
+    );
+  }
+
+  @Test
+  void shouldReloadRepositoryOfCorrectedSnapshot() {
+    index.getProperties("1");
+    when(customPropertiesService.getStoredProperties(repository)).thenReturn(List.of(new CustomProperty("license", "MIT")));
+
+    index.handleEvent(new CustomPropertySnapshotCorrectedEvent(repository));
+
+    assertThat(index.getProperties("1")).containsOnly(new CustomProperty("license", "MIT"));
+    assertThat(index.findRepositoryIds(equalTo("lang"), List.of())).isEmpty();
+  }
+
+  @Test
+  void shouldRequireAllValuesWithinOneProperty() {
+    assertThat(index.findRepositoryIds(key -> true, List.of(equalTo("java"), equalTo("rust")))).isEmpty();
+  }
+
+  @Test
+  void shouldEstimateRepositoryCountFromPostings() {
+    assertThat(index.estimateRepositoryCount(equalTo("lang"), List.of())).isEqualTo(1);
+    assertThat(index.estimateRepositoryCount(equalTo("lang"), List.of(equalTo("java")))).isEqualTo(1);
+    assertThat(index.estimateRepositoryCount(equalTo("lang"), List.of(equalTo("java"), equalTo("rust")))).isZero();
+    assertThat(index.estimateRepositoryCount(equalTo("license"), List.of())).isZero();
+  }
+
+  @Test
+  void shouldReplacePostingsOnUpdate() {
+    index.getProperties("1");
+    when(customPropertiesService.getStoredProperties(repository)).thenReturn(List.of(new CustomProperty("language", "Rust")));
+
+    index.handleEvent(new CustomPropertyUpdateEvent(
+      repository, new CustomProperty("language", "Rust"), new CustomProperty("Lang", "Java\tGo")
+    ));
+
+    assertThat(index.findRepositoryIds(equalTo("lang"), List.of())).isEmpty();
+    assertThat(index.findRepositoryIds(equalTo("language"), List.of(equalTo("rust")))).containsOnly("1");
+    assertThat(index.hasProperty("1", "Lang")).isFalse();
+  }
+
+  @Test
+  void shouldRemovePostingsOnDelete() {
+    index.getProperties("1");
+    when(customPropertiesService.getStoredProperties(repository)).thenReturn(List.of());
+
+    index.handleEvent(new CustomPropertyDeleteEvent(repository, new CustomProperty("Lang", "Java\tGo")));
+
+    assertThat(index.findRepositoryIds(key -> true, List.of(equalTo("java")))).isEmpty();
+    assertThat(index.getProperties("1")).isEmpty();
+  }
+
+  @Test
+  void shouldReloadStoredPropertiesInsteadOfApplyingEventsInTheirOrder() {
+    index.getProperties("1");
+    when(customPropertiesService.getStoredProperties(repository)).thenReturn(List.of(new CustomProperty("Lang", "Rust")));
+
+    index.handleEvent(new CustomPropertyUpdateEvent(
+      repository, new CustomProperty("Lang", "Rust"), new CustomProperty("Lang", "Kotlin")
+    ));
+    index.handleEvent(new CustomPropertyUpdateEvent(
+      repository, new CustomProperty("Lang", "Kotlin"), new CustomProperty("Lang", "Java\tGo")
+    ));
+
+    assertThat(index.getProperties("1")).containsOnly(new CustomProperty("Lang", "Rust"));
+    assertThat(index.findRepositoryIds(equalTo("lang"), List.of(equalTo("kotlin")))).isEmpty();
+  }
+
+  @Test
+  void shouldApplyAllChangesOfBulkEvent() {
+    index.getProperties("1");
+    when(customPropertiesService.getStoredProperties(repository)).thenReturn(List.of(new CustomProperty("license", "MIT")));
+
+    index.handleEvent(new CustomPropertyBulkEvent(List.of(
+      new CustomPropertyDeleteEvent(repository, new CustomProperty("Lang", "Java\tGo")),
+      new CustomPropertyCreateEvent(repository, new CustomProperty("license", "MIT"))
+    )));
+
+    assertThat(index.getProperties("1")).containsOnly(new CustomProperty("license", "MIT"));
+    assertThat(index.findRepositoryIds(key -> true, List.of(equalTo("java")))).isEmpty();
+  }
+
+  @Test
+  void shouldIgnoreSingleEventWhichIsPartOfBulk() {
+    index.getProperties("1");
+    CustomPropertyCreateEvent event = new CustomPropertyCreateEvent(repository, new CustomProperty("license", "MIT"));
+    new CustomPropertyBulkEvent(List.of(event));
+
+    index.handleEvent(event);
+
+    assertThat(index.getProperties("1")).containsOnly(new CustomProperty("Lang", "Java\tGo"));
+  }
+
+  @Test
+  void shouldNotMixUpRepositoriesReusingOrdinals() {
+    Repository otherRepository = new Repository("2", "git", "hitchhiker", "heart-of-gold");
+    index.getProperties("1");
+    when(customPropertiesService.getStoredProperties(otherRepository)).thenReturn(List.of(new CustomProperty("lang", "Rust")));
+    when(customPropertiesService.getStoredProperties(repository)).thenReturn(List.of(new CustomProperty("lang", "Java")));
+
+    index.handleEvent(new RepositoryEvent(HandlerEventType.DELETE, repository));
+    index.handleEvent(new CustomPropertyCreateEvent(otherRepository, new CustomProperty("lang", "Rust")));
+    index.handleEvent(new CustomPropertyCreateEvent(repository, new CustomProperty("lang", "Java")));
+
+    assertThat(index.findRepositoryIds(equalTo("lang"), List.of(equalTo("rust")))).containsOnly("2");
+    assertThat(index.findRepositoryIds(equalTo("lang"), List.of(equalTo("java")))).containsOnly("1");
+    assertThat(index.findRepositoryIds(equalTo("lang"), List.of())).containsOnly("1", "2");
+  }
+
+  @Test
+  void shouldRemoveDeletedRepository() {
+    index.getProperties("1");
+
+    index.handleEvent(new RepositoryEvent(HandlerEventType.DELETE, repository));
+
+    assertThat(index.findRepositoryIds(key -> true, List.of())).isEmpty();
+  }
+
+  @Nested
+  class WithPropertyTable {
+
+    @BeforeEach
+    void createIndexWithTable() {
+      index = new RepositoryPropertyIndex(repositoryManager, customPropertiesService, administrationContext, true);
+    }
+
+    @Test
+    void shouldFindRepositoriesInTable() {
+      assertThat(index.findRepositoryIds(equalTo("lang"), List.of(equalTo("java"), equalTo("go")))).containsOnly("1");
+      assertThat(index.getProperties("1")).containsOnly(new CustomProperty("Lang", "Java\tGo"));
+      assertThat(index.hasProperty("1", "Lang")).isTrue();
+      assertThat(index.estimateRepositoryCount(equalTo("lang"), List.of(equalTo("java")))).isEqualTo(1);
+    }
+
+    @Test
+    void shouldHideRowsOfChangedRepository() {
+      index.getProperties("1");
+      when(customPropertiesService.getStoredProperties(repository)).thenReturn(List.of(new CustomProperty("language", "Rust")));
+
+      index.handleEvent(new CustomPropertyUpdateEvent(
+        repository, new CustomProperty("language", "Rust"), new CustomProperty("Lang", "Java\tGo")
+      ));
+
+      assertThat(index.findRepositoryIds(equalTo("lang"), List.of())).isEmpty();
+      assertThat(index.findRepositoryIds(equalTo("language"), List.of(equalTo("rust")))).containsOnly("1");
+      assertThat(index.getProperties("1")).containsOnly(new CustomProperty("language", "Rust"));
+    }
+
+    @Test
+    void shouldRemoveDeletedRepository() {
+      index.getProperties("1");
+
+      index.handleEvent(new RepositoryEvent(HandlerEventType.DELETE, repository));
+
+      assertThat(index.findRepositoryIds(key -> true, List.of())).isEmpty();
+      assertThat(index.hasProperty("1", "Lang")).isFalse();
+    }
+
+    @Test
+    void shouldRebuildTableAfterManyChanges() {
+      index.getProperties("1");
+      when(customPropertiesService.getStoredProperties(any())).thenReturn(List.of(new CustomProperty("lang", "Go")));
+
+      for (int i = 0; i < 1000; i++) {
+        Repository changedRepository = new Repository("changed-" + i, "git", "hitchhiker", "changed-" + i);
+        index.handleEvent(new CustomPropertyCreateEvent(changedRepository, new CustomProperty("lang", "Go")));
+      }
+
+      assertThat(index.findRepositoryIds(equalTo("lang"), List.of(equalTo("go")))).hasSize(1001);
+      assertThat(index.getProperties("changed-42")).containsOnly(new CustomProperty("lang", "Go"));
+    }
+  }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package com.cloudogu.custom.properties;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import sonia.scm.repository.Repository;
+import sonia.scm.search.Hit;
+import sonia.scm.search.QueryBuilder;
+import sonia.scm.search.QueryResult;
+import sonia.scm.search.SearchEngine;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class SearchEngineRepositoryQueryTest {
+
+  @Mock
+  private SearchEngine searchEngine;
+  @Mock
+  private SearchEngine.ForType<IndexedCustomProperty> forType;
+  @Mock
+  private QueryBuilder<IndexedCustomProperty> queryBuilder;
+  @Mock
+  private CustomPropertiesService customPropertiesService;
+
+  private final PendingIndexChanges pendingIndexChanges = new PendingIndexChanges();
+  private SearchEngineRepositoryQuery query;
+
+  @BeforeEach
+  void setUp() {
+    lenient().when(searchEngine.forType(IndexedCustomProperty.class)).thenReturn(forType);
+    lenient().when(forType.search()).thenReturn(queryBuilder);
+    lenient().when(queryBuilder.start(anyInt())).thenReturn(queryBuilder);
+    lenient().when(queryBuilder.limit(anyInt())).thenReturn(queryBuilder);
+
+    query = new SearchEngineRepositoryQuery(searchEngine, customPropertiesService, pendingIndexChanges, true);
+  }
+
+  private CustomPropertiesSearchService.SearchNamespaces namespaces(Repository... repositories) {
+    return new CustomPropertiesSearchService.SearchNamespaces(
+      Arrays.stream(repositories).map(Repository::getNamespace).distinct().toList(), () -> List.of(repositories)
+    );
+  }
+
+  private void mockHits(String query, String... repositoryIds) {
+    List<Hit> hits = Arrays.stream(repositoryIds).map(id -> {
+      Hit hit = mock(Hit.class);
+      when(hit.getRepositoryId()).thenReturn(Optional.of(id));
+      return hit;
+    }).toList();
+    QueryResult result = mock(QueryResult.class);
+    when(result.getHits()).thenReturn(hits);
+    when(result.getTotalHits()).thenReturn((long) hits.size());
+    when(queryBuilder.execute(query)).thenReturn(result);
+  }
+
+  @Test
+  void shouldIntersectQueriesOfAllValues() {
+    mockHits("key:lang AND value:java", "1", "2");
+    mockHits("key:lang AND value:go*", "2", "3");
+
+    Optional<Set<String>> candidateIds = query.findCandidateIds(
+      new CustomPropertiesSearchService.Filter(null, null, "Lang=Java\tGo*", false).getClauses(), namespaces()
+    );
+
+    assertThat(candidateIds).contains(Set.of("2"));
+  }
+
+  @Test
+  void shouldAddRepositoriesWithChangesNotWrittenToIndex() {
+    mockHits("key:lang AND value:java", "1");
+    pendingIndexChanges.add("2");
+    pendingIndexChanges.add("3");
+    pendingIndexChanges.remove(List.of("3"));
+
+    Optional<Set<String>> candidateIds = query.findCandidateIds(
+      new CustomPropertiesSearchService.Filter(null, null, "lang=java", false).getClauses(), namespaces()
+    );
+
+    assertThat(candidateIds).contains(Set.of("1", "2"));
+  }
+
+  @Test
+  void shouldAddRepositoriesOfNamespacesWithMatchingDefault() {
+    Repository repository = new Repository("4", "git", "hitchhiker", "42");
+    mockHits("value:true", "1");
+    when(customPropertiesService.getDefaultProperties("hitchhiker")).thenReturn(List.of(
+      new CustomProperty("published", "true", true, false)
+    ));
+
+    Optional<Set<String>> candidateIds = query.findCandidateIds(
+      new CustomPropertiesSearchService.Filter(null, "true", null, false).getClauses(), namespaces(repository)
+    );
+
+    assertThat(candidateIds).contains(Set.of("1", "4"));
+  }
+
+  @Test
+  void shouldNotResolveUntranslatableClauses() {
+    Optional<Set<String>> candidateIds = query.findCandidateIds(
+      new CustomPropertiesSearchService.Filter("*lang", null, "version=1.0.0", false).getClauses(), namespaces()
+    );
+
+    assertThat(candidateIds).isEmpty();
+    verifyNoInteractions(searchEngine);
+  }
+
+  @ParameterizedTest
+  @ValueSource(strings = {"foo*baz", "foo?bar", "*bar", "foo-bar", "foo.bar*"})
+  void shouldNotResolveGlobsMatchingAcrossTokens(String value) {
+    Optional<Set<String>> candidateIds = query.findCandidateIds(
+      new CustomPropertiesSearchService.Filter(null, null, "lang=" + value, false).getClauses(), namespaces()
+    );
+
+    assertThat(candidateIds).isEmpty();
+    verifyNoInteractions(searchEngine);
+  }
+
+  @Test
+  void shouldNotResolveIfDisabled() {
+    query = new SearchEngineRepositoryQuery(searchEngine, customPropertiesService, pendingIndexChanges, false);
+
+    assertThat(query.findCandidateIds(
+      new CustomPropertiesSearchService.Filter("lang", null, null, false).getClauses(), namespaces()
+    )).isEmpty();
+    verifyNoInteractions(searchEngine);
+  }
+}
@@ -16,9 +16,17 @@
 
 package com.cloudogu.custom.properties.config;
 
+import com.cloudogu.custom.properties.CustomPropertiesMetrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.Test;
+import sonia.scm.HandlerEventType;
+import sonia.scm.event.ScmEventBus;
+import sonia.scm.repository.Namespace;
+import sonia.scm.repository.NamespaceEvent;
+import sonia.scm.repository.Repository;
+import sonia.scm.repository.RepositoryEvent;
 import sonia.scm.store.ConfigurationStoreFactory;
 import sonia.scm.store.InMemoryByteConfigurationStoreFactory;
 
@@ -28,16 +36,23 @@ import java.util.Map;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.assertj.core.api.Assertions.entry;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 
 class ConfigServiceTest {
 
   private final String NAMESPACE = "HITCHHIKER";
+  private final ScmEventBus eventBus = mock(ScmEventBus.class);
+  private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
   private ConfigService configService;
 
   @BeforeEach
   void setUp() {
     ConfigurationStoreFactory configurationStoreFactory = new InMemoryByteConfigurationStoreFactory();
-    configService = new ConfigService(configurationStoreFactory);
+    configService = new ConfigService(configurationStoreFactory, eventBus, new CustomPropertiesMetrics(meterRegistry));
   }
 
   @Nested
@@ -70,6 +85,40 @@ class ConfigServiceTest {
       );
     }
 
+    @Test
+    void shouldNotReturnCachedConfigAfterChange() {
+      assertThat(configService.getGlobalConfig().isEnabled()).isTrue();
+
+      GlobalConfig globalConfig = new GlobalConfig();
+      globalConfig.setEnabled(false);
+      configService.setGlobalConfig(globalConfig);
+
+      assertThat(configService.getGlobalConfig().isEnabled()).isFalse();
+    }
+
+    @Test
+    void shouldNotChangeCachedConfigByModifyingReturnedConfig() {
+      GlobalConfig globalConfig = new GlobalConfig();
+      globalConfig.setPredefinedKeys(Map.of("lang", new PredefinedKey(List.of("Java"))));
+      configService.setGlobalConfig(globalConfig);
+
+      GlobalConfig modifiedConfig = configService.getGlobalConfig();
+      modifiedConfig.setEnabled(false);
+      modifiedConfig.getPredefinedKeys().get("lang").setAllowedValues(List.of("Go"));
+      modifiedConfig.getPredefinedKeys().put("license", new PredefinedKey(List.of()));
+
+      GlobalConfig cachedConfig = configService.getGlobalConfig();
+      assertThat(cachedConfig.isEnabled()).isTrue();
+      assertThat(cachedConfig.getPredefinedKeys()).containsOnly(entry("lang", new PredefinedKey(List.of("Java"))));
+    }
+
+    @Test
+    void shouldPostEventForChangedConfig() {
+      configService.setGlobalConfig(new GlobalConfig());
+
+      verify(eventBus).post(argThat(event -> ((ConfigChangedEvent) event).getNamespace().isEmpty()));
+    }
+
     @Test
     void shouldGetDefaultConfig() {
       GlobalConfig result = configService.getGlobalConfig();
@@ -153,6 +202,14 @@ class ConfigServiceTest {
 
       assertThatThrownBy(() -> configService.setNamespaceConfig("Kanto", namespaceConfig))
         .isInstanceOf(InvalidDefaultValueException.class);
+      verify(eventBus, never()).post(any());
+    }
+
+    @Test
+    void shouldPostEventForChangedConfig() {
+      configService.setNamespaceConfig("Kanto", new NamespaceConfig());
+
+      verify(eventBus).post(argThat(event -> ((ConfigChangedEvent) event).getNamespace().orElseThrow().equals("Kanto")));
     }
 
     @Test
@@ -246,5 +303,74 @@ class ConfigServiceTest {
         entry("lang", new PredefinedKey(List.of("Rust", "Go")))
       );
     }
+
+    @Test
+    void shouldCountHitsAndMissesOfMergedKeys() {
+      configService.getAllPredefinedKeys(NAMESPACE);
+      configService.getAllPredefinedKeys(NAMESPACE);
+
+      assertThat(meterRegistry.get("scm.customproperties.cache").tags("endpoint", "predefined-keys", "result", "miss").counter().count())
+        .isEqualTo(1);
+      assertThat(meterRegistry.get("scm.customproperties.cache").tags("endpoint", "predefined-keys", "result", "hit").counter().count())
+        .isEqualTo(1);
+    }
+
+    @Test
+    void shouldReuseMergedKeysUntilConfigChanges() {
+      GlobalConfig globalConfig = new GlobalConfig();
+      globalConfig.setPredefinedKeys(
+        Map.of(
+          "lang", new PredefinedKey(List.of("Java", "TypeScript"))
+        )
+      );
+      configService.setGlobalConfig(globalConfig);
+
+      Map<String, PredefinedKey> firstResult = configService.getAllPredefinedKeys(NAMESPACE);
+      assertThat(configService.getAllPredefinedKeys(NAMESPACE)).isSameAs(firstResult);
+      assertThatThrownBy(() -> firstResult.put("arbitrary", new PredefinedKey(List.of())))
+        .isInstanceOf(UnsupportedOperationException.class);
+
+      NamespaceConfig namespaceConfig = new NamespaceConfig();
+      namespaceConfig.setPredefinedKeys(
+        Map.of(
+          "arbitrary", new PredefinedKey(List.of())
+        )
+      );
+      configService.setNamespaceConfig(NAMESPACE, namespaceConfig);
+
+      assertThat(configService.getAllPredefinedKeys(NAMESPACE)).containsOnly(
+        entry("lang", new PredefinedKey(List.of("Java", "TypeScript"))),
+        entry("arbitrary", new PredefinedKey(List.of()))
+      );
+
+      globalConfig.setEnableNamespaceConfig(false);
+      configService.setGlobalConfig(globalConfig);
+
+      assertThat(configService.getAllPredefinedKeys(NAMESPACE)).containsOnly(
+        entry("lang", new PredefinedKey(List.of("Java", "TypeScript")))
+      );
+    }
+
+    @Test
+    void shouldDropMergedKeysOfDeletedNamespace() {
+      Map<String, PredefinedKey> firstResult = configService.getAllPredefinedKeys(NAMESPACE);
+
+      configService.handleEvent(new NamespaceEvent(HandlerEventType.DELETE, new Namespace(NAMESPACE)));
+
+      assertThat(configService.getAllPredefinedKeys(NAMESPACE)).isNotSameAs(firstResult);
+    }
+
+    @Test
+    void shouldDropMergedKeysOfRenamedNamespace() {
+      Repository repository = new Repository("1", "git", NAMESPACE, "42");
+      Repository renamedRepository = new Repository("1", "git", "heart-of-gold", "42");
+      Map<String, PredefinedKey> oldNamespaceKeys = configService.getAllPredefinedKeys(NAMESPACE);
+      Map<String, PredefinedKey> newNamespaceKeys = configService.getAllPredefinedKeys("heart-of-gold");
+
+      configService.handleEvent(new RepositoryEvent(HandlerEventType.MODIFY, renamedRepository, repository));
+
+      assertThat(configService.getAllPredefinedKeys(NAMESPACE)).isNotSameAs(oldNamespaceKeys);
+      assertThat(configService.getAllPredefinedKeys("heart-of-gold")).isNotSameAs(newNamespaceKeys);
+    }
   }
 }
@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+
+package com.cloudogu.custom.properties.config;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class PredefinedKeyTest {
+
+  @Test
+  void shouldValidateSingleValueAgainstAllowedValues() {
+    PredefinedKey key = new PredefinedKey(List.of("Java", "Go"));
+
+    assertThat(key.isValueValid("Go")).isTrue();
+    assertThat(key.isValueValid("go")).isFalse();
+    assertThat(new PredefinedKey(List.of()).isValueValid("anything")).isTrue();
+  }
+
+  @Test
+  void shouldRequireEveryChoiceToBeAllowed() {
+    PredefinedKey key = new PredefinedKey(List.of("Java", "Go", "C"), ValueMode.MULTIPLE_CHOICE, "");
+
+    assertThat(key.isValueValid("Java\tC")).isTrue();
+    assertThat(key.isValueValid("Java\tRust")).isFalse();
+    assertThat(new PredefinedKey(List.of(), ValueMode.MULTIPLE_CHOICE, "").isValueValid("Java")).isFalse();
+  }
+
+  @Test
+  void shouldValidateAgainstReplacedAllowedValues() {
+    PredefinedKey key = new PredefinedKey(List.of("Java"));
+    assertThat(key.isValueValid("Java")).isTrue();
+
+    key.setAllowedValues(List.of("Go"));
+
+    assertThat(key.isValueValid("Java")).isFalse();
+    assertThat(key.isValueValid("Go")).isTrue();
+  }
+
+  @Test
+  void shouldNotBeChangedByModifyingTheListOfAllowedValues() {
+    List<String> allowedValues = new ArrayList<>(List.of("Java"));
+    PredefinedKey key = new PredefinedKey(allowedValues);
+    assertThat(key.isValueValid("Java")).isTrue();
+
+    allowedValues.add("Go");
+
+    assertThat(key.isValueValid("Go")).isFalse();
+    assertThatThrownBy(() -> key.getAllowedValues().add("Go")).isInstanceOf(UnsupportedOperationException.class);
+  }
+
+  @Test
+  void shouldIgnoreDerivedLookupForEquality() {
+    PredefinedKey validated = new PredefinedKey(List.of("Java"), "Java");
+    validated.isDefaultValueValid();
+
+    assertThat(validated).isEqualTo(new PredefinedKey(List.of("Java"), "Java"));
+  }
+}